@@ -11,15 +11,23 @@ class C {
     private static final String RUQUS_NAME = "Ruqus";
     public static final String CLASS_DATA = "ClassData";
     public static final String FIELD_DATA = "FieldData";
+    public static final String FIELD_TYPE = "FieldType";
+    public static final String FLAT_FIELDS = "FlatFields";
     public static final String TRANSFORMER_DATA = "TransformerData";
     public static final String RUQ_TRANSFORMER = "RUQTransformer";
+    public static final String RUQUS_INDEX = "RuqusIndex";
 
     public static final String FIELD_DATA_SUFFIX = "$$RuqusFieldData";
     public static final String GEN_CLASS_DATA_CLASS_NAME = RUQUS_NAME + "$$RuqusClassData";
     public static final String GEN_TRANSFORMER_DATA_CLASS_NAME = RUQUS_NAME + "$$RuqusTransformerData";
+    public static final String GEN_INDEX_CLASS_NAME = RUQUS_NAME + "$$RuqusIndex";
 
     /**
      * Designates that a transformer may have a variable number of arguments.
      */
-    public static final int VAR_ARGS = -1;
+    public static final int VAR_ARGS = Transformer.VAR_ARGS;
+    /**
+     * Default maximum number of relationship fields which may be followed from a queryable class.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 3;
 }
@@ -15,4 +15,13 @@ public @interface Queryable {
      * Name to use in user-visible areas.
      */
     String name();
+
+    /**
+     * Maximum number of relationship fields (fields whose type is a RealmModel or RealmList) which may be followed, one
+     * after another, when offering users fields to build conditions with. Use 0 to only offer the class's own fields.
+     * <p/>
+     * Relationships which lead back to a class that has already been passed through are never followed, regardless of
+     * this value.
+     */
+    int maxDepth() default C.DEFAULT_MAX_DEPTH;
 }
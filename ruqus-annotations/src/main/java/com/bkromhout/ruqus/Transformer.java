@@ -14,6 +14,11 @@ public @interface Transformer {
 
     // TODO have a field-only constant?
 
+    /**
+     * Value for {@link #numArgs()} which designates that a transformer may have a variable number of arguments.
+     */
+    int VAR_ARGS = -1;
+
     /**
      * Name to use in user-visible areas. For transformers, this should be something that makes sense within the context
      * of a sentence.<br>For example, if a transformer wraps the {@code between()} method on {@code RealmQuery}, this
@@ -28,7 +33,7 @@ public @interface Transformer {
      * verifying that the types of those arguments match that of the field.
      * <p/>
      * By default this is 1, but developers can override it if need be. All integers >= 0 are allowed.<br>If you wish to
-     * have a variable number of arguments, set this to {@link C#VAR_ARGS}, but be aware that Ruqus will not check that
+     * have a variable number of arguments, set this to {@link #VAR_ARGS}, but be aware that Ruqus will not check that
      * the {@code Condition}'s argument types match its field's type if you do this, you will have to do it yourself in
      * your transformer.
      * <p/>
@@ -5,6 +5,8 @@ import com.google.auto.common.MoreTypes;
 import com.google.auto.common.SuperficialValidation;
 import com.squareup.javapoet.*;
 import io.realm.annotations.Ignore;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
 import io.realm.annotations.RealmClass;
 
 import javax.annotation.processing.Messager;
@@ -21,6 +23,8 @@ import java.util.*;
  * RealmModel subclasses for Ruqus to use at runtime (instead of doing a ton of reflection).
  */
 class ClassDataBuilder {
+    private static final String FLAT_SEP = ".";
+    private static final String VIS_FLAT_SEP = ">";
 
     private final Messager messager;
     private static HashSet<String> realClassNames;
@@ -28,6 +32,7 @@ class ClassDataBuilder {
     private static HashMap<String, ClassName> classMap;
     private static HashMap<String, String> visibleNames;
     private static HashMap<String, FieldDataBuilder> fieldData;
+    private static HashMap<String, Integer> maxDepths;
 
     ClassDataBuilder(Messager messager) {
         this.messager = messager;
@@ -36,6 +41,7 @@ class ClassDataBuilder {
         classMap = new HashMap<>();
         visibleNames = new HashMap<>();
         fieldData = new HashMap<>();
+        maxDepths = new HashMap<>();
     }
 
     boolean hasClasses() {
@@ -79,10 +85,17 @@ class ClassDataBuilder {
             // Check class for queryable and visible name annotations to try and figure out visible name.
             String visibleName = null;
             boolean isQueryable = false;
+            int maxDepth = C.DEFAULT_MAX_DEPTH;
             if (MoreElements.isAnnotationPresent(typeElement, Queryable.class)) {
                 Queryable qAnnot = typeElement.getAnnotation(Queryable.class);
                 visibleName = qAnnot.name();
                 isQueryable = true;
+                maxDepth = qAnnot.maxDepth();
+                if (maxDepth < 0) {
+                    error(element, "Failed while processing \"%s\" because @Queryable's maxDepth must not be " +
+                            "negative.", className.toString());
+                    continue;
+                }
             }
             if ((visibleName == null || visibleName.isEmpty()) &&
                     MoreElements.isAnnotationPresent(typeElement, VisibleAs.class)) {
@@ -107,7 +120,10 @@ class ClassDataBuilder {
 
             // Store these locally until we write out the whole class data file.
             realClassNames.add(realName);
-            if (isQueryable) queryable.add(realName);
+            if (isQueryable) {
+                queryable.add(realName);
+                maxDepths.put(realName, maxDepth);
+            }
             classMap.put(realName, className);
             visibleNames.put(realName, visibleName);
             fieldData.put(realName, fdBuilder);
@@ -146,8 +162,14 @@ class ClassDataBuilder {
                 List<? extends TypeMirror> parameterTypes = MoreTypes.asDeclared(varMirror).getTypeArguments();
                 realmListType = ClassName.bestGuess(parameterTypes.get(0).toString());
             }
+            // Figure out if the field's type is a RealmModel subclass now, so that we don't need reflection later.
+            boolean isRealmModel = Utils.isSubtypeOfType(varMirror, TypeNames.REALM_MODEL.toString());
+            // Note whether Realm will index the field, so that the query optimizer can prefer conditions on it.
+            boolean isPrimaryKey = MoreElements.isAnnotationPresent(var, PrimaryKey.class);
+            boolean isIndexed = isPrimaryKey || MoreElements.isAnnotationPresent(var, Index.class);
             // Add this field's data to the field data builder.
-            fdBuilder.addField(realFieldName, visibleFieldName, fieldType, realmListType);
+            fdBuilder.addField(realFieldName, visibleFieldName, fieldType, realmListType, isRealmModel, isIndexed,
+                    isPrimaryKey);
         }
     }
 
@@ -245,11 +267,11 @@ class ClassDataBuilder {
         for (Map.Entry<String, String> entry : visibleNames.entrySet())
             staticBlockBuilder.addStatement(addVisibleNameStmt, entry.getKey(), entry.getValue());
 
-        // Loop through field data classes.
-        String addFieldDataStmt = "fieldData.put($S, new $T())";
-        staticBlockBuilder.add("// Add field data classes.\n");
-        for (Map.Entry<String, FieldDataBuilder> entry : fieldData.entrySet())
-            staticBlockBuilder.addStatement(addFieldDataStmt, entry.getKey(), entry.getValue().getClassName());
+        // Loop through max depths of queryable classes.
+        String addMaxDepthStmt = "maxDepths.put($S, $L)";
+        staticBlockBuilder.add("// Add max depths of classes annotated with @Queryable.\n");
+        for (Map.Entry<String, Integer> entry : maxDepths.entrySet())
+            staticBlockBuilder.addStatement(addMaxDepthStmt, entry.getKey(), entry.getValue());
 
         // Finally, build this code block.
         CodeBlock staticBlock = staticBlockBuilder.build();
@@ -259,6 +281,8 @@ class ClassDataBuilder {
                                  .superclass(TypeNames.CLASS_DATA)
                                  .addModifiers(Modifier.FINAL)
                                  .addStaticBlock(staticBlock)
+                                 .addMethod(buildNewFieldData())
+                                 .addMethod(buildNewFlatFields())
                                  .build();
 
         // Build file and return it.
@@ -268,6 +292,119 @@ class ClassDataBuilder {
                        .build();
     }
 
+    /**
+     * Build the method which creates FieldData objects. It switches on the class name so that each FieldData class is
+     * only loaded once it's actually needed.
+     * @return Method spec.
+     */
+    private MethodSpec buildNewFieldData() {
+        ArrayList<String> sortedNames = new ArrayList<>(fieldData.keySet());
+        Collections.sort(sortedNames);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("newFieldData")
+                                               .addAnnotation(Override.class)
+                                               .returns(TypeNames.FIELD_DATA)
+                                               .addParameter(TypeNames.STRING, "realName")
+                                               .beginControlFlow("switch (realName)");
+        for (String realName : sortedNames)
+            builder.addCode("case $S:\n", realName)
+                   .addCode("$>return new $T();\n$<", fieldData.get(realName).getClassName());
+        return builder.addCode("default:\n")
+                      .addCode("$>return null;\n$<")
+                      .endControlFlow()
+                      .build();
+    }
+
+    /**
+     * Build the method which creates tables of flat fields for classes annotated with {@link Queryable}.
+     * @return Method spec.
+     */
+    private MethodSpec buildNewFlatFields() {
+        ArrayList<String> sortedNames = new ArrayList<>(queryable);
+        Collections.sort(sortedNames);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("newFlatFields")
+                                               .addAnnotation(Override.class)
+                                               .returns(TypeNames.FLAT_FIELDS)
+                                               .addParameter(TypeNames.STRING, "realName")
+                                               .beginControlFlow("switch (realName)");
+        for (String realName : sortedNames)
+            builder.addCode("case $S:\n", realName)
+                   .addCode("$>return $L;\n$<", buildFlatFields(realName));
+        return builder.addCode("default:\n")
+                      .addCode("$>return null;\n$<")
+                      .endControlFlow()
+                      .build();
+    }
+
+    /**
+     * Build an expression which creates a {@code FlatFields} object holding all of the flat fields which can be reached
+     * from the class called {@code realName}.
+     * @param realName Real name of a class annotated with {@link Queryable}.
+     * @return Code block for the expression.
+     */
+    private CodeBlock buildFlatFields(String realName) {
+        ArrayList<String> paths = new ArrayList<>();
+        ArrayList<String> visiblePaths = new ArrayList<>();
+        ArrayList<String> types = new ArrayList<>();
+        ArrayDeque<String> classPath = new ArrayDeque<>();
+        classPath.push(realName);
+        addFlatFields(fieldData.get(realName), "", "", maxDepths.get(realName), classPath, paths, visiblePaths,
+                types);
+
+        CodeBlock.Builder pathsBlock = CodeBlock.builder();
+        CodeBlock.Builder visiblePathsBlock = CodeBlock.builder();
+        CodeBlock.Builder typesBlock = CodeBlock.builder();
+        for (int i = 0; i < paths.size(); i++) {
+            pathsBlock.add(i == 0 ? "$S" : ", $S", paths.get(i));
+            visiblePathsBlock.add(i == 0 ? "$S" : ", $S", visiblePaths.get(i));
+            typesBlock.add(i == 0 ? "$T.$L" : ", $T.$L", TypeNames.FIELD_TYPE, types.get(i));
+        }
+        return CodeBlock.builder()
+                        .add("new $T(", TypeNames.FLAT_FIELDS)
+                        .add("new $T[] {", TypeNames.STRING).add(pathsBlock.build()).add("}, ")
+                        .add("new $T[] {", TypeNames.STRING).add(visiblePathsBlock.build()).add("}, ")
+                        .add("new $T[] {", TypeNames.FIELD_TYPE).add(typesBlock.build()).add("})")
+                        .build();
+    }
+
+    /**
+     * Recursively add the flat fields which can be reached from {@code fdBuilder}'s class, in the same order that Ruqus
+     * would find them at runtime.
+     * <p>
+     * Linked fields are skipped if {@code depthLeft} is 0, or if their classes are already in {@code classPath}, since
+     * following them would never end.
+     */
+    private void addFlatFields(FieldDataBuilder fdBuilder, String prepend, String visPrepend, int depthLeft,
+                               ArrayDeque<String> classPath, ArrayList<String> paths, ArrayList<String> visiblePaths,
+                               ArrayList<String> types) {
+        for (String name : fdBuilder.getSortedNames()) {
+            String path = prepend + name;
+            String visiblePath = visPrepend + fdBuilder.visibleNameOf(name);
+            TypeName type = fdBuilder.typeOf(name);
+
+            // Figure out the name of the linked class, if this field is a RealmList or RealmModel.
+            String linkedName = null;
+            ClassName realmListType = fdBuilder.realmListTypeOf(name);
+            if (realmListType != null) linkedName = realmListType.simpleName();
+            else if (fdBuilder.isRealmModel(name) && type instanceof ClassName)
+                linkedName = ((ClassName) type).simpleName();
+
+            if (linkedName != null) {
+                FieldDataBuilder linkedBuilder = fieldData.get(linkedName);
+                if (linkedBuilder == null || depthLeft == 0 || classPath.contains(linkedName)) continue;
+                classPath.push(linkedName);
+                addFlatFields(linkedBuilder, path + FLAT_SEP, visiblePath + VIS_FLAT_SEP, depthLeft - 1, classPath,
+                        paths, visiblePaths, types);
+                classPath.pop();
+            } else {
+                String fieldType = Utils.fieldTypeConstantFor(type);
+                if (fieldType == null) continue;
+                paths.add(path);
+                visiblePaths.add(visiblePath);
+                types.add(fieldType);
+            }
+        }
+    }
+
     private void error(Element e, String msg, Object... args) {
         messager.printMessage(Diagnostic.Kind.ERROR, String.format(msg, args), e);
     }
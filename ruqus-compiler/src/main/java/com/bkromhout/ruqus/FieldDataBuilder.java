@@ -3,19 +3,30 @@ package com.bkromhout.ruqus;
 import com.squareup.javapoet.*;
 
 import javax.lang.model.element.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 
 /**
  * Helps generate *$$RuqusFieldData classes.
+ * <p>
+ * Generated classes store their data in arrays which are indexed by field ordinal (fields are ordered by real name),
+ * and use a generated {@code switch} statement to get a field's ordinal from its real name. Lists returned from them
+ * are shared, unmodifiable views of those arrays.
  */
 class FieldDataBuilder {
     private static final String REAL_FIELD_NAMES = "realFieldNames";
     private static final String VISIBLE_FIELD_NAMES = "visibleFieldNames";
     private static final String TYPES = "types";
     private static final String REALM_LIST_TYPES = "realmListTypes";
+    private static final String IS_REALM_MODEL = "isRealmModel";
+    private static final String IS_INDEXED = "isIndexed";
+    private static final String IS_PRIMARY_KEY = "isPrimaryKey";
+    private static final String REAL_FIELD_NAMES_LIST = "realFieldNamesList";
+    private static final String VISIBLE_FIELD_NAMES_LIST = "visibleFieldNamesList";
 
+    private static final String INDEX_OF = "indexOf";
     private static final String GET_FIELD_NAMES = "getFieldNames";
     private static final String GET_VISIBLE_NAMES = "getVisibleNames";
     private static final String VISIBLE_NAME_OF = "visibleNameOf";
@@ -24,12 +35,17 @@ class FieldDataBuilder {
     private static final String HAS_FIELD = "hasField";
     private static final String IS_REALM_MODEL_TYPE = "isRealmModelType";
     private static final String IS_REALM_LIST_TYPE = "isRealmListType";
+    private static final String IS_INDEXED_FIELD = "isIndexedField";
+    private static final String IS_PRIMARY_KEY_FIELD = "isPrimaryKeyField";
 
     private ClassName className;
     private HashSet<String> realNames;
     private HashMap<String, String> visibleNames;
     private HashMap<String, TypeName> types;
     private HashMap<String, ClassName> realmListTypes;
+    private HashSet<String> realmModelFields;
+    private HashSet<String> indexedFields;
+    private HashSet<String> primaryKeyFields;
 
     FieldDataBuilder(String className) {
         this.className = ClassName.get(C.GEN_PKG, className + C.FIELD_DATA_SUFFIX);
@@ -37,26 +53,70 @@ class FieldDataBuilder {
         visibleNames = new HashMap<>();
         types = new HashMap<>();
         realmListTypes = new HashMap<>();
+        realmModelFields = new HashSet<>();
+        indexedFields = new HashSet<>();
+        primaryKeyFields = new HashSet<>();
     }
 
-    void addField(String realName, String visibleName, TypeName type, ClassName realmListType) {
+    void addField(String realName, String visibleName, TypeName type, ClassName realmListType, boolean isRealmModel,
+                  boolean isIndexed, boolean isPrimaryKey) {
         if (realNames.add(realName)) {
             visibleNames.put(realName, visibleName);
             types.put(realName, type);
             if (realmListType != null) realmListTypes.put(realName, realmListType);
+            if (isRealmModel) realmModelFields.add(realName);
+            if (isIndexed) indexedFields.add(realName);
+            if (isPrimaryKey) primaryKeyFields.add(realName);
         }
     }
 
+    /**
+     * Get the real names of the fields which have been added, ordered by real name.
+     * @return Sorted real field names.
+     */
+    ArrayList<String> getSortedNames() {
+        ArrayList<String> sortedNames = new ArrayList<>(realNames);
+        Collections.sort(sortedNames);
+        return sortedNames;
+    }
+
+    String visibleNameOf(String realName) {
+        return visibleNames.get(realName);
+    }
+
+    TypeName typeOf(String realName) {
+        return types.get(realName);
+    }
+
+    /**
+     * @return The type of RealmModel which the field's RealmList holds, or null if it isn't a RealmList.
+     */
+    ClassName realmListTypeOf(String realName) {
+        return realmListTypes.get(realName);
+    }
+
+    boolean isRealmModel(String realName) {
+        return realmModelFields.contains(realName);
+    }
+
     JavaFile brewJava() {
+        // Order fields by real name so that the generated code is deterministic.
+        ArrayList<String> sortedNames = getSortedNames();
+
         // Build class.
         TypeSpec clazz = TypeSpec.classBuilder(className.simpleName())
                                  .superclass(TypeNames.FIELD_DATA)
                                  .addModifiers(Modifier.FINAL)
-                                 .addField(buildRealNamesField())
-                                 .addField(buildVisibleNamesField())
-                                 .addField(buildTypesField())
-                                 .addField(buildRealmListTypesField())
-                                 .addStaticBlock(buildStaticInitBlock())
+                                 .addField(buildRealNamesField(sortedNames))
+                                 .addField(buildVisibleNamesField(sortedNames))
+                                 .addField(buildTypesField(sortedNames))
+                                 .addField(buildRealmListTypesField(sortedNames))
+                                 .addField(buildBooleanArrayField(IS_REALM_MODEL, realmModelFields, sortedNames))
+                                 .addField(buildBooleanArrayField(IS_INDEXED, indexedFields, sortedNames))
+                                 .addField(buildBooleanArrayField(IS_PRIMARY_KEY, primaryKeyFields, sortedNames))
+                                 .addField(buildListField(REAL_FIELD_NAMES_LIST, REAL_FIELD_NAMES))
+                                 .addField(buildListField(VISIBLE_FIELD_NAMES_LIST, VISIBLE_FIELD_NAMES))
+                                 .addMethod(buildIndexOf(sortedNames))
                                  .addMethod(buildGetFieldNames())
                                  .addMethod(buildGetVisibleNames())
                                  .addMethod(buildVisibleNameOf())
@@ -65,6 +125,8 @@ class FieldDataBuilder {
                                  .addMethod(buildHasField())
                                  .addMethod(buildIsRealmModelType())
                                  .addMethod(buildIsRealmListType())
+                                 .addMethod(buildBooleanArrayLookup(IS_INDEXED_FIELD, IS_INDEXED))
+                                 .addMethod(buildBooleanArrayLookup(IS_PRIMARY_KEY_FIELD, IS_PRIMARY_KEY))
                                  .build();
 
         // Build and return file.
@@ -77,78 +139,95 @@ class FieldDataBuilder {
      * Field Builders.
      */
 
-    private FieldSpec buildRealNamesField() {
-        return FieldSpec.builder(TypeNames.S_HASH_SET, REAL_FIELD_NAMES, Modifier.PRIVATE, Modifier.STATIC,
+    private FieldSpec buildRealNamesField(ArrayList<String> sortedNames) {
+        CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        for (int i = 0; i < sortedNames.size(); i++) initializer.add(i == 0 ? "$S" : ", $S", sortedNames.get(i));
+        return FieldSpec.builder(TypeNames.STRING_ARRAY, REAL_FIELD_NAMES, Modifier.PRIVATE, Modifier.STATIC,
                 Modifier.FINAL)
-                        .initializer("new $T()", TypeNames.S_HASH_SET)
+                        .initializer(initializer.add("}").build())
                         .build();
     }
 
-    private FieldSpec buildVisibleNamesField() {
-        return FieldSpec.builder(TypeNames.S_STRING_HASH_MAP, VISIBLE_FIELD_NAMES, Modifier.PRIVATE,
-                Modifier.STATIC, Modifier.FINAL)
-                        .initializer("new $T()", TypeNames.S_STRING_HASH_MAP)
+    private FieldSpec buildVisibleNamesField(ArrayList<String> sortedNames) {
+        CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        for (int i = 0; i < sortedNames.size(); i++)
+            initializer.add(i == 0 ? "$S" : ", $S", visibleNames.get(sortedNames.get(i)));
+        return FieldSpec.builder(TypeNames.STRING_ARRAY, VISIBLE_FIELD_NAMES, Modifier.PRIVATE, Modifier.STATIC,
+                Modifier.FINAL)
+                        .initializer(initializer.add("}").build())
                         .build();
     }
 
-    private FieldSpec buildTypesField() {
-        return FieldSpec.builder(TypeNames.S_ANY_CLASS_HASH_MAP, TYPES, Modifier.PRIVATE, Modifier.STATIC,
-                Modifier.FINAL)
-                        .initializer("new $T()", TypeNames.S_ANY_CLASS_HASH_MAP)
+    private FieldSpec buildTypesField(ArrayList<String> sortedNames) {
+        CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        for (int i = 0; i < sortedNames.size(); i++) {
+            TypeName type = types.get(sortedNames.get(i));
+            initializer.add(i == 0 ? "$T.class" : ", $T.class",
+                    type.toString().contains("RealmList") ? TypeNames.REALM_LIST : type);
+        }
+        return FieldSpec.builder(TypeNames.ANY_ARRAY, TYPES, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(initializer.add("}").build())
                         .build();
     }
 
-    private FieldSpec buildRealmListTypesField() {
-        return FieldSpec.builder(TypeNames.S_ANY_REALM_OBJ_CLASS_HASH_MAP, REALM_LIST_TYPES, Modifier.PRIVATE,
-                Modifier.STATIC, Modifier.FINAL)
-                        .initializer("new $T()", TypeNames.S_ANY_REALM_OBJ_CLASS_HASH_MAP)
+    private FieldSpec buildRealmListTypesField(ArrayList<String> sortedNames) {
+        CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        for (int i = 0; i < sortedNames.size(); i++) {
+            ClassName realmListType = realmListTypes.get(sortedNames.get(i));
+            if (i > 0) initializer.add(", ");
+            if (realmListType != null) initializer.add("$T.class", realmListType);
+            else initializer.add("null");
+        }
+        return FieldSpec.builder(TypeNames.ANY_ARRAY, REALM_LIST_TYPES, Modifier.PRIVATE, Modifier.STATIC,
+                Modifier.FINAL)
+                        .initializer(initializer.add("}").build())
                         .build();
     }
 
-    /*
-     * Static init block builder.
-     */
-
-    private CodeBlock buildStaticInitBlock() {
-        CodeBlock.Builder staticBlockBuilder = CodeBlock.builder();
-
-        // Loop through real names.
-        String addRealNameStmt = "$L.add($S)";
-        staticBlockBuilder.add("// Add real field names.\n");
-        for (String string : realNames) staticBlockBuilder.addStatement(addRealNameStmt, REAL_FIELD_NAMES, string);
-
-        // Loop through visible names.
-        String addVisibleNameStmt = "$L.put($S, $S)";
-        staticBlockBuilder.add("// Add visible field names.\n");
-        for (Map.Entry<String, String> entry : visibleNames.entrySet())
-            staticBlockBuilder.addStatement(addVisibleNameStmt, VISIBLE_FIELD_NAMES, entry.getKey(), entry.getValue());
-
-        // Loop through types.
-        String addTypeStmt = "$L.put($S, $T.class)";
-        staticBlockBuilder.add("// Add field types.\n");
-        for (Map.Entry<String, TypeName> entry : types.entrySet())
-            staticBlockBuilder.addStatement(addTypeStmt, TYPES, entry.getKey(),
-                    entry.getValue().toString().contains("RealmList") ? TypeNames.REALM_LIST : entry.getValue());
-
-        // Loop through realm list types.
-        String addRealmListTypeStmt = "$L.put($S, $T.class)";
-        staticBlockBuilder.add("// For fields of RealmList type, add the RealmList types.\n");
-        for (Map.Entry<String, ClassName> entry : realmListTypes.entrySet())
-            staticBlockBuilder.addStatement(addRealmListTypeStmt, REALM_LIST_TYPES, entry.getKey(), entry.getValue());
+    private FieldSpec buildBooleanArrayField(String arrayName, HashSet<String> trueFields,
+                                             ArrayList<String> sortedNames) {
+        CodeBlock.Builder initializer = CodeBlock.builder().add("{");
+        for (int i = 0; i < sortedNames.size(); i++)
+            initializer.add(i == 0 ? "$L" : ", $L", trueFields.contains(sortedNames.get(i)));
+        return FieldSpec.builder(boolean[].class, arrayName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(initializer.add("}").build())
+                        .build();
+    }
 
-        return staticBlockBuilder.build();
+    private FieldSpec buildListField(String listName, String arrayName) {
+        return FieldSpec.builder(TypeNames.S_LIST, listName, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$T.unmodifiableList($T.asList($L))", TypeNames.COLLECTIONS, TypeNames.ARRAYS,
+                                arrayName)
+                        .build();
     }
 
     /*
      * Method Builders.
      */
 
+    private MethodSpec buildIndexOf(ArrayList<String> sortedNames) {
+        String paramName = "realFieldName";
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(INDEX_OF)
+                                               .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                                               .returns(TypeName.INT)
+                                               .addParameter(TypeNames.STRING, paramName)
+                                               .addStatement("if ($L == null) return -1", paramName)
+                                               .beginControlFlow("switch ($L)", paramName);
+        for (int i = 0; i < sortedNames.size(); i++)
+            builder.addCode("case $S:\n", sortedNames.get(i))
+                   .addCode("$>return $L;\n$<", i);
+        return builder.addCode("default:\n")
+                      .addCode("$>return -1;\n$<")
+                      .endControlFlow()
+                      .build();
+    }
+
     private MethodSpec buildGetFieldNames() {
         return MethodSpec.methodBuilder(GET_FIELD_NAMES)
                          .addAnnotation(Override.class)
                          .addModifiers(Modifier.FINAL)
-                         .returns(TypeNames.S_ARRAY_LIST)
-                         .addStatement("return new $T($L)", TypeNames.S_ARRAY_LIST, REAL_FIELD_NAMES)
+                         .returns(TypeNames.S_LIST)
+                         .addStatement("return $L", REAL_FIELD_NAMES_LIST)
                          .build();
     }
 
@@ -156,8 +235,8 @@ class FieldDataBuilder {
         return MethodSpec.methodBuilder(GET_VISIBLE_NAMES)
                          .addAnnotation(Override.class)
                          .addModifiers(Modifier.FINAL)
-                         .returns(TypeNames.S_ARRAY_LIST)
-                         .addStatement("return new $T($L.values())", TypeNames.S_ARRAY_LIST, VISIBLE_FIELD_NAMES)
+                         .returns(TypeNames.S_LIST)
+                         .addStatement("return $L", VISIBLE_FIELD_NAMES_LIST)
                          .build();
     }
 
@@ -168,7 +247,8 @@ class FieldDataBuilder {
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeNames.STRING)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $L.get($L)", VISIBLE_FIELD_NAMES, paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i == -1 ? null : $L[i]", VISIBLE_FIELD_NAMES)
                          .build();
     }
 
@@ -179,7 +259,8 @@ class FieldDataBuilder {
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeNames.ANY)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $L.get($L)", TYPES, paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i == -1 ? null : $L[i]", TYPES)
                          .build();
     }
 
@@ -187,10 +268,15 @@ class FieldDataBuilder {
         String paramName = "realFieldName";
         return MethodSpec.methodBuilder(REALM_LIST_TYPE)
                          .addAnnotation(Override.class)
+                         .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                                                      .addMember("value", "$S", "unchecked")
+                                                      .build())
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeNames.ANY_REALM_MODEL)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $L.get($L)", REALM_LIST_TYPES, paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i == -1 ? null : ($T) $L[i]", TypeNames.ANY_REALM_MODEL,
+                                 REALM_LIST_TYPES)
                          .build();
     }
 
@@ -201,20 +287,19 @@ class FieldDataBuilder {
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeName.BOOLEAN)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $L.contains($L)", REAL_FIELD_NAMES, paramName)
+                         .addStatement("return $L($L) != -1", INDEX_OF, paramName)
                          .build();
     }
 
     private MethodSpec buildIsRealmModelType() {
-        // TODO May want to find a way to have this not do reflection?
         String paramName = "realFieldName";
         return MethodSpec.methodBuilder(IS_REALM_MODEL_TYPE)
                          .addAnnotation(Override.class)
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeName.BOOLEAN)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $T.class.isAssignableFrom($L($L))", TypeNames.REALM_MODEL, FIELD_TYPE,
-                                 paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i != -1 && $L[i]", IS_REALM_MODEL)
                          .build();
     }
 
@@ -225,7 +310,20 @@ class FieldDataBuilder {
                          .addModifiers(Modifier.FINAL)
                          .returns(TypeName.BOOLEAN)
                          .addParameter(TypeNames.STRING, paramName)
-                         .addStatement("return $L.containsKey($L)", REALM_LIST_TYPES, paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i != -1 && $L[i] != null", REALM_LIST_TYPES)
+                         .build();
+    }
+
+    private MethodSpec buildBooleanArrayLookup(String methodName, String arrayName) {
+        String paramName = "realFieldName";
+        return MethodSpec.methodBuilder(methodName)
+                         .addAnnotation(Override.class)
+                         .addModifiers(Modifier.FINAL)
+                         .returns(TypeName.BOOLEAN)
+                         .addParameter(TypeNames.STRING, paramName)
+                         .addStatement("int i = $L($L)", INDEX_OF, paramName)
+                         .addStatement("return i != -1 && $L[i]", arrayName)
                          .build();
     }
 
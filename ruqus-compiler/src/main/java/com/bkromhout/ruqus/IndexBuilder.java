@@ -0,0 +1,69 @@
+package com.bkromhout.ruqus;
+
+import com.squareup.javapoet.*;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import java.util.ArrayList;
+
+/**
+ * Helps generate the "Ruqus$$RuqusIndex" class, which references all of the other generated classes directly so that
+ * Ruqus doesn't need to use reflection to find them at runtime.
+ */
+class IndexBuilder {
+    private final Messager messager;
+    private final Elements elementUtils;
+
+    IndexBuilder(Messager messager, Elements elementUtils) {
+        this.messager = messager;
+        this.elementUtils = elementUtils;
+    }
+
+    /**
+     * Build the JavaFile object which will create the "Ruqus$$RuqusIndex.java" file.
+     * @param genTDataClassName Name of the transformer data class which was generated during this compilation, or null
+     *                          if one wasn't.
+     * @return JavaFile.
+     */
+    JavaFile brewIndexFile(String genTDataClassName) {
+        // Find all of the transformer data classes which were generated previously (such as the one which comes with
+        // Ruqus), then add the one which was generated during this compilation, since it won't be found yet.
+        ArrayList<ClassName> tDataClasses = new ArrayList<>();
+        for (int num = 1; ; num++) {
+            String simpleName = C.GEN_TRANSFORMER_DATA_CLASS_NAME + String.valueOf(num);
+            if (simpleName.equals(genTDataClassName)) continue;
+            if (elementUtils.getTypeElement(C.GEN_PKG_PREFIX + simpleName) == null) break;
+            tDataClasses.add(ClassName.get(C.GEN_PKG, simpleName));
+        }
+        if (genTDataClassName != null) tDataClasses.add(ClassName.get(C.GEN_PKG, genTDataClassName));
+
+        // Build transformer data array.
+        CodeBlock.Builder tDataArray = CodeBlock.builder().add("return new $T[] {", TypeNames.TRANS_DATA);
+        for (int i = 0; i < tDataClasses.size(); i++)
+            tDataArray.add(i == 0 ? "new $T()" : ", new $T()", tDataClasses.get(i));
+
+        // Build class.
+        TypeSpec clazz = TypeSpec.classBuilder(C.GEN_INDEX_CLASS_NAME)
+                                 .superclass(TypeNames.RUQUS_INDEX)
+                                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                                 .addMethod(MethodSpec.methodBuilder("newClassData")
+                                                      .addAnnotation(Override.class)
+                                                      .returns(TypeNames.CLASS_DATA)
+                                                      .addStatement("return new $T()", TypeNames.GEN_CLASS_DATA)
+                                                      .build())
+                                 .addMethod(MethodSpec.methodBuilder("newTransformerData")
+                                                      .addAnnotation(Override.class)
+                                                      .returns(ArrayTypeName.of(TypeNames.TRANS_DATA))
+                                                      .addStatement("$L", tDataArray.add("}").build())
+                                                      .build())
+                                 .build();
+
+        // Build file and return it.
+        messager.printMessage(Diagnostic.Kind.NOTE, "Creating " + C.GEN_INDEX_CLASS_NAME);
+        return JavaFile.builder(C.GEN_PKG, clazz)
+                       .addFileComment(C.GEN_CODE_FILE_COMMENT)
+                       .build();
+    }
+}
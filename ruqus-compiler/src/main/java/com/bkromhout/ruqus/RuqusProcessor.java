@@ -2,6 +2,8 @@ package com.bkromhout.ruqus;
 
 import com.google.auto.service.AutoService;
 import io.realm.annotations.Ignore;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
 import io.realm.annotations.RealmClass;
 
 import javax.annotation.processing.*;
@@ -16,7 +18,8 @@ import java.util.Set;
 
 @AutoService(Processor.class)
 public class RuqusProcessor extends AbstractProcessor {
-    private static boolean didGenClassData = false, didGenFieldData = false, didGenTransData = false;
+    private static boolean didGenClassData = false, didGenFieldData = false, didGenTransData = false,
+            didGenIndex = false;
     public static Processor instance;
     public Types typeUtils;
     public Elements elementUtils;
@@ -25,6 +28,7 @@ public class RuqusProcessor extends AbstractProcessor {
 
     ClassDataBuilder classDataBuilder;
     TransformerDataBuilder transformerDataBuilder;
+    IndexBuilder indexBuilder;
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -36,7 +40,8 @@ public class RuqusProcessor extends AbstractProcessor {
         messager = processingEnv.getMessager();
 
         classDataBuilder = new ClassDataBuilder(messager);
-        transformerDataBuilder = new TransformerDataBuilder(messager);
+        transformerDataBuilder = new TransformerDataBuilder(messager, elementUtils);
+        indexBuilder = new IndexBuilder(messager, elementUtils);
     }
 
     @Override
@@ -51,6 +56,8 @@ public class RuqusProcessor extends AbstractProcessor {
         // Realm annotations.
         types.add(RealmClass.class.getCanonicalName());
         types.add(Ignore.class.getCanonicalName());
+        types.add(Index.class.getCanonicalName());
+        types.add(PrimaryKey.class.getCanonicalName());
 
         return types;
     }
@@ -87,6 +94,11 @@ public class RuqusProcessor extends AbstractProcessor {
                 transformerDataBuilder.brewTransformerDataFile().writeTo(filer);
                 didGenTransData = true;
             }
+            // Write out the index file, which references the others. Only apps have class data, so only they need one.
+            if (!didGenIndex && didGenClassData) {
+                indexBuilder.brewIndexFile(transformerDataBuilder.getGenClassName()).writeTo(filer);
+                didGenIndex = true;
+            }
         } catch (IOException e) {
             messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage());
         }
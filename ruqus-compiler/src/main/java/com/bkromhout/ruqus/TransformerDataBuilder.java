@@ -13,6 +13,7 @@ import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.MirroredTypesException;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic;
 import java.util.*;
 
@@ -23,16 +24,22 @@ import java.util.*;
 class TransformerDataBuilder {
 
     private final Messager messager;
+    private final Elements elementUtils;
+    /**
+     * Name of the transformer data class which has been generated, or null if one hasn't been yet.
+     */
+    private String genClassName = null;
     private static HashSet<String> realClassNames;
     private static HashSet<String> realNAClassNames;
     private static HashMap<String, String> visibleNames;
     private static HashMap<String, String> visibleNANames;
     private static HashMap<String, Integer> numArgsMap;
     private static HashMap<String, ClassName> classMap;
-    private static HashMap<ClassName, HashSet<String>> typesMap;
+    private static HashMap<String, List<String>> typesMap;
 
-    TransformerDataBuilder(Messager messager) {
+    TransformerDataBuilder(Messager messager, Elements elementUtils) {
         this.messager = messager;
+        this.elementUtils = elementUtils;
         realClassNames = new HashSet<>();
         realNAClassNames = new HashSet<>();
         visibleNames = new HashMap<>();
@@ -46,6 +53,14 @@ class TransformerDataBuilder {
         return !classMap.isEmpty();
     }
 
+    /**
+     * @return Name of the transformer data class which was generated by {@link #brewTransformerDataFile()}, or null if
+     * it hasn't been called.
+     */
+    String getGenClassName() {
+        return genClassName;
+    }
+
     /**
      * Process all classes annotated with {@link Transformer} and get information needed to generate the transformer
      * data file.
@@ -81,7 +96,7 @@ class TransformerDataBuilder {
                 realClassNames.add(realName);
                 visibleNames.put(realName, visibleName);
                 numArgsMap.put(realName, numArgs);
-                processValidTypes(realName, validTypes);
+                processValidTypes(element, realName, validTypes);
             }
             classMap.put(realName, className);
         }
@@ -98,11 +113,15 @@ class TransformerDataBuilder {
         return validTypes;
     }
 
-    private void processValidTypes(String realName, List<ClassName> validTypes) {
+    private void processValidTypes(Element element, String realName, List<ClassName> validTypes) {
+        ArrayList<String> fieldTypes = new ArrayList<>();
         for (ClassName type : validTypes) {
-            if (!typesMap.containsKey(type)) typesMap.put(type, new HashSet<String>());
-            typesMap.get(type).add(realName);
+            String fieldType = Utils.fieldTypeConstantFor(type);
+            if (fieldType != null) fieldTypes.add(fieldType);
+            else messager.printMessage(Diagnostic.Kind.WARNING, String.format("\"%s\" accepts \"%s\", but no " +
+                    "queryable field can have that type, so it will be ignored.", realName, type.toString()), element);
         }
+        typesMap.put(realName, fieldTypes);
     }
 
     private boolean isValidTransformerClass(TypeElement element, ClassName className, String visibleName,
@@ -152,7 +171,7 @@ class TransformerDataBuilder {
      * @return JavaFile.
      */
     JavaFile brewTransformerDataFile() {
-        String genClassName = nextTDataClassName();
+        genClassName = nextTDataClassName();
         ClassName genClassType = ClassName.get(C.GEN_PKG, genClassName);
 
         // Build static instance var.
@@ -198,27 +217,15 @@ class TransformerDataBuilder {
         for (Map.Entry<String, ClassName> entry : classMap.entrySet())
             staticBlockBuilder.addStatement(addClassStmt, entry.getKey(), entry.getValue());
 
-        // Loop through valid types to names map.
-        staticBlockBuilder.add("// Map types to the names of transformers which accept them.\n");
-        for (Map.Entry<ClassName, HashSet<String>> entry : typesMap.entrySet()) {
-            staticBlockBuilder.add("typesToNames.put($T.class, new HashSet<String>() {{\n", entry.getKey())
-                              .indent();
-            // Add the names of transformers for this type.
-            for (String s : entry.getValue()) staticBlockBuilder.addStatement("add($S)", s);
-            staticBlockBuilder.unindent()
-                              .add("}});\n");
-        }
-
-        // Loop through valid types to visible names map.
-        staticBlockBuilder.add("// Map types to the visible names of transformers which accept them.\n");
-        for (Map.Entry<ClassName, HashSet<String>> entry : typesMap.entrySet()) {
-            staticBlockBuilder.add("typesToVisibleNames.put($T.class, new $T() {{\n", entry.getKey(),
-                    TypeNames.S_HASH_SET)
-                              .indent();
-            // Add the names of transformers for this type.
-            for (String s : entry.getValue()) staticBlockBuilder.addStatement("add($S)", visibleNames.get(s));
-            staticBlockBuilder.unindent()
-                              .add("}});\n");
+        // Loop through accepted types, turning them into bitmasks of FieldType ordinals.
+        staticBlockBuilder.add("// Add masks of the field types which normal transformers accept.\n");
+        for (Map.Entry<String, List<String>> entry : typesMap.entrySet()) {
+            CodeBlock.Builder mask = CodeBlock.builder();
+            if (entry.getValue().isEmpty()) mask.add("0");
+            for (int i = 0; i < entry.getValue().size(); i++)
+                mask.add(i == 0 ? "1 << $T.$L.ordinal()" : " | 1 << $T.$L.ordinal()", TypeNames.FIELD_TYPE,
+                        entry.getValue().get(i));
+            staticBlockBuilder.addStatement("typeMasks.put($S, $L)", entry.getKey(), mask.build());
         }
 
         // Finally, build this code block.
@@ -232,10 +239,6 @@ class TransformerDataBuilder {
                                  .addStaticBlock(staticBlock)
                                  .build();
 
-        typesMap.put(genClassType, new HashSet<String>() {{
-            add("Test");
-        }});
-
         // Build file and return it.
         messager.printMessage(Diagnostic.Kind.NOTE, "Creating " + genClassType.simpleName());
         return JavaFile.builder(C.GEN_PKG, clazz)
@@ -247,15 +250,9 @@ class TransformerDataBuilder {
         // Figure out what number we'll need to append to the end of the class name.
         String base = C.GEN_PKG_PREFIX + C.GEN_TRANSFORMER_DATA_CLASS_NAME;
         int num = 1;
-        while (true) {
-            try {
-                Class.forName(base + String.valueOf(num));
-            } catch (ClassNotFoundException e) {
-                // This class isn't already taken, so we can generate it. Break out of this loop.
-                return C.GEN_TRANSFORMER_DATA_CLASS_NAME + String.valueOf(num);
-            }
-            num++;
-        }
+        // If there's no such type on the compilation classpath, this class isn't already taken, so we can generate it.
+        while (elementUtils.getTypeElement(base + String.valueOf(num)) != null) num++;
+        return C.GEN_TRANSFORMER_DATA_CLASS_NAME + String.valueOf(num);
     }
 
     private void error(Element e, String msg, Object... args) {
@@ -1,13 +1,14 @@
 package com.bkromhout.ruqus;
 
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.WildcardTypeName;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A collection of TypeNames and ClassNames which are used in many places. Some are private since they are only needed
@@ -17,7 +18,9 @@ final class TypeNames {
     // Java Types.
     private static final ClassName CLASS = ClassName.get(Class.class);
     static final ClassName STRING = ClassName.get(String.class);
-    private static final ClassName HASH_MAP = ClassName.get(HashMap.class);
+    static final ClassName ARRAYS = ClassName.get(Arrays.class);
+    static final ClassName COLLECTIONS = ClassName.get(Collections.class);
+    static final TypeName STRING_ARRAY = ArrayTypeName.of(STRING);
 
     // Realm Types.
     static final ClassName REALM_MODEL = ClassName.bestGuess(C.REALM_MODEL);
@@ -26,17 +29,18 @@ final class TypeNames {
     // Ruqus Types.
     static final ClassName CLASS_DATA = ClassName.get(C.GEN_PKG, C.CLASS_DATA);
     static final ClassName FIELD_DATA = ClassName.get(C.GEN_PKG, C.FIELD_DATA);
+    static final ClassName FIELD_TYPE = ClassName.get(C.GEN_PKG, C.FIELD_TYPE);
+    static final ClassName FLAT_FIELDS = ClassName.get(C.GEN_PKG, C.FLAT_FIELDS);
     static final ClassName TRANS_DATA = ClassName.get(C.GEN_PKG, C.TRANSFORMER_DATA);
     static final ClassName RUQ_TRANS = ClassName.get(C.GEN_PKG, C.RUQ_TRANSFORMER);
+    static final ClassName RUQUS_INDEX = ClassName.get(C.GEN_PKG, C.RUQUS_INDEX);
+    static final ClassName GEN_CLASS_DATA = ClassName.get(C.GEN_PKG, C.GEN_CLASS_DATA_CLASS_NAME);
 
     // First-level Parameterized types
     static final TypeName ANY = ParameterizedTypeName.get(CLASS, WildcardTypeName.subtypeOf(TypeName.OBJECT));
     static final TypeName ANY_REALM_MODEL = ParameterizedTypeName.get(CLASS, WildcardTypeName.subtypeOf(REALM_MODEL));
+    static final TypeName ANY_ARRAY = ArrayTypeName.of(ANY);
 
     // Second-level Parameterized types.
-    static final TypeName S_ARRAY_LIST = ParameterizedTypeName.get(ClassName.get(ArrayList.class), STRING);
-    static final TypeName S_HASH_SET = ParameterizedTypeName.get(ClassName.get(HashSet.class), STRING);
-    static final TypeName S_STRING_HASH_MAP = ParameterizedTypeName.get(HASH_MAP, STRING, STRING);
-    static final TypeName S_ANY_CLASS_HASH_MAP = ParameterizedTypeName.get(HASH_MAP, STRING, ANY);
-    static final TypeName S_ANY_REALM_OBJ_CLASS_HASH_MAP = ParameterizedTypeName.get(HASH_MAP, STRING, ANY_REALM_MODEL);
+    static final TypeName S_LIST = ParameterizedTypeName.get(ClassName.get(List.class), STRING);
 }
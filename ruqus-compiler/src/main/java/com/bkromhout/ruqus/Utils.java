@@ -1,5 +1,7 @@
 package com.bkromhout.ruqus;
 
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.lang.model.element.Element;
@@ -7,6 +9,7 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -63,4 +66,26 @@ class Utils {
 
         return false;
     }
+
+    /**
+     * Get the name of the {@code FieldType} constant which corresponds to {@code type}.
+     * @param type A type which isn't a RealmModel or RealmList, either primitive or boxed.
+     * @return FieldType constant name, or null if there isn't one.
+     */
+    static String fieldTypeConstantFor(TypeName type) {
+        try {
+            type = type.unbox();
+        } catch (UnsupportedOperationException e) {
+            // Do nothing, we just did this to try and check if this was a boxed primitive.
+        }
+        if (type.equals(TypeName.BOOLEAN)) return "BOOLEAN";
+        if (type.equals(TypeName.DOUBLE)) return "DOUBLE";
+        if (type.equals(TypeName.FLOAT)) return "FLOAT";
+        if (type.equals(TypeName.INT)) return "INTEGER";
+        if (type.equals(TypeName.LONG)) return "LONG";
+        if (type.equals(TypeName.SHORT)) return "SHORT";
+        if (type.equals(TypeNames.STRING)) return "STRING";
+        if (type.equals(ClassName.get(Date.class))) return "DATE";
+        return null;
+    }
 }
@@ -0,0 +1,188 @@
+package com.bkromhout.ruqus;
+
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+
+/**
+ * A frozen {@link Condition} which has been bound to the transformer method which will apply it, so that nothing needs
+ * to be looked up or checked when it is applied. Used by {@link CompiledQuery}.
+ * <p>
+ * Conditions whose transformers are {@link TypedRUQTransformer}s are bound directly to the {@code transformX()} method
+ * for their field type; all others are bound to {@link RUQTransformer#transform(RealmQuery, Condition)}.
+ */
+abstract class BoundCondition {
+    /**
+     * Bind a condition to its transformer method.
+     * @param condition Frozen condition to bind.
+     * @return Bound condition.
+     */
+    static BoundCondition bind(Condition condition) {
+        RUQTransformer transformer = Ruqus.getTransformerData().getTransformer(condition.getTransformerId());
+        if (!(transformer instanceof TypedRUQTransformer) || condition.getType() != Condition.Type.NORMAL)
+            return new Untyped(transformer, condition);
+
+        TypedRUQTransformer typed = (TypedRUQTransformer) transformer;
+        String field = condition.getField();
+        ConditionArgs args = typed.normalizeArgs(condition.getTypedArgs());
+        switch (condition.getFieldType()) {
+            case BOOLEAN:
+                return new BooleanBound(typed, field, args);
+            case DATE:
+                return new DateBound(typed, field, args);
+            case DOUBLE:
+                return new DoubleBound(typed, field, args);
+            case FLOAT:
+                return new FloatBound(typed, field, args);
+            case INTEGER:
+                return new IntegerBound(typed, field, args);
+            case LONG:
+                return new LongBound(typed, field, args);
+            case SHORT:
+                return new ShortBound(typed, field, args);
+            case STRING:
+                return new StringBound(typed, field, args);
+            default:
+                return new Untyped(transformer, condition);
+        }
+    }
+
+    /**
+     * Apply {@code condition} to {@code realmQuery} without binding it first, and without re-validating it if its
+     * transformer is a {@link TypedRUQTransformer}. The condition must be valid.
+     * @param realmQuery Query to transform.
+     * @param condition  Valid condition to apply.
+     * @return Transformed query.
+     */
+    static <T extends RealmModel> RealmQuery<T> apply(RealmQuery<T> realmQuery, Condition condition) {
+        RUQTransformer transformer = Ruqus.getTransformerData().getTransformer(condition.getTransformerId());
+        if (transformer instanceof TypedRUQTransformer && condition.getType() == Condition.Type.NORMAL)
+            return ((TypedRUQTransformer) transformer).transform(realmQuery, condition.getField(),
+                    condition.getFieldType(), condition.getTypedArgs());
+        return transformer.transform(realmQuery, condition);
+    }
+
+    /**
+     * Apply the bound condition to {@code realmQuery}.
+     * @param realmQuery Query to transform.
+     * @return Transformed query.
+     */
+    abstract <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery);
+
+    private static final class Untyped extends BoundCondition {
+        private final RUQTransformer transformer;
+        private final Condition condition;
+
+        Untyped(RUQTransformer transformer, Condition condition) {
+            this.transformer = transformer;
+            this.condition = condition;
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transform(realmQuery, condition);
+        }
+    }
+
+    /**
+     * Base class for conditions bound to a {@link TypedRUQTransformer} method.
+     */
+    private static abstract class Typed extends BoundCondition {
+        final TypedRUQTransformer transformer;
+        final String field;
+        final ConditionArgs args;
+
+        Typed(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            this.transformer = transformer;
+            this.field = field;
+            this.args = args;
+        }
+    }
+
+    private static final class BooleanBound extends Typed {
+        BooleanBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformBoolean(realmQuery, field, args);
+        }
+    }
+
+    private static final class DateBound extends Typed {
+        DateBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformDate(realmQuery, field, args);
+        }
+    }
+
+    private static final class DoubleBound extends Typed {
+        DoubleBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformDouble(realmQuery, field, args);
+        }
+    }
+
+    private static final class FloatBound extends Typed {
+        FloatBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformFloat(realmQuery, field, args);
+        }
+    }
+
+    private static final class IntegerBound extends Typed {
+        IntegerBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformInteger(realmQuery, field, args);
+        }
+    }
+
+    private static final class LongBound extends Typed {
+        LongBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformLong(realmQuery, field, args);
+        }
+    }
+
+    private static final class ShortBound extends Typed {
+        ShortBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformShort(realmQuery, field, args);
+        }
+    }
+
+    private static final class StringBound extends Typed {
+        StringBound(TypedRUQTransformer transformer, String field, ConditionArgs args) {
+            super(transformer, field, args);
+        }
+
+        @Override
+        <T extends RealmModel> RealmQuery<T> applyTo(RealmQuery<T> realmQuery) {
+            return transformer.transformString(realmQuery, field, args);
+        }
+    }
+}
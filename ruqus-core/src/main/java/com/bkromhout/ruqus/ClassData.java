@@ -2,34 +2,84 @@ package com.bkromhout.ruqus;
 
 import io.realm.RealmModel;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Holds information about all classes which extend {@link io.realm.RealmModel}.
+ * <p>
+ * The generated subclass fills in this class's collections when it is loaded; once {@link Ruqus} has loaded it, it
+ * calls {@link #freeze()}, after which the collections are unmodifiable and are safe to read from any thread.
+ * <p>
+ * Data about each class's fields is only created the first time that it's needed, since apps may have many model
+ * classes but only ever query a few of them.
  */
 abstract class ClassData {
     /**
      * Set of real names of classes which extend {@link RealmModel}.
      */
-    protected static HashSet<String> realNames = new HashSet<>();
+    protected static Set<String> realNames = new HashSet<>();
     /**
      * Set of real names of classes which were annotated with {@link Queryable}.
      */
-    protected static HashSet<String> queryable = new HashSet<>();
+    protected static Set<String> queryable = new HashSet<>();
     /**
      * Maps real class names to class objects.
      */
-    protected static HashMap<String, Class<? extends RealmModel>> classMap = new HashMap<>();
+    protected static Map<String, Class<? extends RealmModel>> classMap = new HashMap<>();
     /**
      * Maps real class names to human-readable class names.
      */
-    protected static HashMap<String, String> visibleNames = new HashMap<>();
+    protected static Map<String, String> visibleNames = new HashMap<>();
     /**
-     * Maps real class names to FieldData objects.
+     * Maps real names of classes which were annotated with {@link Queryable} to their {@link Queryable#maxDepth()}.
      */
-    protected static HashMap<String, FieldData> fieldData = new HashMap<>();
+    protected static Map<String, Integer> maxDepths = new HashMap<>();
+    /**
+     * Sorted array of real class names, used to give each class a compact id. Built by {@link #freeze()}.
+     */
+    private static String[] sortedNames = null;
+    /**
+     * Maps real class names to FieldData objects which have been created so far.
+     */
+    private final ConcurrentHashMap<String, FieldData> fieldData = new ConcurrentHashMap<>();
+    /**
+     * Maps real names of classes which were annotated with {@link Queryable} to tables of their flat fields which have
+     * been created so far.
+     */
+    private final ConcurrentHashMap<String, FlatFields> flatFields = new ConcurrentHashMap<>();
+
+    /**
+     * Make all of the collections which the generated subclass filled in unmodifiable, and build anything which is
+     * derived from them. Must only be called once, after the generated subclass has been loaded.
+     */
+    static void freeze() {
+        realNames = Collections.unmodifiableSet(realNames);
+        queryable = Collections.unmodifiableSet(queryable);
+        classMap = Collections.unmodifiableMap(classMap);
+        visibleNames = Collections.unmodifiableMap(visibleNames);
+        maxDepths = Collections.unmodifiableMap(maxDepths);
+
+        String[] names = realNames.toArray(new String[realNames.size()]);
+        Arrays.sort(names);
+        sortedNames = names;
+    }
+
+    /**
+     * Create the FieldData object for a class. The generated subclass implements this using a {@code switch}, so that a
+     * class's FieldData class isn't even loaded until it's needed.
+     * @param realName Real class name.
+     * @return New FieldData, or null if there is no class called {@code realName}.
+     */
+    abstract FieldData newFieldData(String realName);
+
+    /**
+     * Create the table of flat fields for a class.
+     * @param realName Real class name.
+     * @return New flat fields table, or null if the class called {@code realName} wasn't annotated with {@link
+     * Queryable}.
+     */
+    abstract FlatFields newFlatFields(String realName);
 
     /**
      * Get a list of real class names.
@@ -129,6 +179,60 @@ abstract class ClassData {
      * @return Class's field data.
      */
     FieldData getFieldData(String realName) {
-        return fieldData.get(realName);
+        if (realName == null) return null;
+        FieldData data = fieldData.get(realName);
+        if (data != null) return data;
+        data = newFieldData(realName);
+        if (data == null) return null;
+        FieldData existing = fieldData.putIfAbsent(realName, data);
+        return existing != null ? existing : data;
+    }
+
+    /**
+     * Get the precomputed table of flat fields for a class.
+     * @param realName Real class name.
+     * @return Class's flat fields, or null if they weren't precomputed (which is the case for classes which weren't
+     * annotated with {@link Queryable}).
+     */
+    FlatFields getFlatFields(String realName) {
+        if (realName == null) return null;
+        FlatFields table = flatFields.get(realName);
+        if (table != null) return table;
+        table = newFlatFields(realName);
+        if (table == null) return null;
+        FlatFields existing = flatFields.putIfAbsent(realName, table);
+        return existing != null ? existing : table;
+    }
+
+    /**
+     * Get the maximum number of relationship fields which may be followed, one after another, from a class.
+     * @param realName Real class name.
+     * @return Class's {@link Queryable#maxDepth()}, or the default max depth if the class isn't annotated with {@link
+     * Queryable}.
+     */
+    int getMaxDepth(String realName) {
+        Integer maxDepth = maxDepths.get(realName);
+        return maxDepth == null ? C.DEFAULT_MAX_DEPTH : maxDepth;
+    }
+
+    /**
+     * Get a compact id for the class called {@code realName}, suitable for use in place of the name when writing to a
+     * {@link android.os.Parcel}. Ids are only stable for a given build of an app, so they must not be persisted.
+     * @param realName Real class name.
+     * @return Class id, or -1 if we don't know of a class called {@code realName}.
+     * @see #nameOfId(int)
+     */
+    int idOf(String realName) {
+        int id = Arrays.binarySearch(sortedNames, realName);
+        return id < 0 ? -1 : id;
+    }
+
+    /**
+     * Get the real name of the class with the given id.
+     * @param id Class id obtained from {@link #idOf(String)}.
+     * @return Real class name.
+     */
+    String nameOfId(int id) {
+        return sortedNames[id];
     }
 }
@@ -0,0 +1,279 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, pre-validated execution plan for a {@link RealmUserQuery}, obtained by calling {@link
+ * RealmUserQuery#compile()}.
+ * <p>
+ * Everything which {@link RealmUserQuery#execute(Realm)} would normally have to figure out each time it is called
+ * (validating the query, looking up transformer instances and picking which of their methods to call, and building the
+ * sort arrays) is done once when the compiled query is created. Since the compiled query holds snapshots of the
+ * original query's conditions, later changes to the {@link RealmUserQuery} it came from will not affect it.
+ * <p>
+ * Compiled queries are intended to be held on to and executed repeatedly; for example, each time a Realm change
+ * notification is received.
+ */
+public final class CompiledQuery<E extends RealmModel> {
+    /**
+     * Type of object which will be returned by the query.
+     */
+    private final Class<E> queryClass;
+    /**
+     * Frozen snapshots of the query's conditions, in the order they will be applied. These might have been rewritten
+     * by {@link QueryRewriter}, so they won't necessarily match the original query's conditions exactly.
+     */
+    private final Condition[] conditions;
+    /**
+     * {@link #conditions}, bound to the transformer methods which will apply them; {@code bound[i]} applies {@code
+     * conditions[i]}.
+     */
+    private final BoundCondition[] bound;
+    /**
+     * Whether the conditions provably can't match any objects, in which case the methods which don't return {@link
+     * RealmResults} return empty results without touching Realm.
+     */
+    private final boolean matchesNothing;
+    /**
+     * Fields to sort by.
+     */
+    private final String[] sortFields;
+    /**
+     * Directions to sort in; {@code sortDirs[i]} applies to {@code sortFields[i]}.
+     */
+    private final Sort[] sortDirs;
+    /**
+     * Sorter for {@link #sortFields}, used by {@link #executeToList(Realm, int)} if Realm can't sort by all of them
+     * itself, otherwise null.
+     */
+    private final InMemorySorter sorter;
+    /**
+     * Pager for {@link #sortFields}.
+     */
+    private final Pager pager;
+
+    /**
+     * Create a new {@link CompiledQuery}. The given {@code ruq} must be valid.
+     * @param queryClass Class of query result objects.
+     * @param ruq        Query to compile.
+     */
+    CompiledQuery(Class<E> queryClass, RealmUserQuery ruq) {
+        this.queryClass = queryClass;
+
+        // Snapshot the conditions, rewrite them if possible, and bind them to their transformers.
+        ArrayList<Condition> ruqConditions = ruq.getConditions();
+        ArrayList<Condition> frozen = new ArrayList<>(ruqConditions.size());
+        for (Condition condition : ruqConditions) frozen.add(condition.frozenCopy());
+        List<Condition> rewritten = QueryRewriter.rewrite(frozen);
+        conditions = rewritten.toArray(new Condition[rewritten.size()]);
+        bound = new BoundCondition[conditions.length];
+        for (int i = 0; i < conditions.length; i++) bound[i] = BoundCondition.bind(conditions[i]);
+        matchesNothing = QuerySimplifier.matchesNothing(rewritten);
+
+        // Resolve the sort arrays.
+        ArrayList<String> ruqSortFields = ruq.getSortFields();
+        ArrayList<Sort> ruqSortDirs = ruq.getSortDirs();
+        sortFields = ruqSortFields.toArray(new String[ruqSortFields.size()]);
+        sortDirs = ruqSortDirs.toArray(new Sort[ruqSortDirs.size()]);
+        String realmClass = queryClass.getSimpleName();
+        sorter = InMemorySorter.canSortNatively(sortFields) ? null :
+                new InMemorySorter(realmClass, sortFields, sortDirs);
+        pager = new Pager(realmClass, sortFields, sortDirs);
+    }
+
+    /**
+     * Get the class for the type of objects which this query will return.
+     * @return Class of query result objects.
+     */
+    public Class<E> getQueryClass() {
+        return queryClass;
+    }
+
+    /**
+     * Describe the order in which this query's conditions are applied, which may differ from the order they were added
+     * in; see {@link RealmUserQuery#explain()}.
+     * @return Description of the conditions, one per line.
+     */
+    public String explain() {
+        return QueryRewriter.explain(Arrays.asList(conditions));
+    }
+
+    /**
+     * Execute this query and return the results. Realm can't sort by link fields, so use {@link
+     * #executeToList(Realm)} instead if any of the sort fields are link fields.
+     * @param realm Instance of Realm to use to execute query.
+     * @return RealmResults.
+     */
+    public RealmResults<E> execute(Realm realm) {
+        RealmQuery<E> query = buildQuery(realm);
+
+        // Apply any sort fields we have and execute the query.
+        switch (sortFields.length) {
+            case 0:
+                return query.findAll();
+            case 1:
+                return query.findAllSorted(sortFields[0], sortDirs[0]);
+            default:
+                return query.findAllSorted(sortFields, sortDirs);
+        }
+    }
+
+    /**
+     * Execute this query and return the results as a new list, sorting them in memory if Realm can't sort by all of the
+     * sort fields itself. Strings which are sorted in memory are compared using {@link String#compareTo(String)}, which
+     * doesn't always match the order Realm sorts them in.
+     * @param realm Instance of Realm to use to execute query.
+     * @return List of results.
+     * @see RealmUserQuery#executeToList(Realm)
+     */
+    public List<E> executeToList(Realm realm) {
+        return executeToList(realm, -1);
+    }
+
+    /**
+     * Like {@link #executeToList(Realm)}, but only returns the first {@code limit} results.
+     * @param realm Instance of Realm to use to execute query.
+     * @param limit Maximum number of results to return, or a negative number to return all of them.
+     * @return List of results.
+     * @see RealmUserQuery#executeToList(Realm, int)
+     */
+    public List<E> executeToList(Realm realm, int limit) {
+        if (isProvablyEmpty(realm)) return new ArrayList<E>(0);
+        if (sorter != null) return sorter.sort(buildQuery(realm).findAll(), limit);
+        return RUQExecutor.firstResults(execute(realm), limit);
+    }
+
+    /**
+     * Get the page of results which comes after {@code after}. Results are sorted in memory if any of the sort fields
+     * are string fields, so strings are compared using {@link String#compareTo(String)}.
+     * @param realm    Instance of Realm to use to execute query.
+     * @param pageSize Maximum number of results to return.
+     * @param after    Cursor returned with the previous page, or null to get the first page.
+     * @return Page of results.
+     * @see RealmUserQuery#executePage(Realm, int, PageCursor)
+     */
+    public RUQPage<E> executePage(Realm realm, int pageSize, PageCursor after) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive.");
+        if (isProvablyEmpty(realm)) return new RUQPage<>(new ArrayList<E>(0), null);
+        boolean narrow = pager.canNarrow(after);
+        RealmQuery<E> query = buildQuery(realm, narrow);
+        if (narrow) pager.narrow(query, after);
+        return pager.page(query, pageSize, after);
+    }
+
+    /**
+     * Execute this query asynchronously. The returned results will not be loaded yet; see {@link
+     * RealmResults#isLoaded()}. Must be called from a thread which has a Looper.
+     * @param realm Instance of Realm to use to execute query.
+     * @return Not-yet-loaded RealmResults.
+     * @see RealmUserQuery#executeAsync(Realm)
+     */
+    public RealmResults<E> executeAsync(Realm realm) {
+        RealmQuery<E> query = buildQuery(realm);
+
+        // Apply any sort fields we have and execute the query.
+        switch (sortFields.length) {
+            case 0:
+                return query.findAllAsync();
+            case 1:
+                return query.findAllSortedAsync(sortFields[0], sortDirs[0]);
+            default:
+                return query.findAllSortedAsync(sortFields, sortDirs);
+        }
+    }
+
+    /**
+     * Execute this query asynchronously, and add {@code listener} to the returned results so that it is notified once
+     * they have loaded (and whenever they change afterwards).
+     * @param realm    Instance of Realm to use to execute query.
+     * @param listener Listener to add to the returned results.
+     * @return Not-yet-loaded RealmResults.
+     * @see RealmUserQuery#executeAsync(Realm, RealmChangeListener)
+     */
+    public RealmResults<E> executeAsync(Realm realm, RealmChangeListener<RealmResults<E>> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener must be non-null.");
+        RealmResults<E> results = executeAsync(realm);
+        results.addChangeListener(listener);
+        return results;
+    }
+
+    /**
+     * Count the number of objects which match this query, without sorting or materializing any results.
+     * @param realm Instance of Realm to use to execute query.
+     * @return Number of matching objects.
+     * @see RealmUserQuery#count(Realm)
+     */
+    public long count(Realm realm) {
+        return isProvablyEmpty(realm) ? 0 : buildQuery(realm).count();
+    }
+
+    /**
+     * Check whether any objects match this query, without sorting or materializing any results.
+     * @param realm Instance of Realm to use to execute query.
+     * @return True if at least one object matches, otherwise false.
+     * @see RealmUserQuery#exists(Realm)
+     */
+    public boolean exists(Realm realm) {
+        return !isProvablyEmpty(realm) && buildQuery(realm).findFirst() != null;
+    }
+
+    /**
+     * Find the first object which matches this query. The query's sort fields are ignored.
+     * @param realm Instance of Realm to use to execute query.
+     * @return First matching object, or null if there aren't any.
+     * @see RealmUserQuery#findFirst(Realm)
+     */
+    public E findFirst(Realm realm) {
+        return isProvablyEmpty(realm) ? null : buildQuery(realm).findFirst();
+    }
+
+    /**
+     * Check that {@code realm} could be used to execute this query, then return whether the query provably can't match
+     * any objects (in which case there's no need to use it).
+     * @param realm Instance of Realm which would be used to execute the query.
+     * @return True if the query can't match any objects.
+     */
+    private boolean isProvablyEmpty(Realm realm) {
+        checkRealm(realm);
+        return matchesNothing;
+    }
+
+    private static void checkRealm(Realm realm) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+    }
+
+    /**
+     * Create a {@link RealmQuery} and apply all of the conditions to it.
+     * @param realm Instance of Realm to use to create the query.
+     * @return RealmQuery, ready to be executed.
+     */
+    private RealmQuery<E> buildQuery(Realm realm) {
+        return buildQuery(realm, false);
+    }
+
+    /**
+     * Create a {@link RealmQuery} and apply all of the conditions to it.
+     * @param realm Instance of Realm to use to create the query.
+     * @param group Whether to wrap the conditions in a group, so that more conditions can be AND-ed with all of them.
+     * @return RealmQuery, ready to be executed.
+     */
+    private RealmQuery<E> buildQuery(Realm realm, boolean group) {
+        checkRealm(realm);
+        RealmQuery<E> query = RealmQuery.createQuery(realm, queryClass);
+        group = group && bound.length > 0;
+        if (group) query.beginGroup();
+        for (BoundCondition condition : bound) condition.applyTo(query);
+        if (group) query.endGroup();
+        return query;
+    }
+}
@@ -4,20 +4,16 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import com.squareup.phrase.Phrase;
 
-import java.util.regex.Pattern;
-
 /**
  * This class is responsible for holding a condition.
  */
 public class Condition implements Parcelable {
-    private static final String C_SEP = "|||";
-    private static final String ARG_SEP = ";,;";
-    private static final Pattern C_SEP_PATTERN = Pattern.compile("\\Q" + C_SEP + "\\E");
-    private static final Pattern ARG_SEP_PATTERN = Pattern.compile("\\Q" + ARG_SEP + "\\E");
     private static final String BEGIN_GROUP_TNAME = "com.bkromhout.ruqus.transformers.BeginGroup";
     private static final String END_GROUP_TNAME = "com.bkromhout.ruqus.transformers.EndGroup";
     private static final String OR_TNAME = "com.bkromhout.ruqus.transformers.Or";
     private static final String NOT_TNAME = "com.bkromhout.ruqus.transformers.Not";
+    private static final Type[] TYPES = Type.values();
+    private static final FieldType[] FIELD_TYPES = FieldType.values();
 
     /**
      * Types of conditions.
@@ -74,14 +70,43 @@ public class Condition implements Parcelable {
      */
     private FieldType fieldType;
     /**
-     * The args which will be used for this condition. The types of these will be verified to ensure that they match
-     * {@link #fieldType} before they are passed to the transformer.
+     * The args which will be used for this condition. Their type will be verified to ensure that it matches {@link
+     * #fieldType} before they are passed to the transformer.
      */
-    private Object[] args;
+    private ConditionArgs args;
     /**
      * The fully-qualified name of the transformer to use to apply this condition.
      */
     private String transformer;
+    /**
+     * Id of {@link #transformer} from {@link TransformerData#idOf(String)}, which is -1 if Ruqus doesn't know of it.
+     * Resolved whenever {@link #transformer} changes, so that reading it never writes anything.
+     */
+    private int transformerId = -1;
+    /**
+     * Index of {@link #field} in the {@link FlatFields} of {@link #realmClass}, which is -1 if it isn't in them (or if
+     * the class doesn't have any). Resolved whenever {@link #field} or {@link #realmClass} changes, so that reading it
+     * never writes anything.
+     */
+    private int fieldId = -1;
+    /**
+     * Whether this is a frozen copy of another {@link Condition}. Frozen copies are only created from valid conditions
+     * and cannot be changed, so they never need to be re-validated.
+     */
+    private boolean frozen = false;
+    /**
+     * Incremented each time this condition is changed using one of its setters.
+     */
+    private int modCount = 0;
+    /**
+     * The value which {@link #modCount} had when {@link #lastValidity} was computed, or -1 if it hasn't been yet.
+     * Volatile, and always written after {@link #lastValidity}, so that threads which see it also see the result.
+     */
+    private volatile int validatedModCount = -1;
+    /**
+     * Result of the last full validity check; only meaningful if {@link #validatedModCount} equals {@link #modCount}.
+     */
+    private boolean lastValidity;
 
     /**
      * Create a new {@link Condition}.
@@ -96,39 +121,83 @@ public class Condition implements Parcelable {
     }
 
     /**
-     * Create a condition object using a representative string.
-     * @param conditionString String which contains enough information to construct a new condition object.
+     * Create a condition object using parts which were read from a condition string.
+     * @param type        Type of condition.
+     * @param realmClass  Real name of the realm object class.
+     * @param field       Real name of the field; ignored unless {@code type} is {@link Type#NORMAL NORMAL}.
+     * @param args        Args; ignored unless {@code type} is {@link Type#NORMAL NORMAL}.
+     * @param transformer Transformer name; ignored if {@code type} is one of the built-in special types.
+     * @see RUQStringCodec#readCondition(String, int, int)
      */
-    Condition(String conditionString) {
-        // Split into parts.
-        String[] parts = C_SEP_PATTERN.split(conditionString);
-
-        // Figure out type.
-        type = Type.getForName(parts[0]);
+    Condition(Type type, String realmClass, String field, Object[] args, String transformer) {
+        this.type = type;
         handleSpecialTypes();
 
         // Figure out realmClass.
-        realmClass = parts[1];
+        this.realmClass = realmClass;
+        resolveFieldId();
         if (!isRealmClassValid())
-            throw new IllegalArgumentException(String.format("Ruqus doesn't have data for \"%s\".", parts[1]));
+            throw new IllegalArgumentException(String.format("Ruqus doesn't have data for \"%s\".", realmClass));
 
         // If we have the transformer already, we're done, because the type was one of our built-in special ones.
         // Otherwise, do the rest based on type (which at this point would have to be either NORMAL or NO_ARGS).
-        if (transformer != null) return;
+        if (this.transformer != null) return;
         else if (type == Type.NORMAL) {
             // Figure out field.
-            setField(parts[2]);
+            setField(field);
 
             // Figure out args.
-            args = argsFromString(parts[3]);
+            this.args = ConditionArgs.of(args);
         }
 
         // Figure out transformer.
-        transformer = parts[type == Type.NORMAL ? 4 : 2];
+        this.transformer = transformer;
+        resolveTransformerId();
         if (!isTransformerValid()) throw new IllegalArgumentException(String.format("Ruqus doesn't have data for the " +
                 "transformer \"%s\"", transformer));
     }
 
+    /**
+     * Create a frozen copy of {@code other}.
+     * @param other Condition to copy.
+     */
+    private Condition(Condition other) {
+        this.transformerId = other.transformerId;
+        this.fieldId = other.fieldId;
+        this.type = other.type;
+        this.realmClass = other.realmClass;
+        this.field = other.field;
+        this.fieldType = other.fieldType;
+        this.args = other.args;
+        this.transformer = other.transformer;
+        this.frozen = true;
+    }
+
+    /**
+     * Get a frozen copy of this {@link Condition}. This condition must be valid.
+     * @return Frozen copy of this condition.
+     * @see CompiledQuery
+     */
+    Condition frozenCopy() {
+        if (!isValid()) throw new IllegalStateException("Only valid conditions may be frozen.");
+        return frozen ? this : new Condition(this);
+    }
+
+    /**
+     * @return Number of times this condition has been changed using one of its setters.
+     */
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Throws an exception if this condition is frozen. Setters should call this before making any changes, and then
+     * increment {@link #modCount}.
+     */
+    private void ensureNotFrozen() {
+        if (frozen) throw new IllegalStateException("Frozen conditions cannot be changed.");
+    }
+
     /**
      * Resets all variables to null, except for {@link #type}.
      */
@@ -138,6 +207,8 @@ public class Condition implements Parcelable {
         fieldType = null;
         args = null;
         transformer = null;
+        transformerId = -1;
+        fieldId = -1;
     }
 
     /**
@@ -158,6 +229,7 @@ public class Condition implements Parcelable {
                 transformer = NOT_TNAME;
                 break;
         }
+        resolveTransformerId();
     }
 
     /**
@@ -169,13 +241,74 @@ public class Condition implements Parcelable {
         // We can only do this if we have both the realmClass and the field name.
         if (realmClass == null || realmClass.isEmpty() || field == null || field.isEmpty()) return;
         // Get field type from our generated info.
-        fieldType = Ruqus.typeEnumForField(realmClass, field);
+        int id = getFieldId();
+        fieldType = id != -1 ? getFlatFields().typeAt(id) : Ruqus.typeEnumForField(realmClass, field);
+    }
+
+    /**
+     * @return Transformer id, or -1 if Ruqus doesn't know of the transformer.
+     */
+    int getTransformerId() {
+        return transformerId;
+    }
+
+    /**
+     * @return Field id, which is the index of {@link #field} in the {@link FlatFields} of {@link #realmClass}, or -1 if
+     * the field isn't in the table (or the class doesn't have one).
+     */
+    int getFieldId() {
+        return fieldId;
+    }
+
+    /**
+     * Resolve {@link #transformerId}. This must be called whenever {@link #transformer} changes. Once resolved, {@link
+     * #transformer} is swapped for the copy of the name held by {@link TransformerData}, so that conditions don't each
+     * hold on to their own copy.
+     */
+    private void resolveTransformerId() {
+        if (transformer == null) {
+            transformerId = -1;
+            return;
+        }
+        TransformerData transformerData = Ruqus.getTransformerData();
+        transformerId = transformerData.idOf(transformer);
+        if (transformerId != -1) transformer = transformerData.nameOfId(transformerId);
+    }
+
+    /**
+     * Resolve {@link #fieldId}. This must be called whenever {@link #field} or {@link #realmClass} changes. Once
+     * resolved, {@link #field} is swapped for the copy held by the table.
+     */
+    private void resolveFieldId() {
+        FlatFields flatFields = field == null ? null : getFlatFields();
+        fieldId = flatFields == null ? -1 : flatFields.indexOf(field);
+        if (fieldId != -1) field = flatFields.pathAt(fieldId);
+    }
+
+    /**
+     * @return The precomputed flat fields for {@link #realmClass}, or null if there aren't any.
+     */
+    private FlatFields getFlatFields() {
+        return validStr(realmClass) ? Ruqus.getClassData().getFlatFields(realmClass) : null;
     }
 
     /**
      * @return Whether or not this {@link Condition} is fully-formed and valid.
      */
     public boolean isValid() {
+        if (frozen) return true;
+        // Only re-check if we've been changed since the last time.
+        if (validatedModCount != modCount) {
+            lastValidity = checkValid();
+            validatedModCount = modCount;
+        }
+        return lastValidity;
+    }
+
+    /**
+     * Does the actual work for {@link #isValid()}.
+     */
+    private boolean checkValid() {
         switch (type) {
             case NORMAL:
                 return isRealmClassValid() && isFieldDataValid() && isTransformerValid() && areArgsValid();
@@ -204,8 +337,11 @@ public class Condition implements Parcelable {
      */
     private boolean isFieldDataValid() {
         // We need to have a non-null/non-empty realmClass, field, and field type to even check this.
-        return validStr(realmClass) && validStr(field) && fieldType != null && Ruqus.classHasField(realmClass,
-                field) && Ruqus.fieldIsOfType(realmClass, field, fieldType);
+        if (!validStr(realmClass) || !validStr(field) || fieldType == null) return false;
+        // Fields in the precomputed table are known to exist, so only their type needs to be checked.
+        int id = getFieldId();
+        if (id != -1) return getFlatFields().typeAt(id) == fieldType;
+        return Ruqus.classHasField(realmClass, field) && Ruqus.fieldIsOfType(realmClass, field, fieldType);
     }
 
     /**
@@ -213,8 +349,9 @@ public class Condition implements Parcelable {
      * @return True if conditions are met, otherwise false.
      */
     private boolean isTransformerValid() {
-        return validStr(transformer) && Ruqus.knowsOfTransformer(transformer) &&
-                (type != Type.NORMAL || Ruqus.transformerAcceptsType(transformer, fieldType.getClazz()));
+        int id = getTransformerId();
+        return id != -1 && (type != Type.NORMAL ||
+                (fieldType != null && Ruqus.getTransformerData().acceptsType(id, fieldType)));
     }
 
     /**
@@ -223,15 +360,12 @@ public class Condition implements Parcelable {
      */
     private boolean areArgsValid() {
         if (type != Type.NORMAL) return true;
-        int numArgs = Ruqus.numberOfArgsFor(transformer);
-        if (numArgs == C.VAR_ARGS) return fieldType != null && args != null && args.length > 0;
+        int numArgs = Ruqus.getTransformerData().numArgsOf(getTransformerId());
+        if (numArgs == C.VAR_ARGS) return fieldType != null && args != null && args.getType() == fieldType;
         else if (numArgs == 0) return true;
-        else if (numArgs > 0) {
-            if (fieldType == null || args == null || args.length < numArgs) return false;
-            // Ensure that the first [numArgs] items in args have the same type as fieldType.
-            for (int i = 0; i < numArgs; i++) if (!fieldType.getClazz().isInstance(args[i])) return false;
-            return true;
-        } else throw new IllegalArgumentException("Transformer \"" + transformer + "\" has numArgs set to < -1.");
+        else if (numArgs > 0)
+            return fieldType != null && args != null && args.getType() == fieldType && args.size() >= numArgs;
+        else throw new IllegalArgumentException("Transformer \"" + transformer + "\" has numArgs set to < -1.");
     }
 
     public Type getType() {
@@ -243,7 +377,10 @@ public class Condition implements Parcelable {
     }
 
     void setRealmClass(String realmClass) {
+        ensureNotFrozen();
+        modCount++;
         this.realmClass = realmClass;
+        resolveFieldId();
         // Also try to figure out the field type, if field is already set.
         tryResolveFieldType();
     }
@@ -253,22 +390,51 @@ public class Condition implements Parcelable {
     }
 
     void setField(String field) {
+        ensureNotFrozen();
+        modCount++;
         if (type != Type.NORMAL)
             throw new IllegalArgumentException("Condition type must be NORMAL to set the field.");
         this.field = field;
+        resolveFieldId();
         // Also figure out what the field type is and set that.
         tryResolveFieldType();
     }
 
+    /**
+     * @return Visible name of {@link #field}.
+     */
+    String getVisibleField() {
+        int id = getFieldId();
+        return id != -1 ? getFlatFields().visiblePathAt(id) : Ruqus.visibleFieldFromField(realmClass, field);
+    }
+
     public FieldType getFieldType() {
         return fieldType;
     }
 
+    /**
+     * Get the args as boxed objects. Transformers should use {@link #getTypedArgs()} instead, which doesn't box them.
+     * @return New array of args, or null if there aren't any (or if the ones which were set weren't all of the same
+     * supported type).
+     */
     public Object[] getArgs() {
+        return args == null ? null : args.toArray();
+    }
+
+    /**
+     * @return Args, or null if there aren't any (or if the ones which were set weren't all of the same supported type).
+     */
+    public ConditionArgs getTypedArgs() {
         return args;
     }
 
     void setArgs(Object[] args) {
+        setArgs(ConditionArgs.of(args));
+    }
+
+    void setArgs(ConditionArgs args) {
+        ensureNotFrozen();
+        modCount++;
         if (type != Type.NORMAL)
             throw new IllegalArgumentException("Condition type must be NORMAL to set arguments.");
         this.args = args;
@@ -279,6 +445,8 @@ public class Condition implements Parcelable {
     }
 
     void setTransformer(String transformer) {
+        ensureNotFrozen();
+        modCount++;
         // Be convenient if the transformer we're setting is associated with one of our specific types.
         switch (transformer) {
             case BEGIN_GROUP_TNAME:
@@ -303,7 +471,9 @@ public class Condition implements Parcelable {
                 break;
             default:
                 this.transformer = transformer;
-                type = Ruqus.getTransformerData().isNoArgs(transformer) ? Type.NO_ARGS : Type.NORMAL;
+                resolveTransformerId();
+                type = transformerId != -1 && Ruqus.getTransformerData().isNoArgs(transformerId) ? Type.NO_ARGS :
+                        Type.NORMAL;
         }
     }
 
@@ -332,17 +502,17 @@ public class Condition implements Parcelable {
             // Normal transformers have arguments which we need to factor into our string.
             case NORMAL:
                 return Phrase.from("{field} {transformer_v_name}")
-                             .put("field", Ruqus.visibleFieldFromField(realmClass, field))
-                             .put("transformer_v_name", transformerData.visibleNameOf(transformer))
+                             .put("field", getVisibleField())
+                             .put("transformer_v_name", transformerData.visibleNameOf(getTransformerId()))
                              .format()
-                        + ReadableStringUtils.argsToString(fieldType, transformer, args);
+                        + ReadableStringUtils.argsToString(fieldType, transformer, getArgs());
             // The following have no arguments, so we just return the visible name.
             case NO_ARGS:
             case BEGIN_GROUP:
             case END_GROUP:
             case OR:
             case NOT:
-                return transformerData.visibleNameOf(transformer);
+                return transformerData.visibleNameOf(getTransformerId());
             default:
                 return super.toString();
         }
@@ -357,7 +527,8 @@ public class Condition implements Parcelable {
      * @return Human-readable condition string fragment.
      */
     String makeReadableString(Condition previous, Condition next) {
-        return isValid() ? Ruqus.getTransformer(transformer).makeReadableString(this, previous, next) : null;
+        return isValid() ? Ruqus.getTransformerData().getTransformer(getTransformerId())
+                                .makeReadableString(this, previous, next) : null;
     }
 
     /**
@@ -367,45 +538,10 @@ public class Condition implements Parcelable {
     String toConditionString() {
         if (!isValid()) return null;
         StringBuilder builder = new StringBuilder();
-        builder.append(type.getName()) // Write out type.
-               .append(C_SEP)
-               .append(realmClass) // Write out real realm class name.
-               .append(C_SEP);
-        switch (type) {
-            case NORMAL:
-                builder.append(field) // Write out real field name.
-                       .append(C_SEP)
-                       .append(argsToString(args)) // Write out args.
-                       .append(C_SEP);
-            case NO_ARGS:
-            case BEGIN_GROUP:
-            case END_GROUP:
-            case OR:
-            case NOT:
-                builder.append(transformer); // Write out real transformer name.
-                break;
-        }
+        RUQStringCodec.writeCondition(builder, this);
         return builder.toString();
     }
 
-    private static String argsToString(Object[] args) {
-        if (args == null || args.length == 0) return "";
-        StringBuilder argsStr = new StringBuilder();
-        for (Object arg : args)
-            argsStr.append(FieldType.makeDataString(arg))
-                   .append(ARG_SEP);
-        if (argsStr.length() > 1) argsStr.delete(argsStr.lastIndexOf(ARG_SEP), argsStr.length());
-        return argsStr.toString();
-    }
-
-    private static Object[] argsFromString(String argsString) {
-        if (argsString == null || argsString.isEmpty()) return null;
-        String[] argParts = ARG_SEP_PATTERN.split(argsString);
-        Object[] args = new Object[argParts.length];
-        for (int i = 0; i < argParts.length; i++) args[i] = FieldType.parseDataString(argParts[i]);
-        return args;
-    }
-
     /* Parcelable implementation. */
 
     @Override
@@ -414,22 +550,51 @@ public class Condition implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeInt(this.type == null ? -1 : this.type.ordinal());
-        dest.writeString(this.realmClass);
-        dest.writeString(this.field);
+        writeClassName(dest, this.realmClass);
+        // Fields and transformers which Ruqus knows of are written as their ids rather than as strings.
+        int fieldId = getFieldId();
+        dest.writeInt(fieldId);
+        if (fieldId == -1) dest.writeString(this.field);
         dest.writeInt(this.fieldType == null ? -1 : this.fieldType.ordinal());
-        dest.writeString(argsToString(this.args));
-        dest.writeString(this.transformer);
+        ConditionArgs.writeToParcel(dest, this.args);
+        int transformerId = getTransformerId();
+        dest.writeInt(transformerId);
+        if (transformerId == -1) dest.writeString(this.transformer);
     }
 
     private Condition(Parcel in) {
         int tmpType = in.readInt();
-        this.type = tmpType == -1 ? null : Type.values()[tmpType];
-        this.realmClass = in.readString();
-        this.field = in.readString();
+        this.type = tmpType == -1 ? null : TYPES[tmpType];
+        this.realmClass = readClassName(in);
+        this.fieldId = in.readInt();
+        this.field = fieldId == -1 ? in.readString() : getFlatFields().pathAt(fieldId);
         int tmpFieldType = in.readInt();
-        this.fieldType = tmpFieldType == -1 ? null : FieldType.values()[tmpFieldType];
-        this.args = argsFromString(in.readString());
-        this.transformer = in.readString();
+        this.fieldType = tmpFieldType == -1 ? null : FIELD_TYPES[tmpFieldType];
+        this.args = ConditionArgs.readFromParcel(in);
+        this.transformerId = in.readInt();
+        this.transformer = transformerId == -1 ? in.readString() : Ruqus.getTransformerData().nameOfId(transformerId);
+    }
+
+    /**
+     * Write a realm class name to {@code dest}. Names which Ruqus knows of are written as their id from {@link
+     * ClassData#idOf(String)} rather than as strings; anything else (including null) is written as a string.
+     * @param dest      Parcel to write to.
+     * @param className Real class name to write.
+     */
+    static void writeClassName(Parcel dest, String className) {
+        int id = className == null ? -1 : Ruqus.getClassData().idOf(className);
+        dest.writeInt(id);
+        if (id == -1) dest.writeString(className);
+    }
+
+    /**
+     * Read a realm class name which was written using {@link #writeClassName(Parcel, String)}.
+     * @param in Parcel to read from.
+     * @return Real class name.
+     */
+    static String readClassName(Parcel in) {
+        int id = in.readInt();
+        return id == -1 ? in.readString() : Ruqus.getClassData().nameOfId(id);
     }
 
     public static final Parcelable.Creator<Condition> CREATOR = new Parcelable.Creator<Condition>() {
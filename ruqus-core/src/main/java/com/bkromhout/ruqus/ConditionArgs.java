@@ -0,0 +1,410 @@
+package com.bkromhout.ruqus;
+
+import android.os.Parcel;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Holds the arguments for a {@link Condition} as primitives, so that conditions don't need to hold on to a boxed object
+ * for every argument and transformers can read them without unboxing.
+ * <p>
+ * All of the arguments have the same {@link FieldType}. Depending on that type, they are stored in exactly one of:
+ * <ul>
+ * <li>A {@code long[]}, for {@link FieldType#BOOLEAN BOOLEAN} (0 or 1), {@link FieldType#DATE DATE} (milliseconds
+ * since the epoch), {@link FieldType#INTEGER INTEGER}, {@link FieldType#LONG LONG}, and {@link FieldType#SHORT
+ * SHORT}.</li>
+ * <li>A {@code double[]}, for {@link FieldType#DOUBLE DOUBLE} and {@link FieldType#FLOAT FLOAT}.</li>
+ * <li>A {@code String[]}, for {@link FieldType#STRING STRING}.</li>
+ * </ul>
+ * Instances are immutable.
+ */
+public final class ConditionArgs {
+    // Which array arguments of a given type are stored in; see slotFor(FieldType).
+    private static final int LONGS = 0;
+    private static final int DOUBLES = 1;
+    private static final int STRINGS = 2;
+
+    /**
+     * Type of all of the arguments.
+     */
+    private final FieldType type;
+    /**
+     * Values of integral, boolean, and date arguments; null for other types.
+     */
+    private final long[] longs;
+    /**
+     * Values of floating point arguments; null for other types.
+     */
+    private final double[] doubles;
+    /**
+     * Values of string arguments; null for other types.
+     */
+    private final String[] strings;
+    /**
+     * Chunks from the last call to {@link #toBoxedChunks(int)}, which are kept so that args which are applied many
+     * times only need to be boxed once.
+     */
+    private volatile BoxedChunks boxedChunks = null;
+
+    /**
+     * Create a new {@link ConditionArgs}. Exactly one of the arrays must be non-null, and it must be the right one for
+     * {@code type}; the arrays are not copied.
+     */
+    ConditionArgs(FieldType type, long[] longs, double[] doubles, String[] strings) {
+        if (slotFor(type) != (longs != null ? LONGS : doubles != null ? DOUBLES : strings != null ? STRINGS : -1))
+            throw new IllegalArgumentException(String.format("Wrong storage for args of type \"%s\".", type));
+        this.type = type;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.strings = strings;
+    }
+
+    /**
+     * Create a {@link ConditionArgs} from boxed argument objects.
+     * @param args Boxed args, which must all be of the same type. Might be null.
+     * @return New {@link ConditionArgs}, or null if {@code args} is null or empty, contains nulls, contains objects
+     * whose types aren't supported, or contains objects of different types.
+     */
+    static ConditionArgs of(Object[] args) {
+        if (args == null || args.length == 0 || args[0] == null) return null;
+        Class clazz = args[0].getClass();
+        for (Object arg : args) if (arg == null || arg.getClass() != clazz) return null;
+        FieldType type;
+        try {
+            type = FieldType.fromClazz(clazz);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        switch (slotFor(type)) {
+            case LONGS: {
+                long[] longs = new long[args.length];
+                for (int i = 0; i < args.length; i++) longs[i] = toLong(type, args[i]);
+                return new ConditionArgs(type, longs, null, null);
+            }
+            case DOUBLES: {
+                double[] doubles = new double[args.length];
+                for (int i = 0; i < args.length; i++) doubles[i] = ((Number) args[i]).doubleValue();
+                return new ConditionArgs(type, null, doubles, null);
+            }
+            case STRINGS: {
+                String[] strings = new String[args.length];
+                for (int i = 0; i < args.length; i++) strings[i] = (String) args[i];
+                return new ConditionArgs(type, null, null, strings);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static long toLong(FieldType type, Object arg) {
+        switch (type) {
+            case BOOLEAN:
+                return (Boolean) arg ? 1L : 0L;
+            case DATE:
+                return ((Date) arg).getTime();
+            default:
+                return ((Number) arg).longValue();
+        }
+    }
+
+    private static int slotFor(FieldType type) {
+        switch (type) {
+            case BOOLEAN:
+            case DATE:
+            case INTEGER:
+            case LONG:
+            case SHORT:
+                return LONGS;
+            case DOUBLE:
+            case FLOAT:
+                return DOUBLES;
+            case STRING:
+                return STRINGS;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return Type of all of the arguments.
+     */
+    public FieldType getType() {
+        return type;
+    }
+
+    /**
+     * @return Number of arguments.
+     */
+    public int size() {
+        return longs != null ? longs.length : doubles != null ? doubles.length : strings.length;
+    }
+
+    public boolean getBoolean(int idx) {
+        return longs(FieldType.BOOLEAN)[idx] != 0L;
+    }
+
+    /**
+     * Dates are stored as milliseconds since the epoch, so each call creates a new {@link Date}. Use {@link
+     * #getLong(int)} to get the milliseconds instead.
+     */
+    public Date getDate(int idx) {
+        return new Date(longs(FieldType.DATE)[idx]);
+    }
+
+    public double getDouble(int idx) {
+        if (doubles == null) throw wrongType(FieldType.DOUBLE);
+        return doubles[idx];
+    }
+
+    public float getFloat(int idx) {
+        if (type != FieldType.FLOAT) throw wrongType(FieldType.FLOAT);
+        return (float) doubles[idx];
+    }
+
+    public int getInt(int idx) {
+        if (type != FieldType.INTEGER && type != FieldType.SHORT) throw wrongType(FieldType.INTEGER);
+        return (int) longs[idx];
+    }
+
+    /**
+     * Works for any type which is stored as a long; see the class documentation.
+     */
+    public long getLong(int idx) {
+        if (longs == null) throw wrongType(FieldType.LONG);
+        return longs[idx];
+    }
+
+    public short getShort(int idx) {
+        return (short) longs(FieldType.SHORT)[idx];
+    }
+
+    public String getString(int idx) {
+        if (strings == null) throw wrongType(FieldType.STRING);
+        return strings[idx];
+    }
+
+    /**
+     * Get an argument as a boxed object of the class which corresponds to {@link #getType()}.
+     * @param idx Index of the argument.
+     * @return Boxed argument.
+     */
+    public Object get(int idx) {
+        switch (type) {
+            case BOOLEAN:
+                return getBoolean(idx);
+            case DATE:
+                return getDate(idx);
+            case DOUBLE:
+                return doubles[idx];
+            case FLOAT:
+                return (float) doubles[idx];
+            case INTEGER:
+                return (int) longs[idx];
+            case LONG:
+                return longs[idx];
+            case SHORT:
+                return (short) longs[idx];
+            case STRING:
+                return strings[idx];
+            default:
+                throw new IllegalStateException("Invalid data type.");
+        }
+    }
+
+    /**
+     * @return New array of all of the arguments as boxed objects.
+     * @see #get(int)
+     */
+    public Object[] toArray() {
+        Object[] args = new Object[size()];
+        for (int i = 0; i < args.length; i++) args[i] = get(i);
+        return args;
+    }
+
+    /**
+     * Get the arguments as boxed objects, split up into chunks of at most {@code chunkSize}. Each chunk is an array of
+     * the class which corresponds to {@link #getType()} (e.g., a {@code Long[]} for {@link FieldType#LONG LONG} args),
+     * so it can be cast and passed straight to the {@link io.realm.RealmQuery} methods which take arrays.
+     * <p>
+     * The chunks are only created the first time this is called with a given chunk size, and are shared by every call
+     * after that, so they must not be modified.
+     * @param chunkSize Maximum number of arguments in each chunk. Must be positive.
+     * @return Chunks of boxed arguments, in order.
+     */
+    public Object[][] toBoxedChunks(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive.");
+        BoxedChunks cached = boxedChunks;
+        if (cached != null && cached.chunkSize == chunkSize) return cached.chunks;
+
+        int size = size();
+        Object[][] chunks = new Object[(size + chunkSize - 1) / chunkSize][];
+        for (int c = 0; c < chunks.length; c++) {
+            int start = c * chunkSize;
+            Object[] chunk = newBoxedArray(Math.min(chunkSize, size - start));
+            for (int i = 0; i < chunk.length; i++) chunk[i] = get(start + i);
+            chunks[c] = chunk;
+        }
+        boxedChunks = new BoxedChunks(chunkSize, chunks);
+        return chunks;
+    }
+
+    /**
+     * @return New array of the class which corresponds to {@link #getType()}.
+     */
+    private Object[] newBoxedArray(int length) {
+        switch (type) {
+            case BOOLEAN:
+                return new Boolean[length];
+            case DATE:
+                return new Date[length];
+            case DOUBLE:
+                return new Double[length];
+            case FLOAT:
+                return new Float[length];
+            case INTEGER:
+                return new Integer[length];
+            case LONG:
+                return new Long[length];
+            case SHORT:
+                return new Short[length];
+            case STRING:
+                return new String[length];
+            default:
+                throw new IllegalStateException("Invalid data type.");
+        }
+    }
+
+    /**
+     * Get a copy of these args which has been sorted, and which has had duplicate values removed. Strings are sorted
+     * using {@link String#compareTo(String)}.
+     * @return Sorted, de-duplicated args. Might be this instance, if it was already sorted and had no duplicates.
+     */
+    public ConditionArgs sortedDistinct() {
+        int n = 0;
+        if (longs != null) {
+            long[] sorted = longs.clone();
+            Arrays.sort(sorted);
+            for (long value : sorted) if (n == 0 || value != sorted[n - 1]) sorted[n++] = value;
+            if (n == longs.length && Arrays.equals(sorted, longs)) return this;
+            return new ConditionArgs(type, Arrays.copyOf(sorted, n), null, null);
+        } else if (doubles != null) {
+            double[] sorted = doubles.clone();
+            Arrays.sort(sorted);
+            for (double value : sorted) if (n == 0 || Double.compare(value, sorted[n - 1]) != 0) sorted[n++] = value;
+            if (n == doubles.length && Arrays.equals(sorted, doubles)) return this;
+            return new ConditionArgs(type, null, Arrays.copyOf(sorted, n), null);
+        } else {
+            String[] sorted = strings.clone();
+            Arrays.sort(sorted);
+            for (String value : sorted) if (n == 0 || !value.equals(sorted[n - 1])) sorted[n++] = value;
+            if (n == strings.length && Arrays.equals(sorted, strings)) return this;
+            return new ConditionArgs(type, null, null, Arrays.copyOf(sorted, n));
+        }
+    }
+
+    /**
+     * Create args which hold all of the values from each of {@code argsList}, in order.
+     * @param argsList Args to concatenate. Must be non-empty, and all must have the same type.
+     * @return Concatenated args.
+     */
+    static ConditionArgs concat(List<ConditionArgs> argsList) {
+        FieldType type = argsList.get(0).type;
+        int size = 0;
+        for (ConditionArgs args : argsList) {
+            if (args.type != type) throw new IllegalArgumentException("Args must all have the same type.");
+            size += args.size();
+        }
+
+        long[] longs = slotFor(type) == LONGS ? new long[size] : null;
+        double[] doubles = slotFor(type) == DOUBLES ? new double[size] : null;
+        String[] strings = slotFor(type) == STRINGS ? new String[size] : null;
+        int pos = 0;
+        for (ConditionArgs args : argsList) {
+            int n = args.size();
+            if (longs != null) System.arraycopy(args.longs, 0, longs, pos, n);
+            else if (doubles != null) System.arraycopy(args.doubles, 0, doubles, pos, n);
+            else System.arraycopy(args.strings, 0, strings, pos, n);
+            pos += n;
+        }
+        return new ConditionArgs(type, longs, doubles, strings);
+    }
+
+    private long[] longs(FieldType expected) {
+        if (type != expected) throw wrongType(expected);
+        return longs;
+    }
+
+    private IllegalStateException wrongType(FieldType expected) {
+        return new IllegalStateException(String.format("Args are of type \"%s\", not \"%s\".", type.getTypeName(),
+                expected.getTypeName()));
+    }
+
+    /**
+     * Write {@code args} to {@code dest} as its type's ordinal followed by its array of primitives.
+     * @param dest Parcel to write to.
+     * @param args Args to write. Might be null.
+     */
+    static void writeToParcel(Parcel dest, ConditionArgs args) {
+        if (args == null) {
+            dest.writeInt(-1);
+            return;
+        }
+        dest.writeInt(args.type.ordinal());
+        if (args.longs != null) dest.writeLongArray(args.longs);
+        else if (args.doubles != null) dest.writeDoubleArray(args.doubles);
+        else dest.writeStringArray(args.strings);
+    }
+
+    /**
+     * Read args which were written using {@link #writeToParcel(Parcel, ConditionArgs)}.
+     * @param in Parcel to read from.
+     * @return Args. Might be null.
+     */
+    static ConditionArgs readFromParcel(Parcel in) {
+        int typeOrdinal = in.readInt();
+        if (typeOrdinal == -1) return null;
+        FieldType type = FieldType.values()[typeOrdinal];
+        switch (slotFor(type)) {
+            case LONGS:
+                return new ConditionArgs(type, in.createLongArray(), null, null);
+            case DOUBLES:
+                return new ConditionArgs(type, null, in.createDoubleArray(), null);
+            default:
+                return new ConditionArgs(type, null, null, in.createStringArray());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ConditionArgs)) return false;
+        ConditionArgs other = (ConditionArgs) o;
+        return type == other.type && Arrays.equals(longs, other.longs) && Arrays.equals(doubles, other.doubles) &&
+                Arrays.equals(strings, other.strings);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + Arrays.hashCode(longs);
+        result = 31 * result + Arrays.hashCode(doubles);
+        result = 31 * result + Arrays.hashCode(strings);
+        return result;
+    }
+
+    /**
+     * Boxed chunks, along with the chunk size they were made with.
+     */
+    private static final class BoxedChunks {
+        final int chunkSize;
+        final Object[][] chunks;
+
+        BoxedChunks(int chunkSize, Object[][] chunks) {
+            this.chunkSize = chunkSize;
+            this.chunks = chunks;
+        }
+    }
+}
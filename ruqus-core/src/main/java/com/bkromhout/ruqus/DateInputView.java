@@ -54,6 +54,7 @@ class DateInputView extends LinearLayout implements DatePickerDialog.OnDateSetLi
      * @param context Context to use.
      */
     private void init(Context context, RuqusTheme theme) {
+        Ruqus.ensureInit();
         // Inflate and bind views.
         inflate(context, R.layout.date_input_view, this);
         setOrientation(HORIZONTAL);
@@ -2,24 +2,31 @@ package com.bkromhout.ruqus;
 
 import io.realm.RealmModel;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Holds information about the fields of a class which extends {@link io.realm.RealmModel}.
  * @see ClassData
  */
 public abstract class FieldData {
+    /**
+     * Maps visible field names to real field names. Built lazily by {@link #realNameOf(String)}, and volatile so that
+     * it is safely published once built.
+     */
+    private volatile HashMap<String, String> visibleToRealNames = null;
+
     /**
      * Get a list of real field names.
-     * @return Real field names.
+     * @return Unmodifiable list of real field names.
      */
-    abstract ArrayList<String> getFieldNames();
+    abstract List<String> getFieldNames();
 
     /**
-     * Get a list of visible field names.
-     * @return Visible field names.
+     * Get a list of visible field names, in the same order as {@link #getFieldNames()}.
+     * @return Unmodifiable list of visible field names.
      */
-    abstract ArrayList<String> getVisibleNames();
+    abstract List<String> getVisibleNames();
 
     /**
      * Get the human-readable name of a field from its real field name.
@@ -28,6 +35,20 @@ public abstract class FieldData {
      */
     abstract String visibleNameOf(String realFieldName);
 
+    /**
+     * Get the real name of a field from its human-readable name.
+     * @param visibleFieldName Human-readable name of a field.
+     * @return Real field name, or null if there is no field with the given visible name.
+     */
+    String realNameOf(String visibleFieldName) {
+        if (visibleToRealNames == null) {
+            HashMap<String, String> map = new HashMap<>();
+            for (String realFieldName : getFieldNames()) map.put(visibleNameOf(realFieldName), realFieldName);
+            visibleToRealNames = map;
+        }
+        return visibleToRealNames.get(visibleFieldName);
+    }
+
     /**
      * The class of the type for this field.
      * @param realFieldName Real field name.
@@ -61,4 +82,17 @@ public abstract class FieldData {
      * @return True if field is a {@link io.realm.RealmList} type, otherwise false.
      */
     abstract boolean isRealmListType(String realFieldName);
+
+    /**
+     * @param realFieldName Real field name.
+     * @return True if Realm indexes the field (it's annotated with {@code @Index} or {@code @PrimaryKey}), otherwise
+     * false.
+     */
+    abstract boolean isIndexedField(String realFieldName);
+
+    /**
+     * @param realFieldName Real field name.
+     * @return True if the field is annotated with {@code @PrimaryKey}, otherwise false.
+     */
+    abstract boolean isPrimaryKeyField(String realFieldName);
 }
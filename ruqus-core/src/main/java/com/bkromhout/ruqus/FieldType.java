@@ -5,7 +5,6 @@ import io.realm.RealmModel;
 import io.realm.Sort;
 
 import java.util.Date;
-import java.util.regex.Pattern;
 
 /**
  * Represents field data types so that we don't have to compare Class objects as much.
@@ -105,45 +104,6 @@ public enum FieldType {
         else throw new IllegalArgumentException("Invalid class.");
     }
 
-    static String makeDataString(Object data) {
-        FieldType type = fromClazz(data.getClass());
-        switch (type) {
-            case DATE:
-                return String.valueOf(((Date) data).getTime()) + S.SEP + type.getTypeName();
-            case STRING:
-                return data + S.SEP + type.getTypeName();
-            case REALM_MODEL:
-            case REALM_LIST:
-                throw new IllegalArgumentException("Invalid data type.");
-            default:
-                return String.valueOf(data) + S.SEP + type.getTypeName();
-        }
-    }
-
-    static Object parseDataString(String data) {
-        String[] parts = S.SEP_PATTERN.split(data);
-        switch (fromName(parts[1])) {
-            case BOOLEAN:
-                return Boolean.valueOf(parts[0]);
-            case DATE:
-                return new Date(Long.valueOf(parts[0]));
-            case DOUBLE:
-                return Double.valueOf(parts[0]);
-            case FLOAT:
-                return Float.valueOf(parts[0]);
-            case INTEGER:
-                return Integer.valueOf(parts[0]);
-            case LONG:
-                return Long.valueOf(parts[0]);
-            case SHORT:
-                return Short.valueOf(parts[0]);
-            case STRING:
-                return parts[0];
-            default:
-                throw new IllegalArgumentException(String.format("Invalid data string \"%s\".", data));
-        }
-    }
-
     static Object parseNumberIfPossible(FieldType type, String string) {
         try {
             switch (type) {
@@ -166,8 +126,6 @@ public enum FieldType {
     }
 
     private static class S {
-        static final String SEP = "::";
-        static final Pattern SEP_PATTERN = Pattern.compile("\\Q" + SEP + "\\E");
         static final String BOOLEAN_NAME = "BOOLEAN";
         static final String DATE_NAME = "DATE";
         static final String DOUBLE_NAME = "DOUBLE";
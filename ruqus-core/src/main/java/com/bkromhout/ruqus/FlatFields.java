@@ -0,0 +1,101 @@
+package com.bkromhout.ruqus;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A table of every flat field which can be reached from a class annotated with {@link Queryable}, precomputed by the
+ * annotation processor. A flat field is a field whose type isn't a RealmModel or RealmList, possibly reached by going
+ * through one or more fields whose types are; for example, "{@code dog.name}".
+ * <p>
+ * Entries are parallel arrays; {@code paths[i]}, {@code visiblePaths[i]}, and {@code types[i]} all describe the same
+ * flat field.
+ * @see ClassData#getFlatFields(String)
+ */
+final class FlatFields {
+    /**
+     * Real flat field names, such as "{@code dog.name}".
+     */
+    private final String[] paths;
+    /**
+     * Visible flat field names, such as "{@code Dog>Name}".
+     */
+    private final String[] visiblePaths;
+    /**
+     * Types of the fields at the ends of the flat fields.
+     */
+    private final FieldType[] types;
+    /**
+     * Unmodifiable view of {@link #visiblePaths}.
+     */
+    private final List<String> visiblePathsList;
+    /**
+     * Maps real flat field names to indices. Built lazily, and volatile so that it is safely published once built.
+     */
+    private volatile HashMap<String, Integer> pathIdxs = null;
+    /**
+     * Maps visible flat field names to indices. Built lazily, and volatile so that it is safely published once built.
+     */
+    private volatile HashMap<String, Integer> visiblePathIdxs = null;
+
+    FlatFields(String[] paths, String[] visiblePaths, FieldType[] types) {
+        if (paths.length != visiblePaths.length || paths.length != types.length)
+            throw new IllegalArgumentException("Arrays must all be the same length.");
+        this.paths = paths;
+        this.visiblePaths = visiblePaths;
+        this.types = types;
+        this.visiblePathsList = Collections.unmodifiableList(Arrays.asList(visiblePaths));
+    }
+
+    /**
+     * Get the index of a real flat field name.
+     * @param path Real flat field name.
+     * @return Index, or -1 if {@code path} isn't in this table.
+     */
+    int indexOf(String path) {
+        HashMap<String, Integer> idxs = pathIdxs;
+        if (idxs == null) pathIdxs = idxs = makeIdxMap(paths);
+        Integer idx = idxs.get(path);
+        return idx == null ? -1 : idx;
+    }
+
+    /**
+     * Get the index of a visible flat field name.
+     * @param visiblePath Visible flat field name.
+     * @return Index, or -1 if {@code visiblePath} isn't in this table.
+     */
+    int indexOfVisible(String visiblePath) {
+        HashMap<String, Integer> idxs = visiblePathIdxs;
+        if (idxs == null) visiblePathIdxs = idxs = makeIdxMap(visiblePaths);
+        Integer idx = idxs.get(visiblePath);
+        return idx == null ? -1 : idx;
+    }
+
+    String pathAt(int idx) {
+        return paths[idx];
+    }
+
+    String visiblePathAt(int idx) {
+        return visiblePaths[idx];
+    }
+
+    FieldType typeAt(int idx) {
+        return types[idx];
+    }
+
+    /**
+     * Get all visible flat field names.
+     * @return Unmodifiable list of visible flat field names.
+     */
+    List<String> getVisiblePaths() {
+        return visiblePathsList;
+    }
+
+    private static HashMap<String, Integer> makeIdxMap(String[] strings) {
+        HashMap<String, Integer> map = new HashMap<>(strings.length * 2);
+        for (int i = 0; i < strings.length; i++) map.put(strings[i], i);
+        return map;
+    }
+}
@@ -0,0 +1,342 @@
+package com.bkromhout.ruqus;
+
+import io.realm.DynamicRealmObject;
+import io.realm.RealmModel;
+import io.realm.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts query results in memory, for sort fields which Realm can't sort by itself (link fields such as "dog.age").
+ * <p>
+ * Each object's sort keys are read once, into one primitive array per sort field, and then an array of indices into
+ * the results is sorted rather than the objects themselves. When only the first {@code limit} objects are needed, only
+ * that many indices are ever kept in order.
+ * <p>
+ * Null values, including those at the end of a null link, come before all other values when sorting in ascending order.
+ * Objects which are equal on all sort fields keep their original relative order. Strings are compared using {@link
+ * String#compareTo(String)}, which orders them by UTF-16 code unit rather than using Realm's ordering, so the two
+ * don't always agree (for example, for letters which differ only in case, or which have accents).
+ * <p>
+ * This is also used by {@link Pager} to fetch pages of results when Realm can't sort them itself or they're sorted by
+ * strings, so that each page only needs to keep track of the objects which come after the previous page's {@link
+ * PageCursor}, no matter how deep into the results it is.
+ */
+final class InMemorySorter {
+    private static final String FLAT_SEP = ".";
+    private static final Pattern FLAT_SEP_PATTERN = Pattern.compile("\\Q" + FLAT_SEP + "\\E");
+
+    /**
+     * Sort fields, split into their parts.
+     */
+    private final String[][] paths;
+    /**
+     * Types of the fields at the ends of {@link #paths}.
+     */
+    private final FieldType[] types;
+    /**
+     * Whether to sort by each field in descending order.
+     */
+    private final boolean[] descending;
+
+    /**
+     * Create a new {@link InMemorySorter}.
+     * @param realmClass Name of the RealmModel subclass which will be sorted.
+     * @param sortFields Fields to sort by. None of them may pass through a RealmList.
+     * @param sortDirs   Directions to sort in; {@code sortDirs[i]} applies to {@code sortFields[i]}.
+     */
+    InMemorySorter(String realmClass, String[] sortFields, Sort[] sortDirs) {
+        paths = new String[sortFields.length][];
+        types = new FieldType[sortFields.length];
+        descending = new boolean[sortFields.length];
+        for (int i = 0; i < sortFields.length; i++) {
+            if (Ruqus.isToManyField(realmClass, sortFields[i])) throw new IllegalArgumentException(String.format(
+                    "Can't sort by \"%s\", since it goes through a RealmList.", sortFields[i]));
+            paths[i] = FLAT_SEP_PATTERN.split(sortFields[i]);
+            types[i] = Ruqus.typeEnumForField(realmClass, sortFields[i]);
+            descending[i] = sortDirs[i] == Sort.DESCENDING;
+        }
+    }
+
+    /**
+     * Check whether Realm can sort by all of {@code sortFields} itself, in which case there's no need to use an {@link
+     * InMemorySorter}.
+     * @param sortFields Fields to sort by.
+     * @return True if none of the fields are link fields.
+     */
+    static boolean canSortNatively(String[] sortFields) {
+        for (String sortField : sortFields) if (sortField.contains(FLAT_SEP)) return false;
+        return true;
+    }
+
+    /**
+     * Sort {@code objects}.
+     * @param objects Managed objects to sort.
+     * @param limit   Maximum number of objects to return, or a negative number to return all of them.
+     * @return New list containing the first {@code limit} objects from {@code objects}, in sorted order.
+     */
+    <E extends RealmModel> List<E> sort(List<E> objects, int limit) {
+        Keys keys = new Keys(objects, null);
+        int[] sorted = smallest(keys, limit < 0 ? objects.size() : limit, null);
+        ArrayList<E> results = new ArrayList<>(sorted.length);
+        for (int idx : sorted) results.add(objects.get(idx));
+        return results;
+    }
+
+    /**
+     * Get the page of {@code objects} which comes after {@code after}, which must have already been checked by {@link
+     * Pager}.
+     * @param objects  Managed objects to page through.
+     * @param pageSize Maximum number of objects to return.
+     * @param after    Cursor returned with the previous page, or null to get the first page.
+     * @return Page of results.
+     */
+    <E extends RealmModel> RUQPage<E> page(List<E> objects, int pageSize, PageCursor after) {
+        Keys keys = new Keys(objects, after);
+        // Ask for one extra object so that we know whether there are any more pages. There can't be more than
+        // Integer.MAX_VALUE objects, so there's never another page if pageSize is that large.
+        int[] sorted = smallest(keys, pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1, after);
+        boolean hasMore = sorted.length > pageSize;
+        int count = hasMore ? pageSize : sorted.length;
+
+        ArrayList<E> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) results.add(objects.get(sorted[i]));
+        if (!hasMore) return new RUQPage<>(results, null);
+
+        // The next page starts after the last object in this one. Remember how many objects with the same sort keys as
+        // it have been returned so far, so that the next page can skip exactly those.
+        int last = sorted[count - 1];
+        int tieCount = 0;
+        for (int i = 0; i < count; i++) if (keys.compareKeys(sorted[i], last) == 0) tieCount++;
+        if (after != null && keys.compareKeys(last, keys.cursorRow) == 0) tieCount += after.getTieCount();
+        Object[] lastKeys = new Object[paths.length];
+        for (int k = 0; k < paths.length; k++) lastKeys[k] = keys.keyAt(k, last);
+        return new RUQPage<>(results, new PageCursor(lastKeys, tieCount));
+    }
+
+    /**
+     * Find the {@code k} smallest objects in {@code keys}, skipping any which don't come after {@code after}.
+     * @param keys  Sort keys.
+     * @param k     Maximum number of objects to find.
+     * @param after Cursor, or null to include all objects.
+     * @return Indices of the smallest objects, in sorted order.
+     */
+    private static int[] smallest(Keys keys, int k, PageCursor after) {
+        int size = keys.size;
+        int skipTies = after == null ? 0 : after.getTieCount();
+
+        // Keep the k smallest indices seen so far in a max-heap, so the largest of them can be swapped out cheaply.
+        int[] heap = new int[Math.min(k, size)];
+        int heapSize = 0;
+        for (int i = 0; i < size && heap.length > 0; i++) {
+            if (after != null) {
+                int result = keys.compareKeys(i, keys.cursorRow);
+                // Objects with the same keys as the cursor are in index order, so the first few were already returned.
+                if (result < 0 || (result == 0 && skipTies-- > 0)) continue;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize] = i;
+                siftUp(keys, heap, heapSize++);
+            } else if (keys.compare(i, heap[0]) < 0) {
+                heap[0] = i;
+                siftDown(keys, heap, 0, heapSize);
+            }
+        }
+
+        // Repeatedly move the largest remaining index to the end of the heap, leaving the heap sorted.
+        for (int end = heapSize - 1; end > 0; end--) {
+            int largest = heap[0];
+            heap[0] = heap[end];
+            heap[end] = largest;
+            siftDown(keys, heap, 0, end);
+        }
+        return heapSize == heap.length ? heap : Arrays.copyOf(heap, heapSize);
+    }
+
+    private static void siftUp(Keys keys, int[] heap, int pos) {
+        int idx = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (keys.compare(idx, heap[parent]) <= 0) break;
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = idx;
+    }
+
+    private static void siftDown(Keys keys, int[] heap, int pos, int heapSize) {
+        int idx = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && keys.compare(heap[child + 1], heap[child]) > 0) child++;
+            if (keys.compare(heap[child], idx) <= 0) break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = idx;
+    }
+
+    /**
+     * Sort keys for a list of objects. Key {@code k} for object {@code i} is in {@code longs[k][i]}, {@code
+     * doubles[k][i]}, or {@code strings[k][i]}, depending on the type of sort field {@code k}.
+     * <p>
+     * If there's a cursor, its keys are stored after the objects' keys, at index {@link #cursorRow}.
+     */
+    private final class Keys {
+        /**
+         * Number of objects.
+         */
+        private final int size;
+        /**
+         * Index of the cursor's keys.
+         */
+        private final int cursorRow;
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final String[][] strings;
+        private final boolean[][] nulls;
+
+        Keys(List<? extends RealmModel> objects, PageCursor cursor) {
+            size = objects.size();
+            cursorRow = size;
+            int rows = cursor == null ? size : size + 1;
+            longs = new long[paths.length][];
+            doubles = new double[paths.length][];
+            strings = new String[paths.length][];
+            nulls = new boolean[paths.length][rows];
+            for (int k = 0; k < paths.length; k++) {
+                switch (types[k]) {
+                    case DOUBLE:
+                    case FLOAT:
+                        doubles[k] = new double[rows];
+                        break;
+                    case STRING:
+                        strings[k] = new String[rows];
+                        break;
+                    default:
+                        longs[k] = new long[rows];
+                        break;
+                }
+            }
+
+            for (int i = 0; i < size; i++) {
+                DynamicRealmObject object = new DynamicRealmObject(objects.get(i));
+                for (int k = 0; k < paths.length; k++) readKey(object, k, i);
+            }
+            if (cursor != null)
+                for (int k = 0; k < paths.length; k++) setKey(k, cursorRow, cursor.getLastKeys()[k]);
+        }
+
+        /**
+         * Set key {@code k} for row {@code i} to {@code value}.
+         */
+        private void setKey(int k, int i, Object value) {
+            if (value == null) nulls[k][i] = true;
+            else if (value instanceof Boolean) longs[k][i] = (Boolean) value ? 1L : 0L;
+            else if (value instanceof Date) longs[k][i] = ((Date) value).getTime();
+            else if (value instanceof String) strings[k][i] = (String) value;
+            else if (doubles[k] != null) doubles[k][i] = ((Number) value).doubleValue();
+            else longs[k][i] = ((Number) value).longValue();
+        }
+
+        /**
+         * Get key {@code k} for row {@code i}, boxed according to the type of sort field {@code k}.
+         */
+        Object keyAt(int k, int i) {
+            if (nulls[k][i]) return null;
+            switch (types[k]) {
+                case BOOLEAN:
+                    return longs[k][i] != 0L;
+                case DATE:
+                    return new Date(longs[k][i]);
+                case DOUBLE:
+                    return doubles[k][i];
+                case FLOAT:
+                    return (float) doubles[k][i];
+                case INTEGER:
+                    return (int) longs[k][i];
+                case SHORT:
+                    return (short) longs[k][i];
+                case STRING:
+                    return strings[k][i];
+                default:
+                    return longs[k][i];
+            }
+        }
+
+        /**
+         * Read key {@code k} for object {@code i} from {@code object}, following any links along the way.
+         */
+        private void readKey(DynamicRealmObject object, int k, int i) {
+            String[] path = paths[k];
+            int last = path.length - 1;
+            for (int p = 0; p < last; p++) {
+                if (object.isNull(path[p])) {
+                    nulls[k][i] = true;
+                    return;
+                }
+                object = object.getObject(path[p]);
+            }
+            String field = path[last];
+            if (object.isNull(field)) {
+                nulls[k][i] = true;
+                return;
+            }
+            switch (types[k]) {
+                case BOOLEAN:
+                    longs[k][i] = object.getBoolean(field) ? 1L : 0L;
+                    break;
+                case DATE:
+                    Date date = object.getDate(field);
+                    longs[k][i] = date.getTime();
+                    break;
+                case DOUBLE:
+                    doubles[k][i] = object.getDouble(field);
+                    break;
+                case FLOAT:
+                    doubles[k][i] = object.getFloat(field);
+                    break;
+                case STRING:
+                    strings[k][i] = object.getString(field);
+                    break;
+                default:
+                    longs[k][i] = object.getLong(field);
+                    break;
+            }
+        }
+
+        /**
+         * Compare objects {@code a} and {@code b} by their sort keys, falling back to their indices so that no two
+         * objects are ever equal.
+         */
+        int compare(int a, int b) {
+            int result = compareKeys(a, b);
+            return result != 0 ? result : compareLongs(a, b);
+        }
+
+        /**
+         * Compare rows {@code a} and {@code b} by their sort keys only.
+         */
+        int compareKeys(int a, int b) {
+            for (int k = 0; k < paths.length; k++) {
+                int result;
+                if (nulls[k][a] || nulls[k][b]) result = nulls[k][a] == nulls[k][b] ? 0 : nulls[k][a] ? -1 : 1;
+                else if (longs[k] != null) result = compareLongs(longs[k][a], longs[k][b]);
+                else if (doubles[k] != null) result = Double.compare(doubles[k][a], doubles[k][b]);
+                else result = strings[k][a].compareTo(strings[k][b]);
+                if (result != 0) return descending[k] ? -result : result;
+            }
+            return 0;
+        }
+    }
+
+    // Long.compare() requires API 19.
+    private static int compareLongs(long x, long y) {
+        return x < y ? -1 : x == y ? 0 : 1;
+    }
+}
@@ -0,0 +1,103 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Realm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Marks where a page of query results ended, so that the next page can start right after it. Returned by {@link
+ * RUQPage#getNextCursor()}, and passed to {@link RealmUserQuery#executePage(Realm, int, PageCursor)} to get the next
+ * page.
+ * <p>
+ * A cursor holds the values of the query's sort fields for the last object on its page, rather than that object's
+ * position, so objects which are added or removed before it don't cause the next page to skip or repeat objects. If
+ * the query's class has a primary key, the cursor holds its value too, which makes it exact. Otherwise, objects with
+ * the same sort field values are told apart by how many of them have been returned, so adding or removing any of them
+ * between pages may cause some to be skipped or repeated. Cursors are only meaningful for the query (or a query with
+ * the same sort fields) which they came from.
+ * <p>
+ * Like {@link RealmUserQuery}, cursors can be turned into strings using {@link #toCursorString()} so that they can be
+ * stored, then turned back into cursors using {@link #PageCursor(String)}.
+ */
+public final class PageCursor {
+    private static final String CURSOR_SEP = "#$_Cursor_$#";
+    private static final String NULL = "NULL";
+
+    /**
+     * Sort field values of the last object on the page; {@code lastKeys[i]} is the value of sort field {@code i}, or
+     * null. Ends with the primary key's value if the query's class has one which isn't already a sort field.
+     */
+    private final Object[] lastKeys;
+    /**
+     * Number of objects which have been returned so far whose sort field values are equal to {@link #lastKeys}.
+     */
+    private final int tieCount;
+
+    PageCursor(Object[] lastKeys, int tieCount) {
+        this.lastKeys = lastKeys;
+        this.tieCount = tieCount;
+    }
+
+    /**
+     * Create a new {@link PageCursor} using a string from {@link #toCursorString()}.
+     * @param cursorString Cursor string.
+     */
+    public PageCursor(String cursorString) {
+        if (cursorString == null) throw new IllegalArgumentException("cursorString must be non-null.");
+        int sep = cursorString.indexOf(CURSOR_SEP);
+        if (sep == -1) throw new IllegalArgumentException("Invalid cursor string.");
+        tieCount = Integer.parseInt(cursorString.substring(0, sep));
+
+        ArrayList<Object> keys = new ArrayList<>();
+        int pos = sep + CURSOR_SEP.length(), end = cursorString.length();
+        while (pos < end) {
+            int keyEnd = RUQStringCodec.indexOf(cursorString, RUQStringCodec.ARG_SEP, pos, end);
+            if (keyEnd == -1) keyEnd = end;
+            boolean isNull = keyEnd - pos == NULL.length() && cursorString.startsWith(NULL, pos);
+            keys.add(isNull ? null : RUQStringCodec.readArg(cursorString, pos, keyEnd));
+            pos = keyEnd + RUQStringCodec.ARG_SEP.length();
+        }
+        lastKeys = keys.toArray();
+    }
+
+    Object[] getLastKeys() {
+        return lastKeys;
+    }
+
+    int getTieCount() {
+        return tieCount;
+    }
+
+    /**
+     * Get this cursor as a string, which can be used to re-create it later.
+     * @return Cursor string.
+     */
+    public String toCursorString() {
+        StringBuilder builder = new StringBuilder().append(tieCount).append(CURSOR_SEP);
+        for (int i = 0; i < lastKeys.length; i++) {
+            if (i > 0) builder.append(RUQStringCodec.ARG_SEP);
+            if (lastKeys[i] == null) builder.append(NULL);
+            else RUQStringCodec.writeArg(builder, ConditionArgs.of(new Object[] {lastKeys[i]}), 0);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PageCursor that = (PageCursor) o;
+        return tieCount == that.tieCount && Arrays.equals(lastKeys, that.lastKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(lastKeys) + tieCount;
+    }
+
+    @Override
+    public String toString() {
+        return toCursorString();
+    }
+}
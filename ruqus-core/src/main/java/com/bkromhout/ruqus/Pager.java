@@ -0,0 +1,300 @@
+package com.bkromhout.ruqus;
+
+import io.realm.DynamicRealmObject;
+import io.realm.Realm;
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+import io.realm.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Fetches pages of query results; see {@link RealmUserQuery#executePage(Realm, int, PageCursor)}.
+ * <p>
+ * If Realm can sort by all of the sort fields itself, it does, and the sorted results are read lazily; where the
+ * previous page ended is found using a binary search, so only the objects on the page and about log2(n) others are ever
+ * read, no matter how deep into the results the page is. Otherwise, the results are sorted in memory using an {@link
+ * InMemorySorter}. Realm orders strings differently than {@link String#compareTo(String)} does, and a cursor can only
+ * be found in results which are in the same order as it's compared in, so results are always sorted in memory if any of
+ * the sort fields (including the primary key) are string fields.
+ * <p>
+ * If the class being paged through has a primary key, it is added as a final sort field (unless it's already one), so
+ * that no two objects ever have the same sort keys and a {@link PageCursor} always identifies exactly where its page
+ * ended, even if the realm is changed between pages. Otherwise, objects with the same sort keys are told apart by how
+ * many of them have already been returned, which is only reliable as long as none of them are added or removed.
+ */
+final class Pager {
+    /**
+     * Sort fields, including the primary key if there is one.
+     */
+    private final String[] fields;
+    /**
+     * Directions to sort in; {@code dirs[i]} applies to {@code fields[i]}.
+     */
+    private final Sort[] dirs;
+    /**
+     * Types of {@link #fields}.
+     */
+    private final FieldType[] types;
+    /**
+     * Whether the first sort field is a primitive field, and so can never be null.
+     */
+    private final boolean firstNeverNull;
+    /**
+     * Whether one of {@link #fields} is the primary key, in which case no two objects have the same sort keys.
+     */
+    private final boolean unique;
+    /**
+     * Sorter to use if Realm can't sort by all of {@link #fields} itself or any of them are string fields, otherwise
+     * null.
+     */
+    private final InMemorySorter sorter;
+
+    /**
+     * Create a new {@link Pager}.
+     * @param realmClass Name of the RealmModel subclass which will be paged through.
+     * @param sortFields Fields to sort by. None of them may pass through a RealmList.
+     * @param sortDirs   Directions to sort in; {@code sortDirs[i]} applies to {@code sortFields[i]}.
+     */
+    Pager(String realmClass, String[] sortFields, Sort[] sortDirs) {
+        FieldData fieldData = Ruqus.getClassData().getFieldData(realmClass);
+        String primaryKey = primaryKeyOf(fieldData);
+        unique = primaryKey != null;
+        if (unique && !Arrays.asList(sortFields).contains(primaryKey)) {
+            sortFields = Arrays.copyOf(sortFields, sortFields.length + 1);
+            sortFields[sortFields.length - 1] = primaryKey;
+            sortDirs = Arrays.copyOf(sortDirs, sortDirs.length + 1);
+            sortDirs[sortDirs.length - 1] = Sort.ASCENDING;
+        }
+
+        fields = sortFields;
+        dirs = sortDirs;
+        types = new FieldType[sortFields.length];
+        for (int i = 0; i < sortFields.length; i++) types[i] = Ruqus.typeEnumForField(realmClass, sortFields[i]);
+        firstNeverNull = sortFields.length > 0 && fieldData.hasField(sortFields[0]) &&
+                fieldData.fieldType(sortFields[0]).isPrimitive();
+        sorter = InMemorySorter.canSortNatively(sortFields) && !Arrays.asList(types).contains(FieldType.STRING) ? null :
+                new InMemorySorter(realmClass, sortFields, sortDirs);
+    }
+
+    /**
+     * Find the primary key field of a class, if it has one which can be used as a sort key.
+     * @param fieldData Field data for the class.
+     * @return Name of the primary key field, or null.
+     */
+    private static String primaryKeyOf(FieldData fieldData) {
+        for (String field : fieldData.getFieldNames()) {
+            if (!fieldData.isPrimaryKeyField(field)) continue;
+            // There's no FieldType for byte fields, so they can't be sorted by.
+            Class<?> type = fieldData.fieldType(field);
+            return type == byte.class || type == Byte.class ? null : field;
+        }
+        return null;
+    }
+
+    /**
+     * Check whether {@link #narrow(RealmQuery, PageCursor)} will do anything for {@code after}. It can only do so if
+     * the first sort field is a number or date field and {@code after}'s value for it isn't null. If that field is
+     * sorted in descending order, it must also be a primitive field, since null values come after all others.
+     * @param after Cursor returned with the previous page, or null.
+     * @return True if the query can be narrowed.
+     */
+    boolean canNarrow(PageCursor after) {
+        if (after == null || fields.length == 0 || after.getLastKeys()[0] == null) return false;
+        if (dirs[0] == Sort.DESCENDING && !firstNeverNull) return false;
+        return types[0] != FieldType.BOOLEAN && types[0] != FieldType.STRING;
+    }
+
+    /**
+     * Add a condition to {@code query} which lets Realm skip over objects whose first sort key comes before {@code
+     * after}'s. The query's other conditions must already be grouped, and {@link #canNarrow(PageCursor)} must be true.
+     * @param query Query to narrow.
+     * @param after Cursor returned with the previous page.
+     */
+    <E extends RealmModel> void narrow(RealmQuery<E> query, PageCursor after) {
+        Object value = after.getLastKeys()[0];
+        boolean descending = dirs[0] == Sort.DESCENDING;
+        switch (types[0]) {
+            case DATE:
+                if (descending) query.lessThanOrEqualTo(fields[0], (Date) value);
+                else query.greaterThanOrEqualTo(fields[0], (Date) value);
+                break;
+            case DOUBLE:
+                if (descending) query.lessThanOrEqualTo(fields[0], (Double) value);
+                else query.greaterThanOrEqualTo(fields[0], (Double) value);
+                break;
+            case FLOAT:
+                if (descending) query.lessThanOrEqualTo(fields[0], (Float) value);
+                else query.greaterThanOrEqualTo(fields[0], (Float) value);
+                break;
+            default:
+                long number = ((Number) value).longValue();
+                // If the primary key is the only sort field, no other object can have the same value as the cursor's.
+                boolean strict = unique && fields.length == 1;
+                if (descending && strict) query.lessThan(fields[0], number);
+                else if (descending) query.lessThanOrEqualTo(fields[0], number);
+                else if (strict) query.greaterThan(fields[0], number);
+                else query.greaterThanOrEqualTo(fields[0], number);
+                break;
+        }
+    }
+
+    /**
+     * Get the page of results which comes after {@code after}.
+     * @param query    Query to get the page from, which should have been narrowed if {@link #canNarrow(PageCursor)} is
+     *                 true.
+     * @param pageSize Maximum number of objects to return.
+     * @param after    Cursor returned with the previous page, or null to get the first page.
+     * @return Page of results.
+     */
+    <E extends RealmModel> RUQPage<E> page(RealmQuery<E> query, int pageSize, PageCursor after) {
+        checkCursor(after);
+        if (sorter != null) return sorter.page(query.findAll(), pageSize, after);
+        return pageSorted(fields.length == 0 ? query.findAll() : query.findAllSorted(fields, dirs), pageSize, after);
+    }
+
+    /**
+     * Get the page of {@code sorted} which comes after {@code after}, reading as few objects as possible.
+     * @param sorted   Managed objects, already sorted in the same order as {@link #compareKeys(Object[], Object[])}.
+     * @param pageSize Maximum number of objects to return.
+     * @param after    Cursor returned with the previous page, or null to get the first page.
+     * @return Page of results.
+     */
+    <E extends RealmModel> RUQPage<E> pageSorted(List<E> sorted, int pageSize, PageCursor after) {
+        int size = sorted.size();
+        Object[] cursorKeys = after == null ? null : after.getLastKeys();
+
+        // Skip over the objects which come before the cursor, and those with the same keys as it which have already
+        // been returned. Objects with the same keys as the cursor are next to each other, so binary search for both
+        // ends of that run.
+        int start = 0;
+        if (after != null) {
+            int firstTie = search(sorted, cursorKeys, 0, false);
+            int pastTies = search(sorted, cursorKeys, firstTie, true);
+            start = firstTie + Math.min(after.getTieCount(), pastTies - firstTie);
+        }
+
+        boolean hasMore = size - start > pageSize;
+        int count = hasMore ? pageSize : size - start;
+        ArrayList<E> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) results.add(sorted.get(start + i));
+        if (!hasMore) return new RUQPage<>(results, null);
+
+        // The next page starts after the last object in this one. Objects with the same keys are next to each other, so
+        // count back from the end of the page to find how many with the same keys as it have been returned so far.
+        Object[] lastKeys = readKeys(results.get(count - 1));
+        int tieCount = 1;
+        while (tieCount < count && compareKeys(readKeys(results.get(count - 1 - tieCount)), lastKeys) == 0) tieCount++;
+        if (tieCount == count && after != null && compareKeys(lastKeys, cursorKeys) == 0)
+            tieCount += after.getTieCount();
+        return new RUQPage<>(results, new PageCursor(lastKeys, tieCount));
+    }
+
+    /**
+     * Binary search {@code sorted} for the first object whose sort keys come after {@code keys}, or which are equal to
+     * them if {@code pastTies} is false.
+     * @param sorted   Objects, sorted in the same order as {@link #compareKeys(Object[], Object[])}.
+     * @param keys     Sort keys to search for.
+     * @param from     Index to start searching at; none of the objects before it are the one being searched for.
+     * @param pastTies Whether to skip over objects whose sort keys are equal to {@code keys}.
+     * @return Index of the object, or {@code sorted.size()} if there isn't one.
+     */
+    private int search(List<? extends RealmModel> sorted, Object[] keys, int from, boolean pastTies) {
+        int low = from, high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int result = compareKeys(readKeys(sorted.get(mid)), keys);
+            if (result > 0 || (result == 0 && !pastTies)) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     * Make sure that {@code after} has a key for each sort field, and that they're of the right types.
+     */
+    private void checkCursor(PageCursor after) {
+        if (after == null) return;
+        Object[] lastKeys = after.getLastKeys();
+        boolean matches = lastKeys.length == fields.length && after.getTieCount() >= 0;
+        for (int k = 0; matches && k < fields.length; k++)
+            matches = lastKeys[k] == null || FieldType.fromClazz(lastKeys[k].getClass()) == types[k];
+        if (!matches) throw new IllegalArgumentException("Cursor doesn't match the query's sort fields.");
+    }
+
+    /**
+     * Read the sort keys of {@code object}, boxed the same way as {@link PageCursor#getLastKeys()}. Only used when
+     * none of the sort fields are link fields.
+     */
+    private Object[] readKeys(RealmModel object) {
+        DynamicRealmObject dynamic = new DynamicRealmObject(object);
+        Object[] keys = new Object[fields.length];
+        for (int k = 0; k < fields.length; k++) {
+            String field = fields[k];
+            if (dynamic.isNull(field)) continue;
+            switch (types[k]) {
+                case BOOLEAN:
+                    keys[k] = dynamic.getBoolean(field);
+                    break;
+                case DATE:
+                    keys[k] = dynamic.getDate(field);
+                    break;
+                case DOUBLE:
+                    keys[k] = dynamic.getDouble(field);
+                    break;
+                case FLOAT:
+                    keys[k] = dynamic.getFloat(field);
+                    break;
+                case INTEGER:
+                    keys[k] = (int) dynamic.getLong(field);
+                    break;
+                case SHORT:
+                    keys[k] = (short) dynamic.getLong(field);
+                    break;
+                case STRING:
+                    keys[k] = dynamic.getString(field);
+                    break;
+                default:
+                    keys[k] = dynamic.getLong(field);
+                    break;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Compare two sets of sort keys, the same way {@link InMemorySorter} does.
+     */
+    private int compareKeys(Object[] a, Object[] b) {
+        for (int k = 0; k < fields.length; k++) {
+            int result;
+            if (a[k] == null || b[k] == null) result = a[k] == b[k] ? 0 : a[k] == null ? -1 : 1;
+            else {
+                switch (types[k]) {
+                    case BOOLEAN:
+                        result = a[k].equals(b[k]) ? 0 : (Boolean) a[k] ? 1 : -1;
+                        break;
+                    case DATE:
+                        result = ((Date) a[k]).compareTo((Date) b[k]);
+                        break;
+                    case DOUBLE:
+                    case FLOAT:
+                        result = Double.compare(((Number) a[k]).doubleValue(), ((Number) b[k]).doubleValue());
+                        break;
+                    case STRING:
+                        result = ((String) a[k]).compareTo((String) b[k]);
+                        break;
+                    default:
+                        long x = ((Number) a[k]).longValue(), y = ((Number) b[k]).longValue();
+                        result = x < y ? -1 : x == y ? 0 : 1;
+                        break;
+                }
+            }
+            if (result != 0) return dirs[k] == Sort.DESCENDING ? -result : result;
+        }
+        return 0;
+    }
+}
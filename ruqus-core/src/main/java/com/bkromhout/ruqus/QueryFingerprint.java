@@ -0,0 +1,182 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes structural fingerprints of {@link RealmUserQuery}s; see {@link RealmUserQuery#fingerprint()}.
+ * <p>
+ * Fingerprints are 64-bit FNV-1a hashes of a query's normalized form, which is made up of its query class, its
+ * conditions (after being simplified by {@link QuerySimplifier} and rewritten by {@link QueryRewriter}, and with their
+ * args normalized by their transformers), and its sort fields and directions. Only real names are hashed, never visible
+ * names, and enums are hashed by name, so fingerprints don't change between app launches. The normalized form itself
+ * is also kept, as a string, so that queries whose fingerprints happen to collide can still be told apart.
+ * <p>
+ * Computing a fingerprint means simplifying and rewriting the query's conditions, so each instance also remembers the
+ * state of the query it was computed from; {@link RealmUserQuery} keeps reusing it until {@link #isCurrent(List, int)}
+ * says that the query has changed. Instances are immutable once created.
+ */
+final class QueryFingerprint {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET_BASIS;
+    /**
+     * Normalized form, while it's being built; null once {@link #normalized} has been set.
+     */
+    private StringBuilder builder = new StringBuilder();
+    /**
+     * Normalized form, in which each string is prefixed by its length and each number is followed by a comma.
+     */
+    private String normalized;
+    /**
+     * The query's mod count when this was computed.
+     */
+    private final int modCount;
+    /**
+     * The query's conditions when this was computed.
+     */
+    private final Condition[] conditions;
+    /**
+     * Mod counts of {@link #conditions} when this was computed.
+     */
+    private final int[] conditionModCounts;
+
+    private QueryFingerprint(int modCount, List<Condition> conditions) {
+        this.modCount = modCount;
+        this.conditions = conditions.toArray(new Condition[conditions.size()]);
+        conditionModCounts = new int[this.conditions.length];
+        for (int i = 0; i < this.conditions.length; i++) conditionModCounts[i] = this.conditions[i].getModCount();
+    }
+
+    /**
+     * Compute the fingerprint of {@code ruq}. The conditions are only normalized if the query is valid.
+     * @param ruq      Query to fingerprint.
+     * @param modCount Query's current mod count, which changes whenever its query class or sorts are changed.
+     * @return Fingerprint.
+     */
+    static QueryFingerprint of(RealmUserQuery ruq, int modCount) {
+        QueryFingerprint fp = new QueryFingerprint(modCount, ruq.getConditions());
+        fp.add(ruq.getQueryClass() == null ? null : ruq.getQueryClass().getSimpleName());
+
+        boolean valid = ruq.isQueryValid();
+        List<Condition> conditions = valid
+                ? QueryRewriter.collapseEqualToChains(QuerySimplifier.simplify(ruq.getConditions()))
+                : ruq.getConditions();
+        fp.add(conditions.size());
+        for (Condition condition : conditions) fp.add(condition, valid);
+
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        fp.add(sortFields.size());
+        for (int i = 0; i < sortFields.size(); i++) {
+            fp.add(sortFields.get(i));
+            fp.add(sortDirs.get(i).name());
+        }
+        fp.normalized = fp.builder.toString();
+        fp.builder = null;
+        return fp;
+    }
+
+    /**
+     * @return 64-bit hash of the query's normalized form.
+     */
+    long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return The query's normalized form. Two queries have the same normalized form if and only if they're
+     * structurally equivalent.
+     */
+    String getNormalized() {
+        return normalized;
+    }
+
+    /**
+     * Check whether this is still the fingerprint of a query, which it is as long as the query's class and sorts
+     * haven't been changed, and it still has exactly the same conditions, none of which have been changed either. This
+     * is much cheaper than computing the fingerprint again.
+     * @param currentConditions Query's current conditions.
+     * @param currentModCount   Query's current mod count.
+     * @return True if this fingerprint is still current.
+     */
+    boolean isCurrent(List<Condition> currentConditions, int currentModCount) {
+        if (currentModCount != modCount || currentConditions.size() != conditions.length) return false;
+        for (int i = 0; i < conditions.length; i++)
+            if (currentConditions.get(i) != conditions[i] || conditions[i].getModCount() != conditionModCounts[i])
+                return false;
+        return true;
+    }
+
+    private void add(Condition condition, boolean normalize) {
+        add(condition.getType() == null ? null : condition.getType().getName());
+        add(condition.getRealmClass());
+        add(condition.getTransformer());
+        if (condition.getType() != Condition.Type.NORMAL) return;
+        add(condition.getField());
+        add(condition.getFieldType() == null ? null : condition.getFieldType().getTypeName());
+
+        ConditionArgs args = condition.getTypedArgs();
+        if (normalize) {
+            RUQTransformer transformer = Ruqus.getTransformerData().getTransformer(condition.getTransformerId());
+            if (transformer instanceof TypedRUQTransformer)
+                args = ((TypedRUQTransformer) transformer).normalizeArgs(args);
+        }
+        add(args);
+    }
+
+    private void add(ConditionArgs args) {
+        if (args == null) {
+            add(-1);
+            return;
+        }
+        add(args.size());
+        add(args.getType().getTypeName());
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.getType()) {
+                case DOUBLE:
+                case FLOAT:
+                    add(Double.doubleToLongBits(args.getDouble(i)));
+                    break;
+                case STRING:
+                    add(args.getString(i));
+                    break;
+                default:
+                    add(args.getLong(i));
+                    break;
+            }
+        }
+    }
+
+    private void add(String s) {
+        if (s == null) {
+            add(-1);
+            return;
+        }
+        add(s.length());
+        builder.append(s);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            addByte(c);
+            addByte(c >>> 8);
+        }
+    }
+
+    private void add(long value) {
+        builder.append(value).append(',');
+        for (int i = 0; i < 64; i += 8) addByte((int) (value >>> i));
+    }
+
+    private void add(int value) {
+        builder.append(value).append(',');
+        for (int i = 0; i < 32; i += 8) addByte(value >>> i);
+    }
+
+    private void addByte(int b) {
+        hash ^= b & 0xff;
+        hash *= FNV_PRIME;
+    }
+}
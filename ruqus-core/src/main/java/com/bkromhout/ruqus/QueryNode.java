@@ -0,0 +1,246 @@
+package com.bkromhout.ruqus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the tree form of a list of conditions, which is built by {@link #parse(List)}.
+ * <p>
+ * Each level of the query (the top level, or the inside of a group) is a {@link Disjunction} of one or more {@link
+ * Conjunction}s, which are the runs of conditions between {@code Or}s. A conjunction's operands are {@link Leaf}s
+ * ({@link Condition.Type#NORMAL NORMAL} and {@link Condition.Type#NO_ARGS NO_ARGS} conditions), {@link Group}s, and
+ * {@link Negation}s of either (or of other negations).
+ * <p>
+ * Every condition in the list, including {@code Not}, {@code Or}, {@code BeginGroup}, and {@code EndGroup} conditions,
+ * is held by exactly one node, so {@link #toConditions()} gives back exactly the list which was parsed. Nodes are
+ * immutable; rewrites create new nodes, reusing the ones they don't change.
+ */
+abstract class QueryNode {
+    private QueryNode() {}
+
+    /**
+     * Check that {@code conditions} are well-formed: every {@code BeginGroup} has a matching {@code EndGroup}, every
+     * {@code Not} is followed by a condition or a group, and every {@code Or} is between two conditions or groups. Runs
+     * in O(n) time, without allocating anything.
+     * @param conditions Conditions to check.
+     * @return Index of the first condition which makes {@code conditions} malformed ({@code conditions.size()} if they
+     * end too soon), or -1 if they're well-formed.
+     */
+    static int findMalformed(List<Condition> conditions) {
+        int depth = 0;
+        Condition.Type prev = null;
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition.Type type = conditions.get(i).getType();
+            if (type == null) return i;
+            switch (type) {
+                case BEGIN_GROUP:
+                    depth++;
+                    break;
+                case END_GROUP:
+                    if (depth == 0 || prev == Condition.Type.NOT || prev == Condition.Type.OR) return i;
+                    depth--;
+                    break;
+                case OR:
+                    if (prev != Condition.Type.NORMAL && prev != Condition.Type.NO_ARGS &&
+                            prev != Condition.Type.END_GROUP) return i;
+                    break;
+            }
+            prev = type;
+        }
+        return depth != 0 || prev == Condition.Type.NOT || prev == Condition.Type.OR ? conditions.size() : -1;
+    }
+
+    /**
+     * Build the tree form of {@code conditions}.
+     * @param conditions Conditions to parse.
+     * @return Top level of the query.
+     * @throws IllegalArgumentException if {@code conditions} aren't well-formed; see {@link #findMalformed(List)}.
+     */
+    static Disjunction parse(List<Condition> conditions) {
+        int malformedIdx = findMalformed(conditions);
+        if (malformedIdx != -1) throw new IllegalArgumentException(String.format(
+                "Conditions are malformed at index %d; check for unbalanced groups or misplaced operators.",
+                malformedIdx));
+        Parser parser = new Parser(conditions);
+        return parser.parseLevel();
+    }
+
+    /**
+     * Add the conditions which this node holds to {@code out}, in order.
+     * @param out List to add to.
+     */
+    abstract void addTo(List<Condition> out);
+
+    /**
+     * Get the flat list of conditions which this node holds.
+     * @return New list of conditions.
+     */
+    final ArrayList<Condition> toConditions() {
+        ArrayList<Condition> conditions = new ArrayList<>();
+        addTo(conditions);
+        return conditions;
+    }
+
+    /**
+     * Builds trees from well-formed lists of conditions.
+     */
+    private static final class Parser {
+        private final List<Condition> conditions;
+        private int pos = 0;
+
+        Parser(List<Condition> conditions) {
+            this.conditions = conditions;
+        }
+
+        /**
+         * Parse conditions up to the end of the list or the {@code EndGroup} which closes the current level.
+         */
+        Disjunction parseLevel() {
+            ArrayList<Conjunction> branches = new ArrayList<>();
+            ArrayList<Condition> ors = new ArrayList<>();
+            ArrayList<QueryNode> operands = new ArrayList<>();
+            while (pos < conditions.size()) {
+                Condition condition = conditions.get(pos);
+                if (condition.getType() == Condition.Type.END_GROUP) break;
+                if (condition.getType() == Condition.Type.OR) {
+                    branches.add(new Conjunction(operands));
+                    ors.add(condition);
+                    operands = new ArrayList<>();
+                    pos++;
+                } else operands.add(parseOperand());
+            }
+            branches.add(new Conjunction(operands));
+            return new Disjunction(branches, ors);
+        }
+
+        /**
+         * Parse a condition or group, along with any {@code Not}s before it.
+         */
+        QueryNode parseOperand() {
+            int notsStart = pos;
+            while (conditions.get(pos).getType() == Condition.Type.NOT) pos++;
+            int notsEnd = pos;
+
+            Condition condition = conditions.get(pos++);
+            QueryNode operand;
+            if (condition.getType() == Condition.Type.BEGIN_GROUP) {
+                Disjunction body = parseLevel();
+                operand = new Group(condition, body, conditions.get(pos++));
+            } else operand = new Leaf(condition);
+
+            // Wrap the operand in its Nots, innermost first.
+            for (int i = notsEnd - 1; i >= notsStart; i--)
+                operand = new Negation(conditions.get(i), operand);
+            return operand;
+        }
+    }
+
+    /**
+     * A {@link Condition.Type#NORMAL NORMAL} or {@link Condition.Type#NO_ARGS NO_ARGS} condition.
+     */
+    static final class Leaf extends QueryNode {
+        final Condition condition;
+
+        Leaf(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        void addTo(List<Condition> out) {
+            out.add(condition);
+        }
+    }
+
+    /**
+     * A {@code Not}, and the operand which it negates.
+     */
+    static final class Negation extends QueryNode {
+        final Condition not;
+        final QueryNode operand;
+
+        Negation(Condition not, QueryNode operand) {
+            this.not = not;
+            this.operand = operand;
+        }
+
+        @Override
+        void addTo(List<Condition> out) {
+            out.add(not);
+            operand.addTo(out);
+        }
+    }
+
+    /**
+     * A {@code BeginGroup}, the level inside of it, and the {@code EndGroup} which closes it.
+     */
+    static final class Group extends QueryNode {
+        final Condition begin;
+        final Disjunction body;
+        final Condition end;
+
+        Group(Condition begin, Disjunction body, Condition end) {
+            this.begin = begin;
+            this.body = body;
+            this.end = end;
+        }
+
+        @Override
+        void addTo(List<Condition> out) {
+            out.add(begin);
+            body.addTo(out);
+            out.add(end);
+        }
+    }
+
+    /**
+     * Operands which are AND-ed together.
+     */
+    static final class Conjunction extends QueryNode {
+        final List<QueryNode> operands;
+
+        Conjunction(List<QueryNode> operands) {
+            this.operands = Collections.unmodifiableList(operands);
+        }
+
+        @Override
+        void addTo(List<Condition> out) {
+            for (QueryNode operand : operands) operand.addTo(out);
+        }
+    }
+
+    /**
+     * A level of the query; {@link Conjunction}s separated by {@code Or}s. A level with no conditions in it has a
+     * single, empty, branch.
+     */
+    static final class Disjunction extends QueryNode {
+        final List<Conjunction> branches;
+        /**
+         * {@code Or} conditions; {@code ors.get(i)} comes between {@code branches.get(i)} and {@code branches.get(i +
+         * 1)}.
+         */
+        final List<Condition> ors;
+
+        Disjunction(List<Conjunction> branches, List<Condition> ors) {
+            if (branches.size() != ors.size() + 1)
+                throw new IllegalArgumentException("There must be exactly one more branch than there are Ors.");
+            this.branches = Collections.unmodifiableList(branches);
+            this.ors = Collections.unmodifiableList(ors);
+        }
+
+        /**
+         * @return Whether there are no conditions in this level.
+         */
+        boolean isEmpty() {
+            return branches.size() == 1 && branches.get(0).operands.isEmpty();
+        }
+
+        @Override
+        void addTo(List<Condition> out) {
+            for (int i = 0; i < branches.size(); i++) {
+                if (i > 0) out.add(ors.get(i - 1));
+                branches.get(i).addTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.bkromhout.ruqus;
+
+import com.bkromhout.ruqus.QueryNode.Conjunction;
+import com.bkromhout.ruqus.QueryNode.Disjunction;
+import com.bkromhout.ruqus.QueryNode.Group;
+import com.bkromhout.ruqus.QueryNode.Leaf;
+import com.bkromhout.ruqus.QueryNode.Negation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rewrites lists of valid conditions into equivalent lists which are cheaper to apply. Used when queries are executed
+ * or compiled; the {@link RealmUserQuery} which the conditions came from is never changed.
+ */
+final class QueryRewriter {
+    static final String T_PKG = "com.bkromhout.ruqus.transformers.";
+    static final String EQUAL_TO_TNAME = T_PKG + "EqualTo";
+    static final String GREATER_THAN_TNAME = T_PKG + "GreaterThan";
+    static final String GREATER_THAN_OR_EQUAL_TO_TNAME = T_PKG + "GreaterThanOrEqualTo";
+    static final String LESS_THAN_TNAME = T_PKG + "LessThan";
+    static final String LESS_THAN_OR_EQUAL_TO_TNAME = T_PKG + "LessThanOrEqualTo";
+    static final String BETWEEN_TNAME = T_PKG + "Between";
+    private static final String IN_TNAME = T_PKG + "In";
+    private static final String NOT_EQUAL_TO_TNAME = T_PKG + "NotEqualTo";
+    private static final String BEGINS_WITH_TNAME = T_PKG + "BeginsWith";
+    private static final String ENDS_WITH_TNAME = T_PKG + "EndsWith";
+    private static final String STRING_CONTAINS_TNAME = T_PKG + "StringContains";
+
+    // Estimated costs of applying conditions, relative to each other; see costOf(Condition).
+    private static final int COST_PRIMARY_KEY_EQUALITY = 0;
+    private static final int COST_INDEXED_EQUALITY = 1;
+    private static final int COST_EQUALITY = 2;
+    private static final int COST_INEQUALITY = 3;
+    private static final int COST_RANGE = 4;
+    private static final int COST_OTHER = 5;
+    private static final int COST_BEGINS_WITH = 6;
+    private static final int COST_ENDS_WITH = 7;
+    private static final int COST_STRING_CONTAINS = 8;
+    private static final int COST_PER_LINK = 10;
+
+    private QueryRewriter() {}
+
+    /**
+     * Apply all of the rewrites: {@link QuerySimplifier#simplify(List)}, then {@link #collapseEqualToChains(List)},
+     * then {@link #reorderByCost(List)}. The conditions are only parsed once.
+     * @param conditions Valid, well-formed conditions.
+     * @return Rewritten conditions, or {@code conditions} itself if nothing could be rewritten.
+     */
+    static List<Condition> rewrite(List<Condition> conditions) {
+        Disjunction root = QueryNode.parse(conditions);
+        return toConditions(reorderByCost(collapseEqualToChains(QuerySimplifier.simplify(root))), conditions);
+    }
+
+    /**
+     * Replace chains of {@code EqualTo} (and {@code In}) conditions on the same field which are joined by {@code Or}
+     * with a single {@code In} condition.
+     * <p>
+     * Only chains whose conditions aren't AND-ed with anything else are replaced; that is, each condition in the chain
+     * must be a whole branch of its level (with {@code Or}s, a {@code BeginGroup} or {@code EndGroup}, or the start or
+     * end of the query on either side of it). That way the result is the same no matter how {@code Or} and the implicit
+     * AND between conditions are grouped.
+     * @param conditions Valid, well-formed conditions.
+     * @return Rewritten conditions, or {@code conditions} itself if nothing could be rewritten.
+     */
+    static List<Condition> collapseEqualToChains(List<Condition> conditions) {
+        if (conditions.size() < 3) return conditions;
+        return toConditions(collapseEqualToChains(QueryNode.parse(conditions)), conditions);
+    }
+
+    /**
+     * Like {@link #collapseEqualToChains(List)}, but for a level of a query which has already been parsed.
+     */
+    private static Disjunction collapseEqualToChains(Disjunction level) {
+        int inId = Ruqus.getTransformerData().idOf(IN_TNAME);
+        if (inId == -1) return level;
+
+        int numBranches = level.branches.size();
+        ArrayList<Conjunction> branches = new ArrayList<>(numBranches);
+        ArrayList<Condition> ors = new ArrayList<>(numBranches - 1);
+        int i = 0;
+        while (i < numBranches) {
+            Conjunction branch = collapseInGroups(level.branches.get(i));
+            // Extend the chain as far as we can.
+            Condition first = chainableCondition(branch, inId);
+            int end = i + 1;
+            if (first != null) {
+                while (end < numBranches) {
+                    Condition next = chainableCondition(level.branches.get(end), inId);
+                    if (next == null || !sameField(first, next)) break;
+                    end++;
+                }
+            }
+
+            if (i > 0) ors.add(level.ors.get(i - 1));
+            if (end == i + 1) branches.add(branch);
+            else {
+                ArrayList<ConditionArgs> argsList = new ArrayList<>(end - i);
+                for (int j = i; j < end; j++)
+                    argsList.add(chainableCondition(level.branches.get(j), inId).getTypedArgs());
+                Condition in = newCondition(IN_TNAME, first, ConditionArgs.concat(argsList));
+                branches.add(new Conjunction(Collections.<QueryNode>singletonList(new Leaf(in))));
+            }
+            i = end;
+        }
+        return new Disjunction(branches, ors);
+    }
+
+    /**
+     * Collapse chains in any groups in {@code branch}.
+     */
+    private static Conjunction collapseInGroups(Conjunction branch) {
+        ArrayList<QueryNode> operands = new ArrayList<>(branch.operands.size());
+        for (QueryNode operand : branch.operands) operands.add(collapseInGroups(operand));
+        return new Conjunction(operands);
+    }
+
+    private static QueryNode collapseInGroups(QueryNode operand) {
+        if (operand instanceof Negation) {
+            Negation negation = (Negation) operand;
+            return new Negation(negation.not, collapseInGroups(negation.operand));
+        } else if (operand instanceof Group) {
+            Group group = (Group) operand;
+            return new Group(group.begin, collapseEqualToChains(group.body), group.end);
+        }
+        return operand;
+    }
+
+    /**
+     * Get the condition in {@code branch} if it's the only thing in it, and it may be part of a chain which is replaced
+     * with an {@code In} condition.
+     * @return Condition, or null.
+     */
+    private static Condition chainableCondition(Conjunction branch, int inId) {
+        if (branch.operands.size() != 1 || !(branch.operands.get(0) instanceof Leaf)) return null;
+        Condition condition = ((Leaf) branch.operands.get(0)).condition;
+        if (condition.getType() != Condition.Type.NORMAL) return null;
+        String transformer = condition.getTransformer();
+        if (!EQUAL_TO_TNAME.equals(transformer) && !IN_TNAME.equals(transformer)) return null;
+        if (!Ruqus.getTransformerData().acceptsType(inId, condition.getFieldType())) return null;
+        return condition;
+    }
+
+    private static boolean sameField(Condition a, Condition b) {
+        return a.getRealmClass().equals(b.getRealmClass()) && a.getField().equals(b.getField()) &&
+                a.getFieldType() == b.getFieldType();
+    }
+
+    /**
+     * Create a frozen condition.
+     * @param transformer Name of the transformer to use.
+     * @param template    Condition whose realm class and field to use.
+     * @param args        Args to use.
+     * @return New frozen condition.
+     */
+    static Condition newCondition(String transformer, Condition template, ConditionArgs args) {
+        Condition condition = new Condition();
+        condition.setTransformer(transformer);
+        condition.setRealmClass(template.getRealmClass());
+        condition.setField(template.getField());
+        condition.setArgs(args);
+        return condition.frozenCopy();
+    }
+
+    /**
+     * Reorder conditions which are AND-ed together so that the cheapest ones are applied first, according to {@link
+     * #costOf(Condition)}. Each {@code Not} stays with the condition or group which follows it, and groups are moved as
+     * a whole (their contents are reordered separately).
+     * <p>
+     * Conditions are only reordered within the top level of the query or of a group if that level has no {@code Or}s
+     * in it, since moving a condition across or next to an {@code Or} could change which conditions it applies to.
+     * Conditions with equal costs keep their relative order.
+     * @param conditions Valid, well-formed conditions.
+     * @return Reordered conditions, or {@code conditions} itself if nothing was moved.
+     */
+    static List<Condition> reorderByCost(List<Condition> conditions) {
+        return toConditions(reorderByCost(QueryNode.parse(conditions)), conditions);
+    }
+
+    /**
+     * Like {@link #reorderByCost(List)}, but for a level of a query which has already been parsed.
+     */
+    private static Disjunction reorderByCost(Disjunction level) {
+        ArrayList<Conjunction> branches = new ArrayList<>(level.branches.size());
+        for (Conjunction branch : level.branches) {
+            ArrayList<QueryNode> operands = new ArrayList<>(branch.operands.size());
+            for (QueryNode operand : branch.operands) operands.add(reorderInGroups(operand));
+            if (level.branches.size() == 1) {
+                // Sort the operands' indices by cost, so that each operand's cost is only computed once.
+                final int[] costs = new int[operands.size()];
+                Integer[] order = new Integer[operands.size()];
+                for (int i = 0; i < costs.length; i++) {
+                    costs[i] = costOf(operands.get(i));
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer lhs, Integer rhs) {
+                        return costs[lhs] < costs[rhs] ? -1 : costs[lhs] == costs[rhs] ? 0 : 1;
+                    }
+                });
+                ArrayList<QueryNode> sorted = new ArrayList<>(operands.size());
+                for (Integer idx : order) sorted.add(operands.get(idx));
+                branches.add(new Conjunction(sorted));
+            } else branches.add(new Conjunction(operands));
+        }
+        return new Disjunction(branches, level.ors);
+    }
+
+    private static QueryNode reorderInGroups(QueryNode operand) {
+        if (operand instanceof Negation) {
+            Negation negation = (Negation) operand;
+            return new Negation(negation.not, reorderInGroups(negation.operand));
+        } else if (operand instanceof Group) {
+            Group group = (Group) operand;
+            return new Group(group.begin, reorderByCost(group.body), group.end);
+        }
+        return operand;
+    }
+
+    /**
+     * Estimate how expensive it is for Realm to apply {@code node}; the sum of the costs of its conditions, except that
+     * negated conditions and groups cost at least as much as an inequality check, since they generally can't make use
+     * of an index.
+     */
+    private static int costOf(QueryNode node) {
+        if (node instanceof Leaf) return costOf(((Leaf) node).condition);
+        if (node instanceof Negation) return Math.max(costOf(((Negation) node).operand), COST_INEQUALITY);
+        if (node instanceof Group) return costOf(((Group) node).body);
+        int cost = 0;
+        if (node instanceof Conjunction)
+            for (QueryNode operand : ((Conjunction) node).operands) cost += costOf(operand);
+        else for (Conjunction branch : ((Disjunction) node).branches) cost += costOf(branch);
+        return cost;
+    }
+
+    /**
+     * Flatten {@code root}, returning {@code original} instead if the result would be the same.
+     */
+    private static List<Condition> toConditions(Disjunction root, List<Condition> original) {
+        ArrayList<Condition> conditions = root.toConditions();
+        return conditions.equals(original) ? original : conditions;
+    }
+
+    /**
+     * Estimate how expensive it is for Realm to apply {@code condition}. Equality checks on primary key and indexed
+     * fields are cheapest, then other equality checks, then numeric ranges, and then substring checks; each link which
+     * has to be followed to get to the condition's field adds a lot to the cost.
+     * @param condition Condition.
+     * @return Estimated cost; only meaningful relative to other costs.
+     */
+    static int costOf(Condition condition) {
+        if (condition.getType() != Condition.Type.NORMAL) return COST_OTHER;
+        String transformer = condition.getTransformer();
+        String field = condition.getField();
+        int links = 0;
+        for (int i = field.indexOf('.'); i != -1; i = field.indexOf('.', i + 1)) links++;
+
+        int cost;
+        if (EQUAL_TO_TNAME.equals(transformer) || IN_TNAME.equals(transformer)) {
+            FieldData fieldData = links == 0 ? Ruqus.getFieldData(condition.getRealmClass()) : null;
+            if (fieldData != null && fieldData.isPrimaryKeyField(field)) cost = COST_PRIMARY_KEY_EQUALITY;
+            else if (fieldData != null && fieldData.isIndexedField(field)) cost = COST_INDEXED_EQUALITY;
+            else cost = COST_EQUALITY;
+        } else if (NOT_EQUAL_TO_TNAME.equals(transformer)) cost = COST_INEQUALITY;
+        else if (BEGINS_WITH_TNAME.equals(transformer)) cost = COST_BEGINS_WITH;
+        else if (ENDS_WITH_TNAME.equals(transformer)) cost = COST_ENDS_WITH;
+        else if (STRING_CONTAINS_TNAME.equals(transformer)) cost = COST_STRING_CONTAINS;
+        else if (GREATER_THAN_TNAME.equals(transformer) || GREATER_THAN_OR_EQUAL_TO_TNAME.equals(transformer) ||
+                LESS_THAN_TNAME.equals(transformer) || LESS_THAN_OR_EQUAL_TO_TNAME.equals(transformer) ||
+                BETWEEN_TNAME.equals(transformer)) cost = COST_RANGE;
+        else cost = COST_OTHER;
+        return cost + links * COST_PER_LINK;
+    }
+
+    /**
+     * Describe the order in which {@code conditions} will be applied, one condition per line, along with their
+     * estimated costs. Conditions in groups are indented.
+     * @param conditions Rewritten conditions.
+     * @return Description.
+     */
+    static String explain(List<Condition> conditions) {
+        StringBuilder builder = new StringBuilder();
+        int depth = 0;
+        for (Condition condition : conditions) {
+            if (condition.getType() == Condition.Type.END_GROUP) depth--;
+            for (int i = 0; i < depth; i++) builder.append("    ");
+            builder.append(condition.toString());
+            if (condition.getType() == Condition.Type.NORMAL)
+                builder.append(" (cost ").append(costOf(condition)).append(')');
+            builder.append('\n');
+            if (condition.getType() == Condition.Type.BEGIN_GROUP) depth++;
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,414 @@
+package com.bkromhout.ruqus;
+
+import com.bkromhout.ruqus.QueryNode.Conjunction;
+import com.bkromhout.ruqus.QueryNode.Disjunction;
+import com.bkromhout.ruqus.QueryNode.Group;
+import com.bkromhout.ruqus.QueryNode.Leaf;
+import com.bkromhout.ruqus.QueryNode.Negation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static com.bkromhout.ruqus.QueryRewriter.BETWEEN_TNAME;
+import static com.bkromhout.ruqus.QueryRewriter.GREATER_THAN_OR_EQUAL_TO_TNAME;
+import static com.bkromhout.ruqus.QueryRewriter.GREATER_THAN_TNAME;
+import static com.bkromhout.ruqus.QueryRewriter.LESS_THAN_OR_EQUAL_TO_TNAME;
+import static com.bkromhout.ruqus.QueryRewriter.LESS_THAN_TNAME;
+
+/**
+ * Removes redundant structure from valid queries, and detects queries which can't match any objects. Used by {@link
+ * QueryRewriter#rewrite(List)} before any of its other rewrites.
+ * <p>
+ * Like {@link QueryRewriter}, this never changes the operands of a level of the query (the top level, or the inside of
+ * a group) which has an {@code Or} in it, other than to simplify the groups in that level.
+ */
+final class QuerySimplifier {
+    private QuerySimplifier() {}
+
+    /**
+     * Simplify {@code conditions}:
+     * <ul>
+     * <li>Runs of {@code Not}s are folded, so an even number of them is dropped and an odd number becomes one.</li>
+     * <li>Empty groups are dropped, unless they're negated or next to an {@code Or}.</li>
+     * <li>Conditions and groups which are identical to earlier ones which they're AND-ed with are dropped.</li>
+     * <li>Comparisons on the same numeric or date field which are AND-ed together are merged into as few conditions as
+     * possible; for example, {@code GreaterThan 5} and {@code GreaterThan 10} become {@code GreaterThan 10}, and
+     * {@code GreaterThanOrEqualTo 1} and {@code LessThan 10} on an integer field become {@code Between 1 9}. Fields
+     * whose paths go through {@code RealmList}s are skipped, since each condition on them may match a different
+     * linked object.</li>
+     * </ul>
+     * Comparisons which contradict each other are left alone; use {@link #matchesNothing(List)} to detect them.
+     * @param conditions Valid, well-formed conditions.
+     * @return Simplified conditions, or {@code conditions} itself if nothing could be simplified.
+     */
+    static List<Condition> simplify(List<Condition> conditions) {
+        ArrayList<Condition> simplified = simplify(QueryNode.parse(conditions)).toConditions();
+        return simplified.equals(conditions) ? conditions : simplified;
+    }
+
+    /**
+     * Check whether {@code conditions} provably can't match any objects; that is, whether the top level of the query
+     * has comparisons on some field which contradict each other (such as {@code GreaterThan 10} and {@code LessThan
+     * 5}), or has a group whose contents can't match any objects. Only levels without {@code Or}s are checked, and a
+     * return value of false doesn't guarantee that the conditions will match anything.
+     * @param conditions Valid, well-formed conditions.
+     * @return True if the conditions can't match any objects.
+     */
+    static boolean matchesNothing(List<Condition> conditions) {
+        return matchesNothing(QueryNode.parse(conditions));
+    }
+
+    /**
+     * Like {@link #simplify(List)}, but for a level of a query which has already been parsed.
+     * @param level Level to simplify.
+     * @return Simplified level.
+     */
+    static Disjunction simplify(Disjunction level) {
+        int numBranches = level.branches.size();
+        ArrayList<Conjunction> branches = new ArrayList<>(numBranches);
+        for (int b = 0; b < numBranches; b++) {
+            List<QueryNode> operands = level.branches.get(b).operands;
+            ArrayList<QueryNode> simplified = new ArrayList<>(operands.size());
+            for (int i = 0; i < operands.size(); i++) {
+                QueryNode operand = simplifyOperand(operands.get(i));
+                // An empty group matches everything, so it can be dropped unless it's next to an Or (which would be
+                // left dangling).
+                if (operand instanceof Group && ((Group) operand).body.isEmpty() && (i > 0 || b == 0) &&
+                        (i < operands.size() - 1 || b == numBranches - 1)) continue;
+                simplified.add(operand);
+            }
+            if (numBranches == 1) {
+                simplified = dropDuplicates(simplified);
+                mergeComparisons(simplified);
+            }
+            branches.add(new Conjunction(simplified));
+        }
+        return new Disjunction(branches, level.ors);
+    }
+
+    /**
+     * Like {@link #matchesNothing(List)}, but for a level of a query which has already been parsed.
+     * @param level Level to check.
+     * @return True if the level can't match any objects.
+     */
+    static boolean matchesNothing(Disjunction level) {
+        if (level.branches.size() != 1) return false;
+        List<QueryNode> operands = level.branches.get(0).operands;
+        for (QueryNode operand : operands)
+            if (operand instanceof Group && matchesNothing(((Group) operand).body)) return true;
+        for (Range range : rangesOf(operands).values()) if (range.isEmpty()) return true;
+        return false;
+    }
+
+    /**
+     * Fold the {@code Not}s in front of {@code operand}, keeping the innermost one if there's an odd number of them,
+     * and simplify it if it's a group.
+     */
+    private static QueryNode simplifyOperand(QueryNode operand) {
+        int nots = 0;
+        Condition innermostNot = null;
+        while (operand instanceof Negation) {
+            innermostNot = ((Negation) operand).not;
+            operand = ((Negation) operand).operand;
+            nots++;
+        }
+        if (operand instanceof Group) {
+            Group group = (Group) operand;
+            operand = new Group(group.begin, simplify(group.body), group.end);
+        }
+        return nots % 2 == 1 ? new Negation(innermostNot, operand) : operand;
+    }
+
+    /**
+     * Drop operands which are identical to earlier ones. Only called for levels without {@code Or}s.
+     */
+    private static ArrayList<QueryNode> dropDuplicates(ArrayList<QueryNode> operands) {
+        ArrayList<QueryNode> kept = new ArrayList<>(operands.size());
+        outer:
+        for (QueryNode operand : operands) {
+            for (QueryNode other : kept) if (sameAs(operand, other)) continue outer;
+            kept.add(operand);
+        }
+        return kept;
+    }
+
+    /**
+     * Merge comparisons on the same field in place. Only called for levels without {@code Or}s.
+     */
+    private static void mergeComparisons(ArrayList<QueryNode> operands) {
+        for (Range range : rangesOf(operands).values()) {
+            // Leave contradictions as they are so that they're still visible to matchesNothing().
+            if (range.leaves.size() < 2 || range.isEmpty()) continue;
+            List<Condition> merged = range.toConditions();
+            if (merged == null || merged.size() >= range.leaves.size()) continue;
+
+            // Put the merged conditions where the first of the field's conditions was, and drop the rest.
+            int idx = operands.indexOf(range.leaves.get(0));
+            operands.removeAll(range.leaves);
+            for (int i = merged.size() - 1; i >= 0; i--) operands.add(idx, new Leaf(merged.get(i)));
+        }
+    }
+
+    /**
+     * Collect the comparisons in {@code operands} which can be merged, grouped by field.
+     */
+    private static LinkedHashMap<String, Range> rangesOf(List<QueryNode> operands) {
+        LinkedHashMap<String, Range> ranges = new LinkedHashMap<>();
+        for (QueryNode operand : operands) {
+            if (!(operand instanceof Leaf) || !Range.accepts(((Leaf) operand).condition)) continue;
+            Leaf leaf = (Leaf) operand;
+            Range range = ranges.get(leaf.condition.getField());
+            if (range == null) {
+                range = new Range(leaf.condition);
+                ranges.put(leaf.condition.getField(), range);
+            }
+            range.add(leaf);
+        }
+        return ranges;
+    }
+
+    /**
+     * Check whether two nodes hold identical conditions, ignoring whether they're frozen.
+     */
+    private static boolean sameAs(QueryNode a, QueryNode b) {
+        if (a instanceof Leaf)
+            return b instanceof Leaf && sameCondition(((Leaf) a).condition, ((Leaf) b).condition);
+        if (a instanceof Negation)
+            return b instanceof Negation && sameAs(((Negation) a).operand, ((Negation) b).operand);
+        if (a instanceof Group) return b instanceof Group && sameAs(((Group) a).body, ((Group) b).body);
+        if (a instanceof Conjunction) {
+            if (!(b instanceof Conjunction)) return false;
+            List<QueryNode> aOperands = ((Conjunction) a).operands, bOperands = ((Conjunction) b).operands;
+            if (aOperands.size() != bOperands.size()) return false;
+            for (int i = 0; i < aOperands.size(); i++) if (!sameAs(aOperands.get(i), bOperands.get(i))) return false;
+            return true;
+        }
+        if (!(b instanceof Disjunction)) return false;
+        List<Conjunction> aBranches = ((Disjunction) a).branches, bBranches = ((Disjunction) b).branches;
+        if (aBranches.size() != bBranches.size()) return false;
+        for (int i = 0; i < aBranches.size(); i++) if (!sameAs(aBranches.get(i), bBranches.get(i))) return false;
+        return true;
+    }
+
+    private static boolean sameCondition(Condition a, Condition b) {
+        if (a == b) return true;
+        if (a.getType() != b.getType() || !eq(a.getTransformer(), b.getTransformer()) ||
+                !eq(a.getRealmClass(), b.getRealmClass())) return false;
+        if (a.getType() != Condition.Type.NORMAL) return true;
+        return eq(a.getField(), b.getField()) && a.getFieldType() == b.getFieldType() &&
+                eq(a.getTypedArgs(), b.getTypedArgs());
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * The range of values which the comparisons on one field allow.
+     */
+    private static final class Range {
+        final Condition template;
+        final FieldType type;
+        final ArrayList<Leaf> leaves = new ArrayList<>();
+        /**
+         * Whether values are stored as doubles rather than longs; see {@link ConditionArgs}.
+         */
+        private final boolean floating;
+        private boolean hasLower, lowerInclusive, hasUpper, upperInclusive;
+        private long lowerLong, upperLong;
+        private double lowerDouble, upperDouble;
+        /**
+         * Set if an exclusive bound is past the largest or smallest value of an integral type.
+         */
+        private boolean outOfRange;
+
+        Range(Condition template) {
+            this.template = template;
+            this.type = template.getFieldType();
+            this.floating = type == FieldType.DOUBLE || type == FieldType.FLOAT;
+        }
+
+        /**
+         * Check whether {@code condition} is a comparison which can be merged with others.
+         */
+        static boolean accepts(Condition condition) {
+            if (condition.getType() != Condition.Type.NORMAL) return false;
+            String transformer = condition.getTransformer();
+            if (!GREATER_THAN_TNAME.equals(transformer) && !GREATER_THAN_OR_EQUAL_TO_TNAME.equals(transformer) &&
+                    !LESS_THAN_TNAME.equals(transformer) && !LESS_THAN_OR_EQUAL_TO_TNAME.equals(transformer) &&
+                    !BETWEEN_TNAME.equals(transformer) && !QueryRewriter.EQUAL_TO_TNAME.equals(transformer))
+                return false;
+            switch (condition.getFieldType()) {
+                case DOUBLE:
+                case FLOAT:
+                    // Comparisons with NaN never match, which bounds can't represent.
+                    ConditionArgs args = condition.getTypedArgs();
+                    for (int i = 0; i < args.size(); i++) if (Double.isNaN(args.getDouble(i))) return false;
+                    break;
+                case DATE:
+                case INTEGER:
+                case LONG:
+                case SHORT:
+                    break;
+                default:
+                    return false;
+            }
+            return !Ruqus.isToManyField(condition.getRealmClass(), condition.getField());
+        }
+
+        void add(Leaf leaf) {
+            leaves.add(leaf);
+            String transformer = leaf.condition.getTransformer();
+            ConditionArgs args = leaf.condition.getTypedArgs();
+            if (GREATER_THAN_TNAME.equals(transformer)) addLower(args, 0, false);
+            else if (GREATER_THAN_OR_EQUAL_TO_TNAME.equals(transformer)) addLower(args, 0, true);
+            else if (LESS_THAN_TNAME.equals(transformer)) addUpper(args, 0, false);
+            else if (LESS_THAN_OR_EQUAL_TO_TNAME.equals(transformer)) addUpper(args, 0, true);
+            else if (BETWEEN_TNAME.equals(transformer)) {
+                addLower(args, 0, true);
+                addUpper(args, 1, true);
+            } else {
+                addLower(args, 0, true);
+                addUpper(args, 0, true);
+            }
+        }
+
+        private void addLower(ConditionArgs args, int idx, boolean inclusive) {
+            if (floating) {
+                double value = args.getDouble(idx);
+                int cmp = hasLower ? Double.compare(value, lowerDouble) : 1;
+                if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                    lowerDouble = value;
+                    lowerInclusive = inclusive;
+                }
+            } else {
+                long value = args.getLong(idx);
+                if (!inclusive && isIntegral()) {
+                    // x > v is the same as x >= v + 1 for integral types.
+                    if (value == maxValue()) {
+                        outOfRange = true;
+                        return;
+                    }
+                    value++;
+                    inclusive = true;
+                }
+                int cmp = hasLower ? compareLongs(value, lowerLong) : 1;
+                if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                    lowerLong = value;
+                    lowerInclusive = inclusive;
+                }
+            }
+            hasLower = true;
+        }
+
+        private void addUpper(ConditionArgs args, int idx, boolean inclusive) {
+            if (floating) {
+                double value = args.getDouble(idx);
+                int cmp = hasUpper ? Double.compare(value, upperDouble) : -1;
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    upperDouble = value;
+                    upperInclusive = inclusive;
+                }
+            } else {
+                long value = args.getLong(idx);
+                if (!inclusive && isIntegral()) {
+                    // x < v is the same as x <= v - 1 for integral types.
+                    if (value == minValue()) {
+                        outOfRange = true;
+                        return;
+                    }
+                    value--;
+                    inclusive = true;
+                }
+                int cmp = hasUpper ? compareLongs(value, upperLong) : -1;
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    upperLong = value;
+                    upperInclusive = inclusive;
+                }
+            }
+            hasUpper = true;
+        }
+
+        /**
+         * Whether values are whole numbers, so that exclusive bounds can be made inclusive. Dates are excluded, since
+         * Realm may store them with more precision than {@link java.util.Date} has.
+         */
+        private boolean isIntegral() {
+            return type == FieldType.INTEGER || type == FieldType.LONG || type == FieldType.SHORT;
+        }
+
+        private long maxValue() {
+            return type == FieldType.SHORT ? Short.MAX_VALUE : type == FieldType.INTEGER ? Integer.MAX_VALUE
+                    : Long.MAX_VALUE;
+        }
+
+        private long minValue() {
+            return type == FieldType.SHORT ? Short.MIN_VALUE : type == FieldType.INTEGER ? Integer.MIN_VALUE
+                    : Long.MIN_VALUE;
+        }
+
+        private int compareBounds() {
+            return floating ? Double.compare(lowerDouble, upperDouble) : compareLongs(lowerLong, upperLong);
+        }
+
+        /**
+         * Check whether no values are in the range.
+         */
+        boolean isEmpty() {
+            if (outOfRange) return true;
+            if (!hasLower || !hasUpper) return false;
+            int cmp = compareBounds();
+            return cmp > 0 || (cmp == 0 && (!lowerInclusive || !upperInclusive));
+        }
+
+        /**
+         * Create the conditions which match the values in the range; an {@code EqualTo} if there's only one value, a
+         * {@code Between} if both bounds are inclusive, and otherwise one condition per bound. The range must not be
+         * empty.
+         * @return Conditions, or null if the transformers they need don't support the field's type.
+         */
+        List<Condition> toConditions() {
+            ArrayList<Condition> conditions = new ArrayList<>(2);
+            if (hasLower && hasUpper && lowerInclusive && upperInclusive) {
+                if (compareBounds() == 0) {
+                    if (!add(conditions, QueryRewriter.EQUAL_TO_TNAME, true)) return null;
+                } else if (!add(conditions, BETWEEN_TNAME, true, false)) return null;
+                return conditions;
+            }
+            if (hasLower && !add(conditions, lowerInclusive ? GREATER_THAN_OR_EQUAL_TO_TNAME : GREATER_THAN_TNAME,
+                    true)) return null;
+            if (hasUpper && !add(conditions, upperInclusive ? LESS_THAN_OR_EQUAL_TO_TNAME : LESS_THAN_TNAME, false))
+                return null;
+            return conditions;
+        }
+
+        /**
+         * Add a condition which uses {@code transformer} and the given bounds to {@code conditions}.
+         * @param lower For each arg, true to use the lower bound, false to use the upper bound.
+         * @return False if {@code transformer} doesn't support the field's type.
+         */
+        private boolean add(List<Condition> conditions, String transformer, boolean... lower) {
+            TransformerData transformerData = Ruqus.getTransformerData();
+            int id = transformerData.idOf(transformer);
+            if (id == -1 || !transformerData.acceptsType(id, type)) return false;
+
+            ConditionArgs args;
+            if (floating) {
+                double[] values = new double[lower.length];
+                for (int i = 0; i < lower.length; i++) values[i] = lower[i] ? lowerDouble : upperDouble;
+                args = new ConditionArgs(type, null, values, null);
+            } else {
+                long[] values = new long[lower.length];
+                for (int i = 0; i < lower.length; i++) values[i] = lower[i] ? lowerLong : upperLong;
+                args = new ConditionArgs(type, values, null, null);
+            }
+            conditions.add(QueryRewriter.newCondition(transformer, template, args));
+            return true;
+        }
+
+        private static int compareLongs(long a, long b) {
+            return a < b ? -1 : a == b ? 0 : 1;
+        }
+    }
+}
@@ -62,6 +62,7 @@ class RQVCard extends FrameLayout {
      * @param attrs   Attributes.
      */
     private void init(Context context, AttributeSet attrs, RuqusTheme theme) {
+        Ruqus.ensureInit();
         // Inflate and bind views.
         inflate(context, R.layout.rqv_card, this);
         outlineView = (FrameLayout) findViewById(R.id.outline);
@@ -142,9 +143,10 @@ class RQVCard extends FrameLayout {
         this.theme = theme;
         // Set card background color.
         cardView.setCardBackgroundColor(
-                theme == RuqusTheme.LIGHT ? Ruqus.LIGHT_CARD_COLOR_ALT : Ruqus.DARK_CARD_COLOR_ALT);
+                theme == RuqusTheme.LIGHT ? Ruqus.Res.LIGHT_CARD_COLOR_ALT : Ruqus.Res.DARK_CARD_COLOR_ALT);
         // Set text view text color.
-        cardTextView.setTextColor(theme == RuqusTheme.LIGHT ? Ruqus.DARK_TEXT_COLOR_ALT : Ruqus.LIGHT_TEXT_COLOR_ALT);
+        cardTextView.setTextColor(
+                theme == RuqusTheme.LIGHT ? Ruqus.Res.DARK_TEXT_COLOR_ALT : Ruqus.Res.LIGHT_TEXT_COLOR_ALT);
     }
 
     /**
@@ -68,6 +68,7 @@ public class RQVCard2 extends FrameLayout {
      * @param attrs   Attributes.
      */
     private void init(Context context, AttributeSet attrs, RuqusTheme theme) {
+        Ruqus.ensureInit();
         // Inflate and bind views.
         inflate(context, R.layout.rqv_card2, this);
         outlinesView = (LinearLayout) findViewById(R.id.outlines);
@@ -149,9 +150,11 @@ public class RQVCard2 extends FrameLayout {
     void setTheme(RuqusTheme theme) {
         this.theme = theme;
         // Set card background color.
-        cardView.setCardBackgroundColor(theme == RuqusTheme.LIGHT ? Ruqus.LIGHT_CARD_COLOR : Ruqus.DARK_CARD_COLOR);
+        cardView.setCardBackgroundColor(
+                theme == RuqusTheme.LIGHT ? Ruqus.Res.LIGHT_CARD_COLOR : Ruqus.Res.DARK_CARD_COLOR);
         // Set text view text color.
-        cardTextView.setTextColor(theme == RuqusTheme.LIGHT ? Ruqus.DARK_TEXT_COLOR : Ruqus.LIGHT_TEXT_COLOR);
+        cardTextView.setTextColor(
+                theme == RuqusTheme.LIGHT ? Ruqus.Res.DARK_TEXT_COLOR : Ruqus.Res.LIGHT_TEXT_COLOR);
     }
 
     /**
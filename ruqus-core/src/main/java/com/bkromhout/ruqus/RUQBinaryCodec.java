@@ -0,0 +1,423 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Sort;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+/**
+ * Reads and writes the compact binary form of a {@link RealmUserQuery}, produced by {@link
+ * RealmUserQuery#toRuqBytes()}.
+ * <p>
+ * The binary form holds exactly the same information as the RUQ string form, so converting between the two is
+ * lossless. It is considerably smaller though, since:
+ * <ul>
+ * <li>Every distinct string (class names, field paths, and non-built-in transformer names) is only written once, in a
+ * string table at the start; everything else refers to strings by their index in that table.</li>
+ * <li>Built-in transformers are referred to using a small fixed id rather than by name.</li>
+ * <li>Integers are written as varints (zigzag-encoded if they may be negative), and args are tagged with a 1 byte
+ * code for their {@link FieldType} rather than with its name.</li>
+ * </ul>
+ * The layout is:
+ * <pre>
+ * magic ('R', 'Q'), version (1 byte)
+ * string count (varint), strings (each a varint UTF-8 byte length followed by the bytes)
+ * query class (string index)
+ * condition count (varint), conditions
+ * sort count (varint), sorts (each a varint of (string index &lt;&lt; 1) | (1 if descending))
+ * </pre>
+ * Each condition is its {@link Condition.Type} code (1 byte) followed by its realm class (string index). {@link
+ * Condition.Type#NORMAL NORMAL} conditions then have their field (string index) and args (varint count, then, if there
+ * are any, their {@link FieldType} code as 1 byte followed by each of their values). {@link Condition.Type#NORMAL
+ * NORMAL} and {@link Condition.Type#NO_ARGS NO_ARGS} conditions end with their transformer, which is a varint of either
+ * (built-in id &lt;&lt; 1) or ((string index &lt;&lt; 1) | 1).
+ * <p>
+ * Codes for {@link Condition.Type}s and {@link FieldType}s are their indices in {@link #CONDITION_TYPES} and {@link
+ * #FIELD_TYPES}, not their ordinals, so that reordering either enum doesn't change the format.
+ */
+final class RUQBinaryCodec {
+    private static final byte MAGIC_0 = 'R';
+    private static final byte MAGIC_1 = 'Q';
+    private static final byte VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Names of the built-in transformers; a transformer's index in this array is its id in the binary form. Since
+     * these ids are persisted, new transformers must only ever be added to the end of this array.
+     */
+    private static final String[] BUILT_IN_TRANSFORMERS = new String[] {
+            "com.bkromhout.ruqus.transformers.BeginGroup",
+            "com.bkromhout.ruqus.transformers.EndGroup",
+            "com.bkromhout.ruqus.transformers.Or",
+            "com.bkromhout.ruqus.transformers.Not",
+            "com.bkromhout.ruqus.transformers.EqualTo",
+            "com.bkromhout.ruqus.transformers.NotEqualTo",
+            "com.bkromhout.ruqus.transformers.GreaterThan",
+            "com.bkromhout.ruqus.transformers.GreaterThanOrEqualTo",
+            "com.bkromhout.ruqus.transformers.LessThan",
+            "com.bkromhout.ruqus.transformers.LessThanOrEqualTo",
+            "com.bkromhout.ruqus.transformers.Between",
+            "com.bkromhout.ruqus.transformers.BeginsWith",
+            "com.bkromhout.ruqus.transformers.EndsWith",
+            "com.bkromhout.ruqus.transformers.StringContains",
+            "com.bkromhout.ruqus.transformers.In"
+    };
+    private static final HashMap<String, Integer> BUILT_IN_TRANSFORMER_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < BUILT_IN_TRANSFORMERS.length; i++)
+            BUILT_IN_TRANSFORMER_IDS.put(BUILT_IN_TRANSFORMERS[i], i);
+    }
+
+    /**
+     * Condition types; a type's index in this array is its code in the binary form. Since these codes are persisted,
+     * new types must only ever be added to the end of this array.
+     */
+    private static final Condition.Type[] CONDITION_TYPES = new Condition.Type[] {
+            Condition.Type.NORMAL,
+            Condition.Type.NO_ARGS,
+            Condition.Type.BEGIN_GROUP,
+            Condition.Type.END_GROUP,
+            Condition.Type.OR,
+            Condition.Type.NOT
+    };
+    private static final EnumMap<Condition.Type, Integer> CONDITION_TYPE_CODES = new EnumMap<>(Condition.Type.class);
+
+    /**
+     * Types which args may have; a type's index in this array is its code in the binary form. Since these codes are
+     * persisted, new types must only ever be added to the end of this array.
+     */
+    private static final FieldType[] FIELD_TYPES = new FieldType[] {
+            FieldType.BOOLEAN,
+            FieldType.DATE,
+            FieldType.DOUBLE,
+            FieldType.FLOAT,
+            FieldType.INTEGER,
+            FieldType.LONG,
+            FieldType.SHORT,
+            FieldType.STRING
+    };
+    private static final EnumMap<FieldType, Integer> FIELD_TYPE_CODES = new EnumMap<>(FieldType.class);
+
+    static {
+        for (int i = 0; i < CONDITION_TYPES.length; i++) CONDITION_TYPE_CODES.put(CONDITION_TYPES[i], i);
+        for (int i = 0; i < FIELD_TYPES.length; i++) FIELD_TYPE_CODES.put(FIELD_TYPES[i], i);
+    }
+
+    private RUQBinaryCodec() {}
+
+    /*
+     * Writing.
+     */
+
+    /**
+     * Write out the binary form of {@code ruq}. The query must be valid.
+     * @param ruq Query to write.
+     * @return Binary form of the query.
+     */
+    static byte[] write(RealmUserQuery ruq) {
+        // Write the body first, since we need to know all of the strings it uses before we can write the table.
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIdxs = new HashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        // Write out query class's name.
+        writeVarInt(body, intern(ruq.getQueryClass().getSimpleName(), strings, stringIdxs));
+
+        // Write out conditions.
+        ArrayList<Condition> conditions = ruq.getConditions();
+        writeVarInt(body, conditions.size());
+        for (Condition condition : conditions) {
+            Condition.Type type = condition.getType();
+            body.write(CONDITION_TYPE_CODES.get(type));
+            writeVarInt(body, intern(condition.getRealmClass(), strings, stringIdxs));
+            if (type == Condition.Type.NORMAL) {
+                writeVarInt(body, intern(condition.getField(), strings, stringIdxs));
+                writeArgs(body, condition.getTypedArgs());
+            }
+            if (type == Condition.Type.NORMAL || type == Condition.Type.NO_ARGS) {
+                Integer builtInId = BUILT_IN_TRANSFORMER_IDS.get(condition.getTransformer());
+                if (builtInId != null) writeVarInt(body, builtInId << 1);
+                else writeVarInt(body, (intern(condition.getTransformer(), strings, stringIdxs) << 1) | 1);
+            }
+        }
+
+        // Write out sorts.
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        writeVarInt(body, sortFields.size());
+        for (int i = 0; i < sortFields.size(); i++)
+            writeVarInt(body, (intern(sortFields.get(i), strings, stringIdxs) << 1) |
+                    (sortDirs.get(i) == Sort.ASCENDING ? 0 : 1));
+
+        // Now put it all together.
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 64);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(VERSION);
+        writeVarInt(out, strings.size());
+        for (String string : strings) writeString(out, string);
+        byte[] bodyBytes = body.toByteArray();
+        out.write(bodyBytes, 0, bodyBytes.length);
+        return out.toByteArray();
+    }
+
+    private static int intern(String string, ArrayList<String> strings, HashMap<String, Integer> stringIdxs) {
+        Integer idx = stringIdxs.get(string);
+        if (idx == null) {
+            idx = strings.size();
+            strings.add(string);
+            stringIdxs.put(string, idx);
+        }
+        return idx;
+    }
+
+    private static void writeArgs(ByteArrayOutputStream out, ConditionArgs args) {
+        if (args == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        FieldType type = args.getType();
+        Integer typeCode = FIELD_TYPE_CODES.get(type);
+        if (typeCode == null) throw new IllegalArgumentException("Invalid data type.");
+        writeVarInt(out, args.size());
+        // All args have the same type, so it's only written once.
+        out.write(typeCode);
+        for (int i = 0; i < args.size(); i++) {
+            switch (type) {
+                case BOOLEAN:
+                    out.write(args.getBoolean(i) ? 1 : 0);
+                    break;
+                case DATE:
+                case INTEGER:
+                case LONG:
+                case SHORT:
+                    writeVarLong(out, zigZag(args.getLong(i)));
+                    break;
+                case DOUBLE:
+                    writeFixedLong(out, Double.doubleToLongBits(args.getDouble(i)), 8);
+                    break;
+                case FLOAT:
+                    writeFixedLong(out, Float.floatToIntBits(args.getFloat(i)), 4);
+                    break;
+                case STRING:
+                    writeString(out, args.getString(i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid data type.");
+            }
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String string) {
+        byte[] bytes = string.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Floats are written as 4 bytes and doubles as 8, since their bit patterns rarely benefit from varint encoding.
+     */
+    private static void writeFixedLong(ByteArrayOutputStream out, long value, int numBytes) {
+        for (int i = 0; i < numBytes; i++) out.write((int) (value >>> (8 * i)));
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /*
+     * Reading.
+     */
+
+    /**
+     * Read the binary form of a query from {@code in} into {@code ruq}, which should be empty. Reading starts at the
+     * buffer's current position, and leaves the position just after the end of the query.
+     * @param in  Buffer to read from.
+     * @param ruq Query to read into.
+     */
+    static void read(ByteBuffer in, RealmUserQuery ruq) {
+        try {
+            if (in.get() != MAGIC_0 || in.get() != MAGIC_1)
+                throw new IllegalArgumentException("Data is not a binary RUQ.");
+            byte version = in.get();
+            if (version != VERSION)
+                throw new IllegalArgumentException(String.format("Unsupported binary RUQ version %d.", version));
+
+            // Read string table.
+            String[] strings = new String[readCount(in)];
+            for (int i = 0; i < strings.length; i++) strings[i] = readString(in);
+
+            // Figure out query class.
+            ruq.setQueryClass(Ruqus.getClassFromName(readTableString(in, strings)));
+
+            // Figure out conditions.
+            ArrayList<Condition> conditions = ruq.getConditions();
+            int numConditions = readCount(in);
+            for (int i = 0; i < numConditions; i++) {
+                int typeCode = in.get();
+                if (typeCode < 0 || typeCode >= CONDITION_TYPES.length)
+                    throw new IllegalArgumentException("Invalid Condition type.");
+                Condition.Type type = CONDITION_TYPES[typeCode];
+                String realmClass = readTableString(in, strings);
+                String field = null;
+                Object[] args = null;
+                String transformer = null;
+                if (type == Condition.Type.NORMAL) {
+                    field = readTableString(in, strings);
+                    args = readArgs(in);
+                }
+                if (type == Condition.Type.NORMAL || type == Condition.Type.NO_ARGS) {
+                    int transformerRef = readVarInt(in);
+                    int idx = transformerRef >>> 1;
+                    if ((transformerRef & 1) == 1) transformer = tableString(strings, idx);
+                    else if (idx < BUILT_IN_TRANSFORMERS.length) transformer = BUILT_IN_TRANSFORMERS[idx];
+                    else throw new IllegalArgumentException(String.format("Invalid built-in transformer id %d.", idx));
+                }
+                conditions.add(new Condition(type, realmClass, field, args, transformer));
+            }
+
+            // Figure out sort fields and directions.
+            ArrayList<String> sortFields = ruq.getSortFields();
+            ArrayList<Sort> sortDirs = ruq.getSortDirs();
+            int numSorts = readCount(in);
+            for (int i = 0; i < numSorts; i++) {
+                int sortRef = readVarInt(in);
+                sortFields.add(tableString(strings, sortRef >>> 1));
+                sortDirs.add((sortRef & 1) == 0 ? Sort.ASCENDING : Sort.DESCENDING);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Binary RUQ is truncated.", e);
+        }
+    }
+
+    private static Object[] readArgs(ByteBuffer in) {
+        int numArgs = readCount(in);
+        if (numArgs == 0) return null;
+        int typeCode = in.get();
+        if (typeCode < 0 || typeCode >= FIELD_TYPES.length) throw new IllegalArgumentException("Invalid arg type.");
+        FieldType type = FIELD_TYPES[typeCode];
+        Object[] args = new Object[numArgs];
+        for (int i = 0; i < numArgs; i++) {
+            switch (type) {
+                case BOOLEAN:
+                    args[i] = in.get() != 0;
+                    break;
+                case DATE:
+                    args[i] = new Date(unZigZag(readVarLong(in)));
+                    break;
+                case DOUBLE:
+                    args[i] = Double.longBitsToDouble(readFixedLong(in, 8));
+                    break;
+                case FLOAT:
+                    args[i] = Float.intBitsToFloat((int) readFixedLong(in, 4));
+                    break;
+                case INTEGER:
+                    args[i] = (int) readRangedLong(in, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    break;
+                case LONG:
+                    args[i] = unZigZag(readVarLong(in));
+                    break;
+                case SHORT:
+                    args[i] = (short) readRangedLong(in, Short.MIN_VALUE, Short.MAX_VALUE);
+                    break;
+                case STRING:
+                    args[i] = readString(in);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid arg type.");
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Read a zigzag-encoded varint, ensuring that it fits in a narrower integer type so that corrupt data doesn't get
+     * silently truncated.
+     */
+    private static long readRangedLong(ByteBuffer in, long min, long max) {
+        long value = unZigZag(readVarLong(in));
+        if (value < min || value > max)
+            throw new IllegalArgumentException(String.format("Arg value %d is out of range.", value));
+        return value;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readCount(in);
+        if (length > in.remaining()) throw new BufferUnderflowException();
+        if (in.hasArray()) {
+            String string = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+            in.position(in.position() + length);
+            return string;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String readTableString(ByteBuffer in, String[] strings) {
+        return tableString(strings, readVarInt(in));
+    }
+
+    private static String tableString(String[] strings, int idx) {
+        if (idx < 0 || idx >= strings.length)
+            throw new IllegalArgumentException(String.format("Invalid string table index %d.", idx));
+        return strings[idx];
+    }
+
+    /**
+     * Read a varint which is used as a count, ensuring that it is sane so that we don't try to allocate huge arrays
+     * because of corrupt data. Everything which is counted takes up at least one byte, so a count can never be larger
+     * than the number of remaining bytes.
+     */
+    private static int readCount(ByteBuffer in) {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.remaining())
+            throw new IllegalArgumentException(String.format("Invalid count %d.", count));
+        return count;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        long value = readVarLong(in);
+        if ((value >>> 32) != 0) throw new IllegalArgumentException("Varint is too large.");
+        return (int) value;
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    private static long readFixedLong(ByteBuffer in, int numBytes) {
+        long value = 0;
+        for (int i = 0; i < numBytes; i++) value |= (long) (in.get() & 0xFF) << (8 * i);
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -3,6 +3,7 @@ package com.bkromhout.ruqus;
 import io.realm.*;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Responsible for executing a RealmUserQuery.
@@ -10,6 +11,11 @@ import java.util.ArrayList;
 class RUQExecutor<E extends RealmModel> {
     private final Class<E> clazz;
     private final RealmUserQuery ruq;
+    /**
+     * The query's conditions, after being rewritten by {@link QueryRewriter}. Resolved lazily; see {@link
+     * #getConditions()}.
+     */
+    private List<Condition> conditions;
 
     static <E extends RealmModel> RUQExecutor<E> get(Class<E> clazz, RealmUserQuery ruq) {
         return new RUQExecutor<>(clazz, ruq);
@@ -21,22 +27,7 @@ class RUQExecutor<E extends RealmModel> {
     }
 
     RealmResults<E> executeQuery(Realm realm) {
-        // Ensure types on executor and query match.
-        if (!clazz.getCanonicalName().equals(ruq.getQueryClass().getCanonicalName()))
-            throw new IllegalArgumentException(String.format("Parameterized types of RUQExecutor and RealmUserQuery " +
-                            "do not match! Executor's type: \"%s\", Query's type: \"%s\"", clazz.getCanonicalName(),
-                    ruq.getQueryClass().getCanonicalName()));
-
-        // Create the query using the default realm instance and the query class.
-        RealmQuery<E> query = RealmQuery.createQuery(realm, clazz);
-
-        // Apply any conditions we have.
-        for (Condition condition : ruq.getConditions()) {
-            // Get transformer which will apply the condition.
-            RUQTransformer transformer = Ruqus.getTransformer(condition.getTransformer());
-            // And transform the query with it.
-            transformer.transform(query, condition);
-        }
+        RealmQuery<E> query = buildQuery(realm);
 
         // Apply any sort fields we have and execute the query.
         ArrayList<String> sortFields = ruq.getSortFields();
@@ -51,4 +42,159 @@ class RUQExecutor<E extends RealmModel> {
             return query.findAllSorted(sortFields.toArray(new String[sortFields.size()]),
                     sortDirs.toArray(new Sort[sortDirs.size()]));
     }
+
+    /**
+     * Same as {@link #executeQuery(Realm)}, but uses Realm's asynchronous query methods. The returned results will not
+     * be loaded yet; see {@link RealmResults#isLoaded()}.
+     * @param realm Instance of Realm to use to execute query. Must be on a thread with a Looper.
+     * @return Not-yet-loaded RealmResults.
+     */
+    RealmResults<E> executeQueryAsync(Realm realm) {
+        RealmQuery<E> query = buildQuery(realm);
+
+        // Apply any sort fields we have and execute the query.
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        if (sortFields.isEmpty())
+            return query.findAllAsync();
+        else if (sortFields.size() == 1)
+            return query.findAllSortedAsync(sortFields.get(0), sortDirs.get(0));
+        else if (sortFields.size() == 2)
+            return query.findAllSortedAsync(sortFields.get(0), sortDirs.get(0), sortFields.get(1), sortDirs.get(1));
+        else
+            return query.findAllSortedAsync(sortFields.toArray(new String[sortFields.size()]),
+                    sortDirs.toArray(new Sort[sortDirs.size()]));
+    }
+
+    /**
+     * Execute the query and return the results as a new list, sorting them in memory if Realm can't sort by all of the
+     * sort fields itself.
+     * @param realm Instance of Realm to use to execute query.
+     * @param limit Maximum number of results to return, or a negative number to return all of them.
+     * @return List of results.
+     */
+    List<E> executeToList(Realm realm, int limit) {
+        if (matchesNothing()) return new ArrayList<E>(0);
+        ArrayList<String> sortFields = ruq.getSortFields();
+        String[] sortFieldsArr = sortFields.toArray(new String[sortFields.size()]);
+        if (InMemorySorter.canSortNatively(sortFieldsArr)) return firstResults(executeQuery(realm), limit);
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        return new InMemorySorter(ruq.getQueryClass().getSimpleName(), sortFieldsArr,
+                sortDirs.toArray(new Sort[sortDirs.size()])).sort(buildQuery(realm).findAll(), limit);
+    }
+
+    /**
+     * Copy the first {@code limit} objects from {@code results} into a new list, so that lists of results are always
+     * snapshots, whether or not they had to be sorted in memory.
+     * @param results Sorted results.
+     * @param limit   Maximum number of results to copy, or a negative number to copy all of them.
+     * @return New list of results.
+     */
+    static <E extends RealmModel> ArrayList<E> firstResults(List<E> results, int limit) {
+        int count = limit < 0 ? results.size() : Math.min(limit, results.size());
+        ArrayList<E> first = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) first.add(results.get(i));
+        return first;
+    }
+
+    /**
+     * Get the page of results which comes after {@code after}.
+     * @param realm    Instance of Realm to use to execute query.
+     * @param pageSize Maximum number of results to return.
+     * @param after    Cursor returned with the previous page, or null to get the first page.
+     * @return Page of results.
+     */
+    RUQPage<E> executePage(Realm realm, int pageSize, PageCursor after) {
+        if (matchesNothing()) return new RUQPage<>(new ArrayList<E>(0), null);
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        Pager pager = new Pager(ruq.getQueryClass().getSimpleName(), sortFields.toArray(new String[sortFields.size()]),
+                sortDirs.toArray(new Sort[sortDirs.size()]));
+
+        boolean narrow = pager.canNarrow(after);
+        RealmQuery<E> query = buildQuery(realm, narrow);
+        if (narrow) pager.narrow(query, after);
+        return pager.page(query, pageSize, after);
+    }
+
+    /**
+     * Count the number of objects which match the query. Sort fields are ignored, since they can't affect the count.
+     * @param realm Instance of Realm to use to execute query.
+     * @return Number of matching objects.
+     */
+    long count(Realm realm) {
+        return matchesNothing() ? 0 : buildQuery(realm).count();
+    }
+
+    /**
+     * Check whether any objects match the query. Sort fields are ignored.
+     * @param realm Instance of Realm to use to execute query.
+     * @return True if at least one object matches, otherwise false.
+     */
+    boolean exists(Realm realm) {
+        return !matchesNothing() && buildQuery(realm).findFirst() != null;
+    }
+
+    /**
+     * Find the first object which matches the query. Sort fields are ignored, so this is only useful when any matching
+     * object will do.
+     * @param realm Instance of Realm to use to execute query.
+     * @return First matching object, or null if there aren't any.
+     */
+    E findFirst(Realm realm) {
+        return matchesNothing() ? null : buildQuery(realm).findFirst();
+    }
+
+    /**
+     * Get the query's conditions, after being rewritten by {@link QueryRewriter}.
+     * @return Rewritten conditions.
+     */
+    private List<Condition> getConditions() {
+        // The query was validated before we were created, so the conditions don't need to be checked again.
+        if (conditions == null) conditions = QueryRewriter.rewrite(ruq.getConditions());
+        return conditions;
+    }
+
+    /**
+     * Check whether the query provably can't match any objects, in which case the methods which don't return {@link
+     * RealmResults} return empty results without touching Realm.
+     * @return True if the query can't match any objects.
+     */
+    private boolean matchesNothing() {
+        return QuerySimplifier.matchesNothing(getConditions());
+    }
+
+    /**
+     * Create a {@link RealmQuery} and apply all of the query's conditions to it.
+     * @param realm Instance of Realm to use to create the query.
+     * @return RealmQuery, ready to be executed.
+     */
+    private RealmQuery<E> buildQuery(Realm realm) {
+        return buildQuery(realm, false);
+    }
+
+    /**
+     * Create a {@link RealmQuery} and apply all of the query's conditions to it.
+     * @param realm Instance of Realm to use to create the query.
+     * @param group Whether to wrap the conditions in a group, so that more conditions can be AND-ed with all of them.
+     * @return RealmQuery, ready to be executed.
+     */
+    private RealmQuery<E> buildQuery(Realm realm, boolean group) {
+        // Ensure types on executor and query match.
+        if (!clazz.getCanonicalName().equals(ruq.getQueryClass().getCanonicalName()))
+            throw new IllegalArgumentException(String.format("Parameterized types of RUQExecutor and RealmUserQuery " +
+                            "do not match! Executor's type: \"%s\", Query's type: \"%s\"", clazz.getCanonicalName(),
+                    ruq.getQueryClass().getCanonicalName()));
+
+        // Create the query using the default realm instance and the query class.
+        RealmQuery<E> query = RealmQuery.createQuery(realm, clazz);
+
+        // Apply any conditions we have.
+        List<Condition> conditions = getConditions();
+        group = group && !conditions.isEmpty();
+        if (group) query.beginGroup();
+        for (Condition condition : conditions) BoundCondition.apply(query, condition);
+        if (group) query.endGroup();
+        return query;
+    }
 }
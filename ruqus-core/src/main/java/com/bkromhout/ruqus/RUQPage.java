@@ -0,0 +1,43 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Realm;
+import io.realm.RealmModel;
+
+import java.util.List;
+
+/**
+ * A page of results from {@link RealmUserQuery#executePage(Realm, int, PageCursor)}.
+ */
+public final class RUQPage<E extends RealmModel> {
+    private final List<E> results;
+    private final PageCursor nextCursor;
+
+    RUQPage(List<E> results, PageCursor nextCursor) {
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Get the results on this page, in sorted order.
+     * @return List of results.
+     */
+    public List<E> getResults() {
+        return results;
+    }
+
+    /**
+     * Get the cursor to pass to {@link RealmUserQuery#executePage(Realm, int, PageCursor)} to get the next page.
+     * @return Cursor for the next page, or null if this is the last page.
+     */
+    public PageCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Check whether there are more results after this page.
+     * @return True if there's another page.
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
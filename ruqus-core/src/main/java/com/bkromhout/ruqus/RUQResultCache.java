@@ -0,0 +1,325 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An opt-in cache for the results of {@link RealmUserQuery}s, keyed by their {@link RealmUserQuery#fingerprint()
+ * fingerprints}, so that executing the same query in several places only goes to Realm once. Queries whose fingerprints
+ * collide never share results, since their normalized forms are compared as well.
+ * <p>
+ * A cache is tied to one {@link Realm} instance, and must only be used on that instance's thread, which must have a
+ * Looper. Cached results are dropped as soon as objects of any class which their query touches (its query class, and
+ * any classes which its conditions or sort fields link through) change; the cache watches each of those classes using
+ * a change listener on a {@link RealmResults} which holds all of its objects, which is removed again once no cached
+ * results touch that class. Once more than {@code maxSize} results are cached, the least recently used ones are
+ * evicted.
+ * <p>
+ * Call {@link #close()} before closing the Realm instance to remove the change listeners.
+ */
+public final class RUQResultCache {
+    // Kinds of results which can be cached for a query.
+    private static final int RESULTS = 0;
+    private static final int LIST = 1;
+    private static final int COUNT = 2;
+
+    private final Realm realm;
+    /**
+     * Cached results, in least to most recently used order.
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+    /**
+     * Change listeners for each class touched by a cached query, keyed by class name. Each is removed once no cached
+     * results touch its class.
+     */
+    private final HashMap<String, Watcher<?>> watchers = new HashMap<>();
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a new {@link RUQResultCache}.
+     * @param realm   Instance of Realm to execute queries with.
+     * @param maxSize Maximum number of results to cache. Must be positive.
+     */
+    public RUQResultCache(Realm realm, final int maxSize) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive.");
+        this.realm = realm;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= maxSize) return false;
+                evictionCount++;
+                release(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link RealmUserQuery#execute(Realm)}, but returns cached results if there are any.
+     * @param ruq Query to execute.
+     * @return RealmResults, or null if query is invalid.
+     */
+    public <E extends RealmModel> RealmResults<E> execute(RealmUserQuery ruq) {
+        // noinspection unchecked
+        return (RealmResults<E>) get(ruq, RESULTS, -1);
+    }
+
+    /**
+     * Same as {@link RealmUserQuery#executeToList(Realm, int)}, but returns cached results if there are any. Since the
+     * same list may be returned more than once, it can't be modified.
+     * @param ruq   Query to execute.
+     * @param limit Maximum number of results to return, or a negative number to return all of them.
+     * @return Unmodifiable list of results, or null if query is invalid.
+     */
+    public <E extends RealmModel> List<E> executeToList(RealmUserQuery ruq, int limit) {
+        // noinspection unchecked
+        return (List<E>) get(ruq, LIST, limit < 0 ? -1 : limit);
+    }
+
+    /**
+     * Same as {@link RealmUserQuery#count(Realm)}, but returns a cached count if there is one.
+     * @param ruq Query to count the results of.
+     * @return Number of matching objects, or -1 if query is invalid.
+     */
+    public long count(RealmUserQuery ruq) {
+        Long count = (Long) get(ruq, COUNT, -1);
+        return count == null ? -1 : count;
+    }
+
+    /**
+     * Get cached results for {@code ruq}, or execute it and cache the results if there aren't any.
+     * @param ruq   Query.
+     * @param kind  Kind of results to get.
+     * @param limit Limit, for {@link #LIST}; otherwise -1.
+     * @return Results, or null if {@code ruq} is invalid.
+     */
+    private Object get(RealmUserQuery ruq, int kind, int limit) {
+        if (closed) throw new IllegalStateException("Cache has been closed.");
+        if (ruq == null) throw new IllegalArgumentException("ruq must be non-null.");
+        if (!ruq.isQueryValid()) return null;
+
+        Key key = new Key(ruq.getFingerprint(), kind, limit);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hitCount++;
+            return entry.value;
+        }
+        missCount++;
+
+        Object value;
+        switch (kind) {
+            case RESULTS:
+                value = ruq.execute(realm);
+                break;
+            case LIST:
+                value = Collections.unmodifiableList(ruq.executeToList(realm, limit));
+                break;
+            default:
+                value = ruq.count(realm);
+                break;
+        }
+        String[] classes = touchedClasses(ruq);
+        for (String className : classes) watch(className);
+        entries.put(key, new Entry(value, classes));
+        return value;
+    }
+
+    /**
+     * Get the names of all of the classes which {@code ruq} touches.
+     * @param ruq Valid query.
+     * @return Class names.
+     */
+    private static String[] touchedClasses(RealmUserQuery ruq) {
+        String queryClass = ruq.getQueryClass().getSimpleName();
+        HashSet<String> classes = new HashSet<>();
+        classes.add(queryClass);
+        for (Condition condition : ruq.getConditions())
+            if (condition.getType() == Condition.Type.NORMAL)
+                classes.addAll(Ruqus.linkedClassesForField(condition.getRealmClass(), condition.getField()));
+        for (String sortField : ruq.getSortFields()) classes.addAll(Ruqus.linkedClassesForField(queryClass, sortField));
+        return classes.toArray(new String[classes.size()]);
+    }
+
+    /**
+     * Start watching for changes to objects of the class called {@code className}, if we aren't already, on behalf of
+     * an entry which is about to be cached.
+     */
+    private void watch(String className) {
+        Watcher<?> watcher = watchers.get(className);
+        if (watcher == null) {
+            watcher = new Watcher<>(Ruqus.getClassFromName(className), className);
+            watchers.put(className, watcher);
+        }
+        watcher.entryCount++;
+    }
+
+    /**
+     * Stop watching the classes which {@code entry} touches on its behalf, now that it's no longer cached. Watchers
+     * which no other entries need are removed.
+     */
+    private void release(Entry entry) {
+        for (String className : entry.classes) {
+            Watcher<?> watcher = watchers.get(className);
+            if (--watcher.entryCount > 0) continue;
+            watcher.remove();
+            watchers.remove(className);
+        }
+    }
+
+    /**
+     * Drop all cached results whose queries touch {@code clazz}.
+     * @param clazz Class whose objects have changed.
+     */
+    public void invalidate(Class<? extends RealmModel> clazz) {
+        invalidate(clazz.getSimpleName());
+    }
+
+    private void invalidate(String className) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.touches(className)) continue;
+            iterator.remove();
+            release(entry);
+        }
+    }
+
+    /**
+     * Drop all cached results.
+     */
+    public void invalidateAll() {
+        for (Entry entry : entries.values()) release(entry);
+        entries.clear();
+    }
+
+    /**
+     * Drop all cached results and remove all change listeners. The cache can't be used after this is called.
+     */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        entries.clear();
+        for (Watcher<?> watcher : watchers.values()) watcher.remove();
+        watchers.clear();
+    }
+
+    /**
+     * @return Number of results which are currently cached.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of times that cached results were returned.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of times that a query had to be executed because its results weren't cached.
+     */
+    public int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Number of cached results which were evicted to make room for newer ones.
+     */
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static final class Key {
+        private final long fingerprint;
+        /**
+         * Normalized form of the query, so that queries whose fingerprints collide aren't mistaken for each other.
+         */
+        private final String normalized;
+        private final int kind;
+        private final int limit;
+
+        Key(QueryFingerprint fingerprint, int kind, int limit) {
+            this.fingerprint = fingerprint.getHash();
+            this.normalized = fingerprint.getNormalized();
+            this.kind = kind;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return fingerprint == that.fingerprint && kind == that.kind && limit == that.limit &&
+                    normalized.equals(that.normalized);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (int) (fingerprint ^ (fingerprint >>> 32)) + kind) + limit;
+        }
+    }
+
+    private static final class Entry {
+        private final Object value;
+        /**
+         * Names of the classes which the query touches.
+         */
+        private final String[] classes;
+
+        Entry(Object value, String[] classes) {
+            this.value = value;
+            this.classes = classes;
+        }
+
+        boolean touches(String className) {
+            for (String c : classes) if (c.equals(className)) return true;
+            return false;
+        }
+    }
+
+    /**
+     * Invalidates cached results when objects of a class change.
+     */
+    private final class Watcher<E extends RealmModel> implements RealmChangeListener<RealmResults<E>> {
+        private final String className;
+        private final RealmResults<E> allObjects;
+        /**
+         * Number of cached entries which touch {@link #className}.
+         */
+        private int entryCount = 0;
+
+        Watcher(Class<E> clazz, String className) {
+            this.className = className;
+            this.allObjects = RealmQuery.createQuery(realm, clazz).findAll();
+            allObjects.addChangeListener(this);
+        }
+
+        @Override
+        public void onChange(RealmResults<E> element) {
+            invalidate(className);
+        }
+
+        void remove() {
+            allObjects.removeChangeListener(this);
+        }
+    }
+}
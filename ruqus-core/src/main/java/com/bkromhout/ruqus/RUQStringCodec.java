@@ -0,0 +1,402 @@
+package com.bkromhout.ruqus;
+
+import io.realm.Sort;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Reads and writes the RUQ string format produced by {@link RealmUserQuery#toRuqString()}.
+ * <p>
+ * Reading is done in a single pass over the original string using index ranges, rather than by splitting it up into
+ * intermediate arrays; the only strings which are allocated are the ones which end up in the decoded query. Writing
+ * appends everything to a single {@link StringBuilder}, only adding separators between elements.
+ * <p>
+ * The format looks like this (without the line breaks):
+ * <pre>
+ * {class}#$_Ruqus_RUQ_$#
+ * {condition}#$_Condition_$#{condition}...#$_Ruqus_RUQ_$#
+ * {sort field}&lt;&lt;&gt;&gt;{ASC|DESC}#$_Sort_$#{sort field}&lt;&lt;&gt;&gt;{ASC|DESC}...
+ * </pre>
+ * Where each condition is either {@code {type}|||{class}|||{field}|||{args}|||{transformer}} for {@link
+ * Condition.Type#NORMAL NORMAL} conditions, or {@code {type}|||{class}|||{transformer}} for all others. Args are
+ * separated by {@code ;,;}, and each arg is written as {@code {value}::{FieldType name}}.
+ */
+final class RUQStringCodec {
+    static final String PART_SEP = "#$_Ruqus_RUQ_$#";
+    static final String COND_SEP = "#$_Condition_$#";
+    static final String SORT_SEP = "#$_Sort_$#";
+    static final String SORT_SUB_SEP = "<<>>";
+    static final String C_SEP = "|||";
+    static final String ARG_SEP = ";,;";
+    static final String DATA_SEP = "::";
+    private static final String ASC = "ASC";
+    private static final String DESC = "DESC";
+
+    private static final Condition.Type[] CONDITION_TYPES = Condition.Type.values();
+    private static final FieldType[] FIELD_TYPES = FieldType.values();
+
+    private RUQStringCodec() {}
+
+    /*
+     * Writing.
+     */
+
+    /**
+     * Write out a RUQ string for {@code ruq}. The query must be valid.
+     * @param ruq Query to write.
+     * @return RUQ string.
+     */
+    static String write(RealmUserQuery ruq) {
+        StringBuilder builder = new StringBuilder();
+
+        // Write out query class's name.
+        builder.append(ruq.getQueryClass().getSimpleName())
+               .append(PART_SEP);
+
+        // Write out condition strings.
+        ArrayList<Condition> conditions = ruq.getConditions();
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0) builder.append(COND_SEP);
+            writeCondition(builder, conditions.get(i));
+        }
+        builder.append(PART_SEP);
+
+        // Write out sort strings.
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        for (int i = 0; i < sortFields.size(); i++) {
+            if (i > 0) builder.append(SORT_SEP);
+            builder.append(sortFields.get(i))
+                   .append(SORT_SUB_SEP)
+                   .append(sortDirs.get(i) == Sort.ASCENDING ? ASC : DESC);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Append the string form of {@code condition} to {@code builder}. The condition must be valid.
+     * @param builder   Builder to append to.
+     * @param condition Condition to write.
+     */
+    static void writeCondition(StringBuilder builder, Condition condition) {
+        builder.append(condition.getType().getName()) // Write out type.
+               .append(C_SEP)
+               .append(condition.getRealmClass()) // Write out real realm class name.
+               .append(C_SEP);
+        if (condition.getType() == Condition.Type.NORMAL) {
+            builder.append(condition.getField()) // Write out real field name.
+                   .append(C_SEP);
+            writeArgs(builder, condition.getTypedArgs()); // Write out args.
+            builder.append(C_SEP);
+        }
+        builder.append(condition.getTransformer()); // Write out real transformer name.
+    }
+
+    /**
+     * Append the string form of {@code args} to {@code builder}. Appends nothing if {@code args} is null or empty.
+     * @param builder Builder to append to.
+     * @param args    Args to write.
+     */
+    static void writeArgs(StringBuilder builder, ConditionArgs args) {
+        if (args == null) return;
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0) builder.append(ARG_SEP);
+            writeArg(builder, args, i);
+        }
+    }
+
+    /**
+     * Append the string form of the arg at {@code idx} in {@code args} to {@code builder}.
+     * @param builder Builder to append to.
+     * @param args    Args containing the arg to write.
+     * @param idx     Index of the arg to write.
+     */
+    static void writeArg(StringBuilder builder, ConditionArgs args, int idx) {
+        FieldType type = args.getType();
+        switch (type) {
+            case BOOLEAN:
+                builder.append(args.getBoolean(idx));
+                break;
+            case DATE:
+            case INTEGER:
+            case LONG:
+            case SHORT:
+                builder.append(args.getLong(idx));
+                break;
+            case DOUBLE:
+                builder.append(args.getDouble(idx));
+                break;
+            case FLOAT:
+                builder.append(args.getFloat(idx));
+                break;
+            case STRING:
+                builder.append(args.getString(idx));
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid data type.");
+        }
+        builder.append(DATA_SEP)
+               .append(type.getTypeName());
+    }
+
+    /*
+     * Reading.
+     */
+
+    /**
+     * Read a RUQ string into {@code ruq}, which should be empty.
+     * @param source RUQ string.
+     * @param ruq    Query to read into.
+     */
+    static void read(String source, RealmUserQuery ruq) {
+        int end = source.length();
+
+        // Find the three parts, make sure we have all of them.
+        int classEnd = indexOf(source, PART_SEP, 0, end);
+        int condStart = classEnd + PART_SEP.length();
+        int condEnd = classEnd == -1 ? -1 : indexOf(source, PART_SEP, condStart, end);
+        if (condEnd == -1) throw new IllegalArgumentException("ruqString is missing parts.");
+        int sortStart = condEnd + PART_SEP.length();
+        int sortEnd = indexOf(source, PART_SEP, sortStart, end);
+        if (sortEnd == -1) sortEnd = end;
+        else if (!isRepeated(source, PART_SEP, sortEnd, end))
+            throw new IllegalArgumentException("ruqString has too many parts.");
+
+        // Figure out query class.
+        if (classEnd == 0) throw new IllegalArgumentException("Query class part must not be empty.");
+        ruq.setQueryClass(Ruqus.getClassFromName(source.substring(0, classEnd)));
+
+        // Figure out conditions.
+        ArrayList<Condition> conditions = ruq.getConditions();
+        int pos = condStart;
+        while (pos < condEnd) {
+            int sep = indexOf(source, COND_SEP, pos, condEnd);
+            conditions.add(readCondition(source, pos, sep == -1 ? condEnd : sep));
+            if (sep == -1) break;
+            pos = sep + COND_SEP.length();
+        }
+
+        // Figure out sort fields and directions.
+        ArrayList<String> sortFields = ruq.getSortFields();
+        ArrayList<Sort> sortDirs = ruq.getSortDirs();
+        pos = sortStart;
+        while (pos < sortEnd) {
+            int sep = indexOf(source, SORT_SEP, pos, sortEnd);
+            int itemEnd = sep == -1 ? sortEnd : sep;
+            int subSep = indexOf(source, SORT_SUB_SEP, pos, itemEnd);
+            int dirStart = subSep + SORT_SUB_SEP.length();
+            if (subSep == -1 || dirStart == itemEnd || indexOf(source, SORT_SUB_SEP, dirStart, itemEnd) != -1)
+                throw new IllegalArgumentException(String.format("Invalid sort string \"%s\".",
+                        source.substring(pos, itemEnd)));
+            sortFields.add(source.substring(pos, subSep));
+            sortDirs.add(regionEquals(source, dirStart, itemEnd, ASC) ? Sort.ASCENDING : Sort.DESCENDING);
+            if (sep == -1) break;
+            pos = sep + SORT_SEP.length();
+        }
+    }
+
+    /**
+     * Read a condition from the range [{@code start}, {@code end}) of {@code source}.
+     * @param source String containing a condition string.
+     * @param start  Start index of the condition string, inclusive.
+     * @param end    End index of the condition string, exclusive.
+     * @return New condition.
+     */
+    static Condition readCondition(String source, int start, int end) {
+        // Figure out type.
+        int typeEnd = indexOf(source, C_SEP, start, end);
+        if (typeEnd == -1) throw new IllegalArgumentException(String.format("Invalid condition string \"%s\".",
+                source.substring(start, end)));
+        Condition.Type type = readType(source, start, typeEnd);
+
+        // Figure out realmClass.
+        int classStart = typeEnd + C_SEP.length();
+        int classEnd = endOfPart(source, classStart, end);
+        String realmClass = source.substring(classStart, classEnd);
+
+        // Special types don't store anything else.
+        if (type != Condition.Type.NORMAL && type != Condition.Type.NO_ARGS)
+            return new Condition(type, realmClass, null, null, null);
+
+        String field = null;
+        Object[] args = null;
+        int transStart = classEnd + C_SEP.length();
+        if (type == Condition.Type.NORMAL) {
+            // Figure out field.
+            int fieldEnd = endOfPart(source, transStart, end);
+            field = source.substring(transStart, fieldEnd);
+
+            // Figure out args.
+            int argsStart = fieldEnd + C_SEP.length();
+            int argsEnd = endOfPart(source, argsStart, end);
+            args = readArgs(source, argsStart, argsEnd);
+            transStart = argsEnd + C_SEP.length();
+        }
+
+        // Figure out transformer.
+        if (transStart > end) throw new IllegalArgumentException(String.format(
+                "Condition string \"%s\" is missing parts.", source.substring(start, end)));
+        String transformer = source.substring(transStart, endOfPart(source, transStart, end));
+        return new Condition(type, realmClass, field, args, transformer);
+    }
+
+    /**
+     * Read args from the range [{@code start}, {@code end}) of {@code source}.
+     * @param source String containing args.
+     * @param start  Start index of the args, inclusive.
+     * @param end    End index of the args, exclusive.
+     * @return Array of args, or null if the range is empty.
+     */
+    static Object[] readArgs(String source, int start, int end) {
+        if (start >= end) return null;
+
+        // Count the args first so that we can size the array correctly.
+        int count = 1;
+        for (int i = indexOf(source, ARG_SEP, start, end); i != -1;
+             i = indexOf(source, ARG_SEP, i + ARG_SEP.length(), end))
+            count++;
+
+        Object[] args = new Object[count];
+        int pos = start;
+        for (int i = 0; i < count; i++) {
+            int sep = i == count - 1 ? end : indexOf(source, ARG_SEP, pos, end);
+            args[i] = readArg(source, pos, sep);
+            pos = sep + ARG_SEP.length();
+        }
+        return args;
+    }
+
+    /**
+     * Read a single arg from the range [{@code start}, {@code end}) of {@code source}.
+     * <p>
+     * The last {@code ::} in the range is used as the separator between the value and the type name, so values which
+     * themselves contain {@code ::} can be read.
+     * @param source String containing an arg.
+     * @param start  Start index of the arg, inclusive.
+     * @param end    End index of the arg, exclusive.
+     * @return Arg, typed according to the type name it was written with.
+     */
+    static Object readArg(String source, int start, int end) {
+        int sep = end - DATA_SEP.length() < start ? -1 : source.lastIndexOf(DATA_SEP, end - DATA_SEP.length());
+        if (sep < start) throw new IllegalArgumentException(String.format("Invalid data string \"%s\".",
+                source.substring(start, end)));
+
+        int nameStart = sep + DATA_SEP.length();
+        FieldType type = null;
+        for (FieldType fieldType : FIELD_TYPES)
+            if (regionEquals(source, nameStart, end, fieldType.getTypeName())) type = fieldType;
+        if (type == null) throw new IllegalArgumentException("Invalid name.");
+
+        switch (type) {
+            case BOOLEAN:
+                return sep - start == 4 && source.regionMatches(true, start, "true", 0, 4);
+            case DATE:
+                return new Date(parseLong(source, start, sep));
+            case DOUBLE:
+                return Double.valueOf(source.substring(start, sep));
+            case FLOAT:
+                return Float.valueOf(source.substring(start, sep));
+            case INTEGER: {
+                long value = parseLong(source, start, sep);
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw numberFormatEx(source, start, sep);
+                return (int) value;
+            }
+            case LONG:
+                return parseLong(source, start, sep);
+            case SHORT: {
+                long value = parseLong(source, start, sep);
+                if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) throw numberFormatEx(source, start, sep);
+                return (short) value;
+            }
+            case STRING:
+                return source.substring(start, sep);
+            default:
+                throw new IllegalArgumentException(String.format("Invalid data string \"%s\".",
+                        source.substring(start, end)));
+        }
+    }
+
+    /**
+     * Read a condition type from the range [{@code start}, {@code end}) of {@code source}.
+     */
+    private static Condition.Type readType(String source, int start, int end) {
+        for (Condition.Type type : CONDITION_TYPES)
+            if (regionEquals(source, start, end, type.getName())) return type;
+        throw new IllegalArgumentException("Invalid Condition type name.");
+    }
+
+    /*
+     * Scanning helpers.
+     */
+
+    /**
+     * Find the first occurrence of {@code sep} which lies entirely within [{@code from}, {@code end}) of {@code
+     * source}.
+     * @return Index of {@code sep}, or -1 if it isn't in the range.
+     */
+    static int indexOf(String source, String sep, int from, int end) {
+        char first = sep.charAt(0);
+        int sepLen = sep.length();
+        for (int i = from, last = end - sepLen; i <= last; i++)
+            if (source.charAt(i) == first && source.regionMatches(i + 1, sep, 1, sepLen - 1)) return i;
+        return -1;
+    }
+
+    /**
+     * Get the end index of a condition part which starts at {@code start}; that is, either the index of the next
+     * condition part separator, or {@code end} if there isn't one.
+     */
+    private static int endOfPart(String source, int start, int end) {
+        int sep = indexOf(source, C_SEP, start, end);
+        return sep == -1 ? end : sep;
+    }
+
+    /**
+     * Check whether the range [{@code start}, {@code end}) of {@code source} consists of nothing but repetitions of
+     * {@code sep}.
+     */
+    private static boolean isRepeated(String source, String sep, int start, int end) {
+        if ((end - start) % sep.length() != 0) return false;
+        for (int i = start; i < end; i += sep.length()) if (!source.startsWith(sep, i)) return false;
+        return true;
+    }
+
+    /**
+     * Check whether the range [{@code start}, {@code end}) of {@code source} is equal to {@code s}.
+     */
+    private static boolean regionEquals(String source, int start, int end, String s) {
+        return end - start == s.length() && source.regionMatches(start, s, 0, s.length());
+    }
+
+    /**
+     * Parse the range [{@code start}, {@code end}) of {@code source} as a base 10 long without creating a substring.
+     * Accepts the same input as {@link Long#parseLong(String)}.
+     */
+    private static long parseLong(String source, int start, int end) {
+        if (start >= end) throw numberFormatEx(source, start, end);
+        int i = start;
+        boolean negative = false;
+        char c = source.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++i == end) throw numberFormatEx(source, start, end);
+        }
+        // Accumulate negatively, since the magnitude of Long.MIN_VALUE is one greater than Long.MAX_VALUE.
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = source.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) throw numberFormatEx(source, start, end);
+            result *= 10;
+            if (result < limit + digit) throw numberFormatEx(source, start, end);
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private static NumberFormatException numberFormatEx(String source, int start, int end) {
+        return new NumberFormatException(String.format("For input string: \"%s\"", source.substring(start, end)));
+    }
+}
@@ -19,7 +19,7 @@ public class ReadableStringUtils {
      * @return Visible field name.
      */
     public static String visibleFieldNameFrom(Condition condition) {
-        return Ruqus.visibleFieldFromField(condition.getRealmClass(), condition.getField());
+        return condition.getVisibleField();
     }
 
     /**
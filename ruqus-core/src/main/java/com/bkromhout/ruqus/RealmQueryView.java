@@ -15,9 +15,8 @@ import com.afollestad.materialdialogs.MaterialDialog;
 import io.realm.Realm;
 import io.realm.Sort;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
+import java.text.ParseException;
+import java.util.*;
 import java.util.regex.Pattern;
 
 /**
@@ -29,6 +28,8 @@ import java.util.regex.Pattern;
 public final class RealmQueryView extends FrameLayout {
     private static final String ARG_STR_SEP = ";";
     private static final Pattern ARG_STR_SEP_PATTERN = Pattern.compile("\\Q" + ARG_STR_SEP + "\\E");
+    private static final Pattern LINE_SEP_PATTERN = Pattern.compile("\\r?\\n");
+    private static final Pattern VAR_ARGS_SEP_PATTERN = Pattern.compile("[\\s,]+");
 
     /**
      * Implementers will be notified if a {@link RealmQueryView} they register with changes modes.
@@ -130,9 +131,15 @@ public final class RealmQueryView extends FrameLayout {
      */
     private FieldType currFieldType;
     /**
-     * List of visible names of transformers which will accept {@link #currFieldType}.
+     * List of visible names of transformers which will accept {@link #currFieldType}, preceded by {@link
+     * Ruqus.Res#CHOOSE_CONDITIONAL}. Don't modify it; it's shared through {@link #transNamesByType}.
      */
-    private ArrayList<String> currVisibleTransNames;
+    private List<String> currVisibleTransNames;
+    /**
+     * Lists of visible names of transformers which accept each field type, each preceded by {@link
+     * Ruqus.Res#CHOOSE_CONDITIONAL}. Built as they're needed, so that changing fields doesn't involve any copying.
+     */
+    private final EnumMap<FieldType, List<String>> transNamesByType = new EnumMap<>(FieldType.class);
     /**
      * Real name of the transformer/conditional currently selected in the condition builder.
      */
@@ -277,6 +284,7 @@ public final class RealmQueryView extends FrameLayout {
      * @param attrs   Attributes.
      */
     private void init(Context context, AttributeSet attrs) {
+        Ruqus.ensureInit();
         inflate(context, R.layout.realm_query_view, this);
 
         // Find main mode views.
@@ -656,10 +664,10 @@ public final class RealmQueryView extends FrameLayout {
         currClassName = realName;
         currVisibleFlatFieldNames = Ruqus.visibleFlatFieldsForClass(currClassName);
         Collections.sort(currVisibleFlatFieldNames);
-        currVisibleFlatFieldNames.add(0, Ruqus.CHOOSE_FIELD);
+        currVisibleFlatFieldNames.add(0, Ruqus.Res.CHOOSE_FIELD);
         currVisibleNonRealmFieldNames = Ruqus.visibleNonRealmFieldsForClass(currClassName);
         Collections.sort(currVisibleNonRealmFieldNames);
-        currVisibleNonRealmFieldNames.add(0, Ruqus.CHOOSE_FIELD);
+        currVisibleNonRealmFieldNames.add(0, Ruqus.Res.CHOOSE_FIELD);
 
         // Set condition builder field chooser's adapter.
         fieldChooser.setAdapter(new ArrayAdapter<>(getContext(), android.R.layout.simple_spinner_dropdown_item,
@@ -682,8 +690,7 @@ public final class RealmQueryView extends FrameLayout {
      * @param currVal The text which is currently on the card, or null if the card is in outline mode.
      */
     private void onOperatorClicked(final int index, final String currVal) {
-        ArrayList<String> noArgTransformers = Ruqus.getTransformerData().getVisibleNoArgNames();
-        Collections.sort(noArgTransformers);
+        List<String> noArgTransformers = Ruqus.getTransformerData().getVisibleNoArgNames();
         new MaterialDialog.Builder(getContext())
                 .title(index == partsCont.getChildCount() - 1 ? R.string.ruqus_add_operator :
                         R.string.ruqus_change_operator)
@@ -864,7 +871,7 @@ public final class RealmQueryView extends FrameLayout {
                 for (Integer sortFieldViewId : sortFieldViewIds) {
                     String field = ((SortFieldView) builderParts.findViewById(sortFieldViewId)).getRealField();
                     // Ensure none of the sort fields are the default "Choose Field" string.
-                    if (Ruqus.CHOOSE_FIELD.equals(field)) {
+                    if (Ruqus.Res.CHOOSE_FIELD.equals(field)) {
                         Toast.makeText(getContext(), R.string.ruqus_error_some_sort_fields_not_chosen,
                                 Toast.LENGTH_LONG).show();
                         return;
@@ -1009,7 +1016,7 @@ public final class RealmQueryView extends FrameLayout {
         @Override
         public void onNothingSelected(AdapterView<?> parent) {
             if (isTouching) {
-                onFieldChooserItemSelected(Ruqus.CHOOSE_FIELD, false);
+                onFieldChooserItemSelected(Ruqus.Res.CHOOSE_FIELD, false);
                 isTouching = false;
             }
         }
@@ -1053,7 +1060,7 @@ public final class RealmQueryView extends FrameLayout {
      * @param selStr Selected item string.
      */
     private void onFieldChooserItemSelected(String selStr, boolean manual) {
-        if (Ruqus.CHOOSE_FIELD.equals(selStr)) {
+        if (Ruqus.Res.CHOOSE_FIELD.equals(selStr)) {
             currFieldName = null;
             currFieldType = null;
             currVisibleTransNames = null;
@@ -1075,9 +1082,7 @@ public final class RealmQueryView extends FrameLayout {
             currFieldType = Ruqus.typeEnumForField(currClassName, currFieldName);
 
             // Get the list of visible names for all transformers which accept the given field type.
-            currVisibleTransNames = Ruqus.getTransformerData().getVisibleNames(currFieldType.getClazz());
-            Collections.sort(currVisibleTransNames);
-            currVisibleTransNames.add(0, Ruqus.CHOOSE_CONDITIONAL);
+            currVisibleTransNames = transNamesFor(currFieldType);
 
             // Create an array adapter from it.
             ArrayAdapter<String> conditionalAdapter = new ArrayAdapter<>(getContext(),
@@ -1091,13 +1096,32 @@ public final class RealmQueryView extends FrameLayout {
         }
     }
 
+    /**
+     * Get the list of visible names of transformers which accept {@code fieldType}, preceded by {@link
+     * Ruqus.Res#CHOOSE_CONDITIONAL}.
+     * @param fieldType Field type.
+     * @return Unmodifiable list of visible transformer names.
+     */
+    private List<String> transNamesFor(FieldType fieldType) {
+        List<String> transNames = transNamesByType.get(fieldType);
+        if (transNames == null) {
+            // The transformer data's lists are already sorted, so all we need to do is add the "choose" string.
+            List<String> sorted = Ruqus.getTransformerData().getVisibleNames(fieldType);
+            ArrayList<String> withChoose = new ArrayList<>(sorted.size() + 1);
+            withChoose.add(Ruqus.Res.CHOOSE_CONDITIONAL);
+            withChoose.addAll(sorted);
+            transNames = Collections.unmodifiableList(withChoose);
+            transNamesByType.put(fieldType, transNames);
+        }
+        return transNames;
+    }
 
     /**
      * Called when an item is selected in the condition builder conditional chooser.
      * @param selStr Selected item string.
      */
     private void onConditionalChooserItemSelected(String selStr, boolean manual) {
-        if (Ruqus.CHOOSE_CONDITIONAL.equals(selStr)) {
+        if (Ruqus.Res.CHOOSE_CONDITIONAL.equals(selStr)) {
             currTransName = null;
             updateArgViews();
             return;
@@ -1125,6 +1149,16 @@ public final class RealmQueryView extends FrameLayout {
 
         // Add views based on the field type and the number of arguments that the transformer accepts.
         int numArgs = Ruqus.numberOfArgsFor(currTransName);
+        if (numArgs == C.VAR_ARGS) {
+            // Transformers which take any number of arguments get a single view which the user can type (or paste)
+            // all of the values into.
+            final int id = Util.getUniqueViewId();
+            EditText etVarArgs = (EditText) View.inflate(getContext(), R.layout.et_var_args, null);
+            etVarArgs.setId(id);
+            builderParts.addView(etVarArgs);
+            argViewIds.add(id);
+            return;
+        }
         for (int i = 0; i < numArgs; i++) {
             final int id = Util.getUniqueViewId();
             switch (currFieldType) {
@@ -1168,6 +1202,15 @@ public final class RealmQueryView extends FrameLayout {
      */
     private void fillArgViews(Object[] args) {
         if (args == null) return;
+        if (isVarArgs()) {
+            StringBuilder builder = new StringBuilder();
+            for (Object arg : args) {
+                if (builder.length() > 0) builder.append('\n');
+                builder.append(ReadableStringUtils.argToString(currFieldType, arg));
+            }
+            ((TextView) builderParts.findViewById(argViewIds.get(0))).setText(builder);
+            return;
+        }
         for (int i = 0; i < args.length && i < argViewIds.size(); i++) {
             View view = builderParts.findViewById(argViewIds.get(i));
 
@@ -1199,6 +1242,10 @@ public final class RealmQueryView extends FrameLayout {
      */
     private void restoreArgViews(String argsString) {
         if (argsString == null || argsString.isEmpty()) return;
+        if (isVarArgs()) {
+            ((TextView) builderParts.findViewById(argViewIds.get(0))).setText(argsString);
+            return;
+        }
         String[] args = ARG_STR_SEP_PATTERN.split(argsString);
         for (int i = 0; i < args.length && i < argViewIds.size(); i++) {
             View view = builderParts.findViewById(argViewIds.get(i));
@@ -1227,6 +1274,7 @@ public final class RealmQueryView extends FrameLayout {
      * @return Array of input values as Objects, or null if any input values are invalid.
      */
     private Object[] getArgsIfValid() {
+        if (isVarArgs()) return getVarArgsIfValid((EditText) builderParts.findViewById(argViewIds.get(0)));
         Object[] args = new Object[argViewIds.size()];
         for (int i = 0; i < argViewIds.size(); i++) {
             View argView = builderParts.findViewById(argViewIds.get(i));
@@ -1316,12 +1364,71 @@ public final class RealmQueryView extends FrameLayout {
         return args;
     }
 
+    /**
+     * Attempts to validate the values that the user has provided in the var-args view, and returns them if they pass.
+     * Values are separated by line breaks; for number and boolean fields, they may also be separated by commas or
+     * spaces.
+     * @param etVarArgs Var-args view.
+     * @return Array of input values as Objects, or null if there aren't any, or if any of them are invalid.
+     */
+    private Object[] getVarArgsIfValid(EditText etVarArgs) {
+        boolean byLine = currFieldType == FieldType.STRING || currFieldType == FieldType.DATE;
+        String[] parts = (byLine ? LINE_SEP_PATTERN : VAR_ARGS_SEP_PATTERN).split(etVarArgs.getText().toString());
+        ArrayList<Object> args = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            if (currFieldType != FieldType.STRING) part = part.trim();
+            if (part.isEmpty()) continue;
+            Object arg = parseVarArg(part);
+            if (arg == null) {
+                etVarArgs.setError(getContext().getString(R.string.ruqus_error_invalid_value, part));
+                return null;
+            }
+            args.add(arg);
+        }
+        if (args.isEmpty()) {
+            etVarArgs.setError(getContext().getString(R.string.ruqus_error_empty_input));
+            return null;
+        }
+        return args.toArray();
+    }
+
+    /**
+     * Parse a single value from the var-args view based on {@link #currFieldType}.
+     * @param part String to parse.
+     * @return Parsed value, or null if {@code part} isn't valid.
+     */
+    private Object parseVarArg(String part) {
+        switch (currFieldType) {
+            case BOOLEAN:
+                return "true".equalsIgnoreCase(part) ? Boolean.TRUE : "false".equalsIgnoreCase(part) ? Boolean.FALSE
+                        : null;
+            case DATE:
+                try {
+                    return Util.dateFormat.parse(part);
+                } catch (ParseException e) {
+                    return null;
+                }
+            case STRING:
+                return part;
+            default:
+                return FieldType.parseNumberIfPossible(currFieldType, part);
+        }
+    }
+
+    /**
+     * @return Whether the current transformer accepts a variable number of arguments.
+     */
+    private boolean isVarArgs() {
+        return currTransName != null && Ruqus.numberOfArgsFor(currTransName) == C.VAR_ARGS;
+    }
+
     /**
      * Get the condition builder arg views' contents as a string so that we can restore them later.
      * @return String which we have stashed our arg views' contents in.
      * @see #restoreArgViews(String)
      */
     private String stashableArgsString() {
+        if (isVarArgs()) return ((EditText) builderParts.findViewById(argViewIds.get(0))).getText().toString();
         StringBuilder builder = new StringBuilder();
         for (int i = 0; i < argViewIds.size(); i++) {
             View argView = builderParts.findViewById(argViewIds.get(i));
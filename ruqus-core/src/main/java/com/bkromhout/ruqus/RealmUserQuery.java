@@ -4,12 +4,14 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import com.squareup.phrase.ListPhrase;
 import io.realm.Realm;
+import io.realm.RealmChangeListener;
 import io.realm.RealmModel;
 import io.realm.RealmResults;
 import io.realm.Sort;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.List;
 
 import static com.bkromhout.ruqus.Condition.Type.*;
 import static com.bkromhout.ruqus.ReadableStringUtils.isAnyOf;
@@ -19,15 +21,6 @@ import static com.bkromhout.ruqus.ReadableStringUtils.isNoneOf;
  * Used to let end-users build Realm Queries by wrapping {@link io.realm.RealmQuery}.
  */
 public class RealmUserQuery implements Parcelable {
-    private static final String PART_SEP = "#$_Ruqus_RUQ_$#";
-    private static final String COND_SEP = "#$_Condition_$#";
-    private static final String SORT_SEP = "#$_Sort_$#";
-    private static final String SORT_SUB_SEP = "<<>>";
-    private static final Pattern PART_SEP_PATTERN = Pattern.compile("\\Q" + PART_SEP + "\\E");
-    private static final Pattern COND_SEP_PATTERN = Pattern.compile("\\Q" + COND_SEP + "\\E");
-    private static final Pattern SORT_SEP_PATTERN = Pattern.compile("\\Q" + SORT_SEP + "\\E");
-    private static final Pattern SORT_SUB_SEP_PATTERN = Pattern.compile("\\Q" + SORT_SUB_SEP + "\\E");
-
     /**
      * Type of object which will be returned by the query.
      */
@@ -44,6 +37,24 @@ public class RealmUserQuery implements Parcelable {
      * List of sort directions.
      */
     private ArrayList<Sort> sortDirs;
+    /**
+     * Incremented each time the query class or sorts are changed using one of our setters.
+     */
+    private int modCount = 0;
+    /**
+     * The value which {@link #modCount} had when {@link #lastValidity} was computed, or -1 if it hasn't been yet.
+     * Volatile, and always written after {@link #lastValidity}, so that threads which see it also see the result.
+     */
+    private volatile int validatedModCount = -1;
+    /**
+     * Result of the last check of the query class and sort fields; only meaningful if {@link #validatedModCount} equals
+     * {@link #modCount}.
+     */
+    private boolean lastValidity;
+    /**
+     * Fingerprint from the last call to {@link #fingerprint()}, which is reused for as long as it's current.
+     */
+    private volatile QueryFingerprint lastFingerprint = null;
 
     /**
      * Create a new {@link RealmUserQuery}.
@@ -64,36 +75,10 @@ public class RealmUserQuery implements Parcelable {
         if (ruqString == null || ruqString.isEmpty())
             throw new IllegalArgumentException("ruqString must ne non-null and non-empty");
 
-        // Split RUQ string into parts, make sure we have all of them.
-        String[] parts = PART_SEP_PATTERN.split(ruqString);
-        if (!(parts.length == 1 && ruqString.endsWith(PART_SEP + PART_SEP)) &&
-                !(parts.length == 2 && ruqString.endsWith(PART_SEP)) && parts.length != 3)
-            throw new IllegalArgumentException("ruqString is missing parts.");
-
-        // Figure out query class.
-        if (parts[0].isEmpty()) throw new IllegalArgumentException("Query class part must not be empty.");
-        queryClass = Ruqus.getClassFromName(parts[0]);
-
-        // Figure out Conditions.
         conditions = new ArrayList<>();
-        if (parts.length > 1 && !parts[1].isEmpty()) {
-            String[] condStrings = COND_SEP_PATTERN.split(parts[1]);
-            for (String condString : condStrings) conditions.add(new Condition(condString));
-        }
-
-        // Figure out sort fields and directions.
         sortFields = new ArrayList<>();
         sortDirs = new ArrayList<>();
-        if (parts.length > 2 && !parts[2].isEmpty()) {
-            String[] sortStrings = SORT_SEP_PATTERN.split(parts[2]);
-            for (String sortString : sortStrings) {
-                String[] sortStringParts = SORT_SUB_SEP_PATTERN.split(sortString);
-                if (sortStringParts.length != 2)
-                    throw new IllegalArgumentException(String.format("Invalid sort string \"%s\".", sortString));
-                sortFields.add(sortStringParts[0]);
-                sortDirs.add(sortStringParts[1].equals("ASC") ? Sort.ASCENDING : Sort.DESCENDING);
-            }
-        }
+        RUQStringCodec.read(ruqString, this);
     }
 
     /**
@@ -116,8 +101,9 @@ public class RealmUserQuery implements Parcelable {
      * Set the type of object this query should return.
      * @param typeClass Class of type to return.
      */
-    private void setQueryClass(Class<? extends RealmModel> typeClass) {
+    void setQueryClass(Class<? extends RealmModel> typeClass) {
         queryClass = typeClass;
+        modCount++;
     }
 
     /**
@@ -137,17 +123,16 @@ public class RealmUserQuery implements Parcelable {
     }
 
     /**
-     * Set the sort fields and directions. Lists must be of the same size, and must contain from 0 to 3 elements each.
+     * Set the sort fields and directions. Lists must be of the same size.
      * @param sortFields Fields to use to sort the results of this query.
      * @param sortDirs   Directions to sort in.
      */
     void setSorts(ArrayList<String> sortFields, ArrayList<Sort> sortDirs) {
         if (sortFields == null || sortDirs == null || sortFields.size() != sortDirs.size())
             throw new IllegalArgumentException("Neither list may be null, and they must be of the same size.");
-        if (sortFields.size() > 3)
-            throw new IllegalArgumentException("A maximum of 3 fields may be used for sorting.");
         this.sortFields = sortFields;
         this.sortDirs = sortDirs;
+        modCount++;
     }
 
     /**
@@ -167,23 +152,43 @@ public class RealmUserQuery implements Parcelable {
     }
 
     /**
-     * Checks whether the query is currently in a valid state.
+     * Checks whether the query is currently in a valid state. As well as each condition being valid, the conditions
+     * must be well-formed: groups must be balanced, each {@code Not} must be followed by a condition or group, and each
+     * {@code Or} must be between two conditions or groups.
      * @return True if this could be executed, otherwise false.
      */
     public boolean isQueryValid() {
+        // Checks for realmClass and sort fields, which we only re-check if they've been changed since the last time.
+        if (validatedModCount != modCount) {
+            lastValidity = areClassAndSortsValid();
+            validatedModCount = modCount;
+        }
+        if (!lastValidity) return false;
+        // Checks for conditions. Conditions cache their own validity, so this is cheap unless they've been changed.
+        for (Condition condition : conditions) if (!condition.isValid()) return false;
+        // Checks that groups are balanced and operators are in places where they make sense.
+        return QueryNode.findMalformed(conditions) == -1;
+    }
+
+    /**
+     * Checks whether the query class and sort fields are valid.
+     * @return True if they are, otherwise false.
+     */
+    private boolean areClassAndSortsValid() {
         // Checks for realmClass.
         if (!Ruqus.knowsOfClass(queryClass) || !Ruqus.isClassQueryable(queryClass)) return false;
-        // Checks for sort fields.
+        // Checks for sort fields. Neither Realm nor InMemorySorter can sort by fields which go through a RealmList.
+        String realmClass = queryClass.getSimpleName();
         for (String sortField : sortFields)
-            if (!Ruqus.classHasField(queryClass.getSimpleName(), sortField)) return false;
-        // Checks for conditions.
-        for (Condition condition : conditions) if (!condition.isValid()) return false;
-        // We're good.
+            if (!Ruqus.classHasField(realmClass, sortField) || Ruqus.isToManyField(realmClass, sortField)) return false;
         return true;
     }
 
     /**
      * Execute this query and return the results.
+     * <p>
+     * Realm can't sort by link fields, so if any of the sort fields are link fields (e.g., "dog.age"), use {@link
+     * #executeToList(Realm)} instead.
      * @param realm Instance of Realm to use to execute query.
      * @return RealmResults, or null if query is invalid.
      */
@@ -196,6 +201,159 @@ public class RealmUserQuery implements Parcelable {
         return (RealmResults<E>) RUQExecutor.get(queryClass, this).executeQuery(realm);
     }
 
+    /**
+     * Execute this query and return the results as a list.
+     * <p>
+     * Unlike {@link #execute(Realm)}, this works when some of the sort fields are link fields (e.g., "dog.age"), which
+     * Realm can't sort by itself; in that case the results are sorted in memory. Either way, the returned list is a new
+     * {@link java.util.ArrayList} holding the results as they were when this was called, which (unlike {@link
+     * RealmResults}) isn't updated when the realm changes.
+     * <p>
+     * Strings which are sorted in memory are compared using {@link String#compareTo(String)}, which doesn't always
+     * match the order Realm sorts them in (for example, for letters which differ only in case, or which have accents).
+     * @param realm Instance of Realm to use to execute query.
+     * @return List of results, or null if query is invalid.
+     */
+    public <E extends RealmModel> List<E> executeToList(Realm realm) {
+        return executeToList(realm, -1);
+    }
+
+    /**
+     * Like {@link #executeToList(Realm)}, but only returns the first {@code limit} results. When the results have to be
+     * sorted in memory, only that many are ever kept in order, which is much cheaper than sorting all of them.
+     * @param realm Instance of Realm to use to execute query.
+     * @param limit Maximum number of results to return, or a negative number to return all of them.
+     * @return List of results, or null if query is invalid.
+     */
+    public <E extends RealmModel> List<E> executeToList(Realm realm, int limit) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (!isQueryValid()) return null;
+        // noinspection unchecked
+        return (List<E>) RUQExecutor.get(queryClass, this).executeToList(realm, limit);
+    }
+
+    /**
+     * Get one page of this query's results.
+     * <p>
+     * Paging is keyset-based: {@code after} holds the sort field values of the last object on the previous page, and
+     * the next page starts right after them, so fetching a page deep into the results costs about the same as fetching
+     * the first one. If Realm can sort by all of the sort fields and none of them are string fields, it sorts the
+     * results and only the objects around the page are read. Otherwise, the results are sorted in memory, the same way
+     * {@link #executeToList(Realm)} sorts them when some of the sort fields are link fields, and only {@code pageSize}
+     * of them are ever kept in order.
+     * <p>
+     * Since strings are always sorted in memory here, they're compared using {@link String#compareTo(String)}, so pages
+     * may list objects in a different order than {@link #execute(Realm)} does. Each page is found using the same order
+     * that it was sorted in, though, so that never causes objects to be skipped or repeated.
+     * <p>
+     * If the query class has a primary key, it's used to break ties between objects with the same sort field values,
+     * so cursors stay exact even if the realm is changed between pages; see {@link PageCursor}.
+     * <p>
+     * Cursors can be stored alongside the query using {@link PageCursor#toCursorString()}.
+     * @param realm    Instance of Realm to use to execute query.
+     * @param pageSize Maximum number of results to return. Must be positive.
+     * @param after    Cursor from the previous page's {@link RUQPage#getNextCursor()}, or null to get the first page.
+     * @return Page of results, or null if query is invalid.
+     */
+    public <E extends RealmModel> RUQPage<E> executePage(Realm realm, int pageSize, PageCursor after) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive.");
+        if (!isQueryValid()) return null;
+        // noinspection unchecked
+        return (RUQPage<E>) RUQExecutor.get(queryClass, this).executePage(realm, pageSize, after);
+    }
+
+    /**
+     * Execute this query asynchronously. The returned results will not be loaded yet; use {@link
+     * RealmResults#isLoaded()} to check, or add a listener to be notified once they are (or use {@link
+     * #executeAsync(Realm, RealmChangeListener)}, which does that for you).
+     * <p>
+     * Since this uses Realm's asynchronous query methods, it must be called from a thread which has a Looper.
+     * @param realm Instance of Realm to use to execute query.
+     * @return Not-yet-loaded RealmResults, or null if query is invalid.
+     */
+    public <E extends RealmModel> RealmResults<E> executeAsync(Realm realm) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (!isQueryValid()) return null;
+        // noinspection unchecked
+        return (RealmResults<E>) RUQExecutor.get(queryClass, this).executeQueryAsync(realm);
+    }
+
+    /**
+     * Execute this query asynchronously, and add {@code listener} to the returned results so that it is notified once
+     * they have loaded (and whenever they change afterwards). Callers should remove the listener when they no longer
+     * need it.
+     * @param realm    Instance of Realm to use to execute query.
+     * @param listener Listener to add to the returned results.
+     * @return Not-yet-loaded RealmResults, or null if query is invalid (in which case the listener isn't added).
+     * @see #executeAsync(Realm)
+     */
+    public <E extends RealmModel> RealmResults<E> executeAsync(Realm realm,
+                                                             RealmChangeListener<RealmResults<E>> listener) {
+        if (listener == null) throw new IllegalArgumentException("listener must be non-null.");
+        RealmResults<E> results = executeAsync(realm);
+        if (results != null) results.addChangeListener(listener);
+        return results;
+    }
+
+    /**
+     * Count the number of objects which match this query.
+     * <p>
+     * This is much cheaper than calling {@code execute(realm).size()}, since the query's sort fields are ignored and no
+     * results are materialized.
+     * @param realm Instance of Realm to use to execute query.
+     * @return Number of matching objects, or -1 if query is invalid.
+     */
+    public long count(Realm realm) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (!isQueryValid()) return -1;
+        return RUQExecutor.get(queryClass, this).count(realm);
+    }
+
+    /**
+     * Check whether any objects match this query. Like {@link #count(Realm)}, this ignores the query's sort fields.
+     * @param realm Instance of Realm to use to execute query.
+     * @return True if at least one object matches, or false if none do or if query is invalid.
+     */
+    public boolean exists(Realm realm) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        return isQueryValid() && RUQExecutor.get(queryClass, this).exists(realm);
+    }
+
+    /**
+     * Find the first object which matches this query.
+     * <p>
+     * The query's sort fields are ignored, so which object is returned when several match is undefined; use {@link
+     * #execute(Realm)} if the order matters.
+     * @param realm Instance of Realm to use to execute query.
+     * @return First matching object, or null if none match or if query is invalid.
+     */
+    public <E extends RealmModel> E findFirst(Realm realm) {
+        if (realm == null || realm.isClosed())
+            throw new IllegalArgumentException("realm must be non-null and not closed.");
+        if (!isQueryValid()) return null;
+        // noinspection unchecked
+        return (E) RUQExecutor.get(queryClass, this).findFirst(realm);
+    }
+
+    /**
+     * Compile this query into a {@link CompiledQuery}, which can be executed repeatedly without re-validating the query
+     * or re-resolving its transformers each time.
+     * <p>
+     * The returned object is a snapshot; changes made to this query after calling this will not affect it.
+     * @return Compiled query, or null if query is invalid.
+     */
+    public <E extends RealmModel> CompiledQuery<E> compile() {
+        if (!isQueryValid()) return null;
+        // noinspection unchecked
+        return new CompiledQuery<>((Class<E>) queryClass, this);
+    }
+
     /**
      * Get a human-readable version of this query, suitable for displaying for the user.
      * <p>
@@ -273,6 +431,53 @@ public class RealmUserQuery implements Parcelable {
         return sorts;
     }
 
+    /**
+     * Describe the order in which this query's conditions are applied when it's executed, for debugging.
+     * <p>
+     * Before a query is executed, its conditions are rewritten into an equivalent set of conditions which is cheaper to
+     * apply: redundant structure (such as double negations, empty groups, and duplicate conditions) is removed,
+     * comparisons on the same field are merged (for example, into a single {@code Between} condition), chains of {@code
+     * EqualTo} conditions joined by {@code Or} may be replaced by {@code In} conditions, and conditions which are
+     * AND-ed together are reordered so that cheap ones (such as equality checks on indexed fields) come before
+     * expensive ones (such as substring checks on linked fields). Results are never affected.
+     * <p>
+     * If the conditions contradict each other (for example, a field must be both greater than 10 and less than 5), the
+     * query can't match anything, so methods such as {@link #count(Realm)} and {@link #executeToList(Realm)} return
+     * empty results without touching Realm.
+     * @return Description of the rewritten conditions, one per line along with their estimated costs, or null if query
+     * is invalid.
+     */
+    public String explain() {
+        if (!isQueryValid()) return null;
+        return QueryRewriter.explain(QueryRewriter.rewrite(conditions));
+    }
+
+    /**
+     * Get a 64-bit fingerprint of this query's structure: its query class, conditions (including their args), and sort
+     * fields. Queries which would return the same results in the same order generally have the same fingerprint, even
+     * if one has a chain of {@code EqualTo} conditions where the other has a single {@code In} condition, for example.
+     * <p>
+     * Fingerprints are stable across app launches, so they can be stored; they are used as keys by {@link
+     * RUQResultCache}. Different queries can have the same fingerprint, though it's very unlikely.
+     * <p>
+     * The fingerprint is only computed again if the query has been changed since the last time this was called.
+     * @return Fingerprint of this query.
+     */
+    public long fingerprint() {
+        return getFingerprint().getHash();
+    }
+
+    /**
+     * Same as {@link #fingerprint()}, but also gives access to the normalized form which was hashed.
+     * @return Fingerprint of this query.
+     */
+    QueryFingerprint getFingerprint() {
+        QueryFingerprint fp = lastFingerprint;
+        if (fp == null || !fp.isCurrent(conditions, modCount))
+            lastFingerprint = fp = QueryFingerprint.of(this, modCount);
+        return fp;
+    }
+
     /**
      * Get a string which holds all of the information needed to create a {@link RealmUserQuery} identical to this one.
      * This string is not something which should be shown to users, it is intended to be stored somewhere so that it can
@@ -284,33 +489,48 @@ public class RealmUserQuery implements Parcelable {
     @SuppressWarnings("unused")
     public String toRuqString() {
         if (!isQueryValid()) return null;
-        StringBuilder builder = new StringBuilder();
+        return RUQStringCodec.write(this);
+    }
 
-        // Write out query class's name.
-        builder.append(queryClass.getSimpleName())
-               .append(PART_SEP);
+    /**
+     * Get a compact binary version of {@link #toRuqString()}. It holds exactly the same information, but is much
+     * smaller and faster to decode, which makes it better suited to storing or syncing large numbers of queries.
+     * <p>
+     * This will return null if the query isn't currently in a valid state.
+     * @return Internal binary representation of this query.
+     * @see #fromBytes(byte[])
+     */
+    @SuppressWarnings("unused")
+    public byte[] toRuqBytes() {
+        if (!isQueryValid()) return null;
+        return RUQBinaryCodec.write(this);
+    }
 
-        // Write out condition strings.
-        if (!conditions.isEmpty()) {
-            for (Condition condition : conditions)
-                builder.append(condition.toConditionString())
-                       .append(COND_SEP);
-            builder.delete(builder.lastIndexOf(COND_SEP), builder.length());
-        }
-        builder.append(PART_SEP);
-
-        // Write out sort strings.
-        if (!sortFields.isEmpty()) {
-            for (int i = 0; i < sortFields.size(); i++) {
-                builder.append(sortFields.get(i))
-                       .append(SORT_SUB_SEP)
-                       .append(sortDirs.get(i) == Sort.ASCENDING ? "ASC" : "DESC")
-                       .append(SORT_SEP);
-            }
-            builder.delete(builder.lastIndexOf(SORT_SEP), builder.length());
-        }
+    /**
+     * Create a new {@link RealmUserQuery} from a binary version of a realm user query.
+     * @param ruqBytes Bytes obtained from {@link #toRuqBytes()}.
+     * @return New query.
+     */
+    @SuppressWarnings("unused")
+    public static RealmUserQuery fromBytes(byte[] ruqBytes) {
+        if (ruqBytes == null || ruqBytes.length == 0)
+            throw new IllegalArgumentException("ruqBytes must be non-null and non-empty");
+        return fromBytes(ByteBuffer.wrap(ruqBytes));
+    }
 
-        return builder.toString();
+    /**
+     * Create a new {@link RealmUserQuery} from a binary version of a realm user query. Reading starts at the buffer's
+     * current position, and the position is left just after the end of the query.
+     * @param ruqBytes Buffer containing bytes obtained from {@link #toRuqBytes()}.
+     * @return New query.
+     */
+    @SuppressWarnings("unused")
+    public static RealmUserQuery fromBytes(ByteBuffer ruqBytes) {
+        if (ruqBytes == null || !ruqBytes.hasRemaining())
+            throw new IllegalArgumentException("ruqBytes must be non-null and non-empty");
+        RealmUserQuery ruq = new RealmUserQuery();
+        RUQBinaryCodec.read(ruqBytes, ruq);
+        return ruq;
     }
 
     /* Parcelable implementation. */
@@ -320,23 +540,23 @@ public class RealmUserQuery implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeSerializable(this.queryClass);
+        Condition.writeClassName(dest, this.queryClass == null ? null : this.queryClass.getSimpleName());
         dest.writeTypedList(conditions);
         dest.writeStringList(this.sortFields);
-        ArrayList<Integer> temp = new ArrayList<>();
-        for (Sort sortDir : this.sortDirs) temp.add(sortDir.ordinal());
-        dest.writeList(temp);
+        byte[] sortDirOrdinals = new byte[this.sortDirs.size()];
+        for (int i = 0; i < sortDirOrdinals.length; i++) sortDirOrdinals[i] = (byte) this.sortDirs.get(i).ordinal();
+        dest.writeByteArray(sortDirOrdinals);
     }
 
     RealmUserQuery(Parcel in) {
-        // noinspection unchecked
-        this.queryClass = (Class<? extends RealmModel>) in.readSerializable();
+        String queryClassName = Condition.readClassName(in);
+        this.queryClass = queryClassName == null ? null : Ruqus.getClassFromName(queryClassName);
         this.conditions = in.createTypedArrayList(Condition.CREATOR);
         this.sortFields = in.createStringArrayList();
-        this.sortDirs = new ArrayList<>();
-        ArrayList<Integer> temp = new ArrayList<>();
-        in.readList(temp, null);
-        for (Integer sortOrdinal : temp) this.sortDirs.add(Sort.values()[sortOrdinal]);
+        byte[] sortDirOrdinals = in.createByteArray();
+        Sort[] sorts = Sort.values();
+        this.sortDirs = new ArrayList<>(sortDirOrdinals.length);
+        for (byte sortOrdinal : sortDirOrdinals) this.sortDirs.add(sorts[sortOrdinal]);
     }
 
     public static final Parcelable.Creator<RealmUserQuery> CREATOR = new Parcelable.Creator<RealmUserQuery>() {
@@ -6,32 +6,48 @@ import android.support.v4.content.ContextCompat;
 import io.realm.RealmModel;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
 /**
  * Access to Ruqus information. This class mostly serves as a convenience class, using the instances of {@link
  * ClassData} and {@link TransformerData} objects that it holds in order to provide static methods which allow the rest
  * of the library to make on-liner calls as much as possible.
+ * <p>
+ * Once {@link #init(Context)} has returned, Ruqus's class and transformer data are immutable, and the caches which it
+ * fills in as it's used are concurrent maps. That means that {@link RealmUserQuery}s and {@link Condition}s may be
+ * validated, rendered, and executed from any thread, so long as each individual instance isn't modified while another
+ * thread is using it. (Realm's own threading rules still apply when executing queries.)
+ * <p>
+ * Ruqus may also be initialized on a background thread using {@link #initAsync(Context, RuqusIndex)}; in that case,
+ * anything which needs Ruqus's data will block until it has been loaded. Either way, the data for each model class's
+ * fields isn't loaded until it's first needed.
  */
 public class Ruqus {
-    private static final String KEY_SEP = "$";
     private static final String FLAT_SEP = ".";
     private static final String VIS_FLAT_SEP = ">";
-    private static final Pattern KEY_SEP_PATTERN = Pattern.compile("\\Q" + KEY_SEP + "\\E");
     private static final Pattern FLAT_SEP_PATTERN = Pattern.compile("\\Q" + FLAT_SEP + "\\E");
-    private static final Pattern VIS_SEP_PATTERN = Pattern.compile("\\Q" + VIS_FLAT_SEP + "\\E");
 
-    @ColorInt
-    static int LIGHT_TEXT_COLOR, LIGHT_TEXT_COLOR_ALT, DARK_TEXT_COLOR, DARK_TEXT_COLOR_ALT,
-            LIGHT_CARD_COLOR, LIGHT_CARD_COLOR_ALT, DARK_CARD_COLOR, DARK_CARD_COLOR_ALT;
-    static String CHOOSE_FIELD, CHOOSE_CONDITIONAL;
     /**
-     * Whether or not Ruqus.init() has already been called.
+     * Whether or not Ruqus.init() has already been called. Volatile so that it is safely published to other threads,
+     * along with everything which was set up before it was assigned.
      */
-    private static Ruqus INSTANCE = null;
+    private static volatile Ruqus INSTANCE = null;
+    /**
+     * If {@link #initAsync(Context, RuqusIndex)} has been called, this is counted down once the background thread has
+     * finished trying to initialize Ruqus.
+     */
+    private static volatile CountDownLatch initLatch = null;
+    /**
+     * If initializing Ruqus on a background thread failed, this is what it failed with.
+     */
+    private static volatile RuntimeException initFailure = null;
+    /**
+     * Application context, used to resolve resources the first time that they're needed.
+     */
+    private Context context;
     /**
      * Ruqus class information.
      */
@@ -41,15 +57,44 @@ public class Ruqus {
      */
     private TransformerData transformerData;
     /**
-     * Used to cache information to speed up converting a flat visible field name string to a flat real field name
-     * string.
+     * Used to cache information to speed up converting a flat visible field name to a flat real field name. Maps real
+     * class names to maps of flat visible field names to flat real field names.
      */
-    private HashMap<String, String> flatVisFieldToFlatField;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> flatVisFieldToFlatField =
+            new ConcurrentHashMap<>();
     /**
-     * Used to cache information to speed up converting a flat real field name to a field type.
+     * Used to cache information to speed up converting a flat real field name to a flat visible field name. Maps real
+     * class names to maps of flat real field names to flat visible field names.
      */
-    private HashMap<String, FieldType> flatFieldToFieldType;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> flatFieldToFlatVisField =
+            new ConcurrentHashMap<>();
+    /**
+     * Used to cache information to speed up converting a flat real field name to a field type. Maps real class names to
+     * maps of flat real field names to field types.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, FieldType>> flatFieldToFieldType =
+            new ConcurrentHashMap<>();
 
+    /**
+     * Create an instance using the generated classes referenced by {@code index}, which doesn't require reflection.
+     * @param index Generated index.
+     */
+    private Ruqus(RuqusIndex index) {
+        // Creating instances of the generated classes causes them to fill in their base classes' static variables.
+        classData = index.newClassData();
+        TransformerData[] allTransformerData = index.newTransformerData();
+        if (allTransformerData.length == 0)
+            throw ex("Could not find generated Ruqus transformer data, did the annotation processor run?");
+        transformerData = allTransformerData[allTransformerData.length - 1];
+
+        // Now that all of the generated classes have been loaded, make their data unmodifiable.
+        ClassData.freeze();
+        TransformerData.freeze();
+    }
+
+    /**
+     * Create an instance by finding the generated classes using reflection. Only used if there's no generated index.
+     */
     private Ruqus() {
         // Load the Ruqus class data object.
         try {
@@ -81,39 +126,121 @@ public class Ruqus {
                 else break;
             }
         }
-        // Create hashmaps to use for caching.
-        flatVisFieldToFlatField = new HashMap<>();
-        flatFieldToFieldType = new HashMap<>();
+        // Now that all of the generated classes have been loaded, make their data unmodifiable.
+        ClassData.freeze();
+        TransformerData.freeze();
     }
 
     /**
      * Initializes Ruqus. This must be called <i>once</i> before any of the other methods on {@link Ruqus} can be used,
      * and it requires reflection. It is recommended that it be called as early as possible in the application's
      * lifecycle.
+     * <p>
+     * Prefer {@link #init(Context, RuqusIndex)}, which doesn't require reflection.
+     * <p>
+     * It is safe to call this from multiple threads; only the first call will do anything.
      */
     public static void init(Context context) {
-        if (INSTANCE == null) {
-            INSTANCE = new Ruqus();
+        init(context, null);
+    }
 
-            LIGHT_TEXT_COLOR = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryLight);
-            LIGHT_TEXT_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryLightAlt);
-            DARK_TEXT_COLOR = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryDark);
-            DARK_TEXT_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryDarkAlt);
-            LIGHT_CARD_COLOR = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundLight);
-            LIGHT_CARD_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundLightAlt);
-            DARK_CARD_COLOR = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundDark);
-            DARK_CARD_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundDarkAlt);
+    /**
+     * Initializes Ruqus using the generated index, which allows Ruqus to load its generated data using plain
+     * constructor calls rather than reflection. This must be called <i>once</i> before any of the other methods on
+     * {@link Ruqus} can be used. It is recommended that it be called as early as possible in the application's
+     * lifecycle:
+     * <pre>{@code Ruqus.init(this, new Ruqus$$RuqusIndex());}</pre>
+     * It is safe to call this from multiple threads; only the first call will do anything.
+     * @param context Context.
+     * @param index   An instance of the generated {@code Ruqus$$RuqusIndex} class. If null, Ruqus will use reflection
+     *                to find its generated data instead.
+     */
+    public static void init(Context context, RuqusIndex index) {
+        if (INSTANCE != null) return;
+        synchronized (Ruqus.class) {
+            if (INSTANCE != null) return;
+            if (index == null) index = findIndex();
+            Ruqus ruqus = index != null ? new Ruqus(index) : new Ruqus();
+            // Colors and strings are resolved the first time they're used; see Res.
+            ruqus.context = context.getApplicationContext();
+
+            // Publish the instance last, so that other threads which see it also see everything above.
+            INSTANCE = ruqus;
+        }
+    }
 
-            CHOOSE_FIELD = context.getString(R.string.ruqus_choose_field);
-            CHOOSE_CONDITIONAL = context.getString(R.string.ruqus_choose_conditional);
+    /**
+     * Initializes Ruqus on a background thread, using reflection to find its generated data.
+     * <p>
+     * Prefer {@link #initAsync(Context, RuqusIndex)}, which doesn't require reflection.
+     * @param context Context.
+     */
+    public static void initAsync(Context context) {
+        initAsync(context, null);
+    }
+
+    /**
+     * Initializes Ruqus on a background thread, so that it doesn't hold up the calling thread. Other methods which need
+     * Ruqus's data may be called right away; they will simply block until it has been loaded. If initialization fails,
+     * those calls will throw what it failed with.
+     * <p>
+     * Calling this after Ruqus has already been initialized (or while it is already being initialized) does nothing.
+     * @param context Context.
+     * @param index   An instance of the generated {@code Ruqus$$RuqusIndex} class. If null, Ruqus will use reflection
+     *                to find its generated data instead.
+     * @see #init(Context, RuqusIndex)
+     */
+    public static void initAsync(Context context, final RuqusIndex index) {
+        synchronized (Ruqus.class) {
+            if (INSTANCE != null || initLatch != null) return;
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Context appContext = context.getApplicationContext();
+            initLatch = latch;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        init(appContext, index);
+                    } catch (RuntimeException e) {
+                        initFailure = e;
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }, "Ruqus-init").start();
+        }
+    }
+
+    /**
+     * Try to find and create an instance of the generated index using reflection.
+     * @return Generated index, or null if there isn't one.
+     */
+    private static RuqusIndex findIndex() {
+        try {
+            return (RuqusIndex) Class.forName(C.GEN_PKG_PREFIX + C.GEN_INDEX_CLASS_NAME).newInstance();
+        } catch (Exception e) {
+            return null;
         }
     }
 
     /**
-     * Ensures that {@link Ruqus#init(Context)} has been called.
+     * Ensures that {@link Ruqus#init(Context)} has been called. Views must call this before they use {@link Res}.
      */
-    private static void ensureInit() {
-        if (INSTANCE == null) throw ex("Ruqus.init() must be called first.");
+    static void ensureInit() {
+        if (INSTANCE != null) return;
+        // If Ruqus is being initialized in the background, wait for that to finish.
+        CountDownLatch latch = initLatch;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ex("Interrupted while waiting for Ruqus to be initialized.");
+            }
+            if (INSTANCE != null) return;
+            if (initFailure != null) throw initFailure;
+        }
+        throw ex("Ruqus.init() must be called first.");
     }
 
     static ClassData getClassData() {
@@ -200,6 +327,10 @@ public class Ruqus {
         FieldData fieldData = classData.getFieldData(realmClass);
         if (fieldData == null) throw ex("\"%s\" is not a valid realm object class name.", realmClass);
 
+        // Check the precomputed flat fields first, if we have them.
+        FlatFields flatFields = classData.getFlatFields(realmClass);
+        if (flatFields != null && flatFields.indexOf(field) != -1) return true;
+
         // Split field name up so that we can drill down to the end of any linked fields.
         String[] fieldParts = FLAT_SEP_PATTERN.split(field);
         for (String fieldPart : fieldParts) {
@@ -223,6 +354,49 @@ public class Ruqus {
         throw ex("Couldn't verify if \"%\" has field \"%s\".", realmClass, field);
     }
 
+    /**
+     * Check if a [flat-]field passes through a RealmList field at any point, in which case it may have many values for
+     * a single object of {@code realmClass}.
+     * @param realmClass Name of the RealmModel subclass which contains the {@code field}.
+     * @param field      Name of the field to check.
+     * @return True if any part of {@code field} other than the last is a RealmList field.
+     */
+    static boolean isToManyField(String realmClass, String field) {
+        if (field == null || field.isEmpty()) throw ex("field cannot be non-null or empty.");
+        ClassData classData = getClassData();
+        FieldData fieldData = classData.getFieldData(realmClass);
+        if (fieldData == null) throw ex("\"%s\" is not a valid realm object class name.", realmClass);
+
+        String[] fieldParts = FLAT_SEP_PATTERN.split(field);
+        for (int i = 0; i < fieldParts.length - 1; i++) {
+            if (fieldData.isRealmListType(fieldParts[i])) return true;
+            fieldData = linkedFieldData(classData, fieldData, fieldParts[i]);
+        }
+        return false;
+    }
+
+    /**
+     * Get the names of the classes which a [flat-]field links through, in order. For example, if {@code field} is
+     * "dog.owner.name", this would return something like ["Dog", "Person"].
+     * @param realmClass Name of the RealmModel subclass which contains the {@code field}.
+     * @param field      Name of the field.
+     * @return Names of linked classes, which will be empty if {@code field} isn't a flat-field.
+     */
+    static ArrayList<String> linkedClassesForField(String realmClass, String field) {
+        if (field == null || field.isEmpty()) throw ex("field cannot be non-null or empty.");
+        ClassData classData = getClassData();
+        FieldData fieldData = classData.getFieldData(realmClass);
+        if (fieldData == null) throw ex("\"%s\" is not a valid realm object class name.", realmClass);
+
+        ArrayList<String> classes = new ArrayList<>();
+        String[] fieldParts = FLAT_SEP_PATTERN.split(field);
+        for (int i = 0; i < fieldParts.length - 1; i++) {
+            classes.add(linkedClassName(fieldData, fieldParts[i]));
+            fieldData = linkedFieldData(classData, fieldData, fieldParts[i]);
+        }
+        return classes;
+    }
+
     /**
      * Get the enum type of a [flat-]field's type. If this is a flat-field (e.g., the immediate type on the class is a
      * RealmModel subclass or a RealmList of such), this will drill down to the end of the flat-field to get the type
@@ -241,8 +415,14 @@ public class Ruqus {
     static FieldType typeEnumForField(String realmClass, String field) {
         if (field == null || field.isEmpty()) throw ex("field cannot be non-null or empty.");
         ensureInit();
-        String key = realmClass + KEY_SEP + field;
-        if (INSTANCE.flatFieldToFieldType.containsKey(key)) return INSTANCE.flatFieldToFieldType.get(key);
+        // Check the precomputed flat fields first, if we have them.
+        FlatFields flatFields = getClassData().getFlatFields(realmClass);
+        int flatIdx = flatFields == null ? -1 : flatFields.indexOf(field);
+        if (flatIdx != -1) return flatFields.typeAt(flatIdx);
+
+        ConcurrentHashMap<String, FieldType> fieldTypes = cacheFor(INSTANCE.flatFieldToFieldType, realmClass);
+        FieldType cachedFieldType = fieldTypes.get(field);
+        if (cachedFieldType != null) return cachedFieldType;
         else {
             ClassData classData = getClassData();
             FieldData fieldData = classData.getFieldData(realmClass);
@@ -265,151 +445,277 @@ public class Ruqus {
                 }
             }
             FieldType fieldType = FieldType.fromClazz(fieldTypeClazz);
-            INSTANCE.flatFieldToFieldType.put(key, fieldType);
+            // Concurrent maps can't hold nulls, so we simply don't cache fields which don't have a field type.
+            if (fieldType != null) fieldTypes.put(field, fieldType);
             return fieldType;
         }
     }
 
-    /**
-     * Return a list of visible names for all fields on the given RealmModel subclass, except those which are a
-     * RealmModel subclass or RealmList type.
-     * @param realmClass Name of the RealmModel subclass.
-     * @return List of visible field names.
-     */
-    static ArrayList<String> visibleNonRealmFieldsForClass(String realmClass) {
-        FieldData fieldData = getFieldData(realmClass);
-        ArrayList<String> fields = fieldData.getFieldNames();
-        Iterator<String> fieldIterator = fields.iterator();
-        while (fieldIterator.hasNext()) {
-            String field = fieldIterator.next();
-            if (fieldData.isRealmListType(field) || fieldData.isRealmModelType(field)) fieldIterator.remove();
-        }
-        ArrayList<String> visFields = new ArrayList<>();
-        for (String field : fields) visFields.add(fieldData.visibleNameOf(field));
-        return visFields;
-    }
-
     /**
      * Return a list of visible names for all fields on the given RealmModel subclass, as well as any sub-fields (The
      * fields from any of {@code realmClass}'s fields whose types are either RealmModel subclass or RealmList).
+     * <p>
+     * Relationship fields are followed at most {@link Queryable#maxDepth()} times in a row, and never back to a class
+     * which has already been passed through. Use {@link #visibleChildFields(String, String)} to expand relationship
+     * fields one at a time instead.
      * @param realmClass Name of the RealmModel subclass.
      * @return List of visible flat field names.
      */
     static ArrayList<String> visibleFlatFieldsForClass(String realmClass) {
         ClassData classData = getClassData();
-        return _visibleFlatFieldsForClass(classData, classData.getFieldData(realmClass), "");
-    }
+        // Use the precomputed flat fields if we have them.
+        FlatFields flatFields = classData.getFlatFields(realmClass);
+        if (flatFields != null) return new ArrayList<>(flatFields.getVisiblePaths());
 
-    private static ArrayList<String> _visibleFlatFieldsForClass(ClassData classData, FieldData fieldData,
-                                                                String prepend) {
         ArrayList<String> vNames = new ArrayList<>();
+        HashSet<String> classPath = new HashSet<>();
+        classPath.add(realmClass);
+        _visibleFlatFieldsForClass(classData, realmClass, "", classData.getMaxDepth(realmClass), classPath, vNames);
+        return vNames;
+    }
+
+    private static void _visibleFlatFieldsForClass(ClassData classData, String realmClass, String prepend,
+                                                   int depthLeft, HashSet<String> classPath,
+                                                   ArrayList<String> vNames) {
+        FieldData fieldData = classData.getFieldData(realmClass);
+        if (fieldData == null) return;
         // Loop through real names.
         for (String name : fieldData.getFieldNames()) {
-            // Get visible name of field.
-            String visibleName = fieldData.visibleNameOf(name);
-            // Do something different based on field's type.
-            if (fieldData.isRealmListType(name)) {
-                // Field type is RealmList, recurse and get its visible names as well.
-                vNames.addAll(_visibleFlatFieldsForClass(classData,
-                        classData.getFieldData(fieldData.realmListType(name)),
-                        prepend.isEmpty() ? visibleName : prepend + VIS_FLAT_SEP + visibleName));
-            } else if (fieldData.isRealmModelType(name)) {
-                // Field type is RealmModel, recurse and get its visible names as well.
-                //noinspection unchecked
-                vNames.addAll(_visibleFlatFieldsForClass(classData,
-                        classData.getFieldData((Class<? extends RealmModel>) fieldData.fieldType(name)),
-                        prepend.isEmpty() ? visibleName : prepend + VIS_FLAT_SEP + visibleName));
+            // Get visible name of field, preceded by our current prepend string and the separator if the prepend
+            // string isn't empty.
+            String visibleName = prepend.isEmpty() ? fieldData.visibleNameOf(name)
+                    : prepend + VIS_FLAT_SEP + fieldData.visibleNameOf(name);
+            if (isLinkField(fieldData, name)) {
+                // Field type is RealmModel or RealmList, recurse and get its visible names as well. Unless we've
+                // already gone as deep as we're allowed to, or we've already passed through the linked class.
+                String linkedClass = linkedClassName(fieldData, name);
+                if (depthLeft == 0 || !classPath.add(linkedClass)) continue;
+                _visibleFlatFieldsForClass(classData, linkedClass, visibleName, depthLeft - 1, classPath, vNames);
+                classPath.remove(linkedClass);
             } else {
-                // Normal field, just add its visible name (preceded by our current prepend string and the separator,
-                // if the prepend string isn't empty.
-                vNames.add(prepend.isEmpty() ? visibleName : prepend + VIS_FLAT_SEP + visibleName);
+                // Normal field, just add its visible name.
+                vNames.add(visibleName);
             }
         }
+    }
+
+    /**
+     * Return a list of visible flat names for the fields directly beneath {@code visibleLinkField}, without expanding
+     * any relationship fields among them. This allows relationship fields to be expanded only when needed.
+     * <p>
+     * Relationship fields are only included if they could be expanded in turn; that is, if doing so wouldn't exceed
+     * {@code realmClass}'s {@link Queryable#maxDepth()} or lead back to a class which has already been passed through.
+     * Use {@link #isVisibleLinkField(String, String)} to tell which of the returned fields are relationship fields.
+     * @param realmClass       Name of the RealmModel subclass.
+     * @param visibleLinkField Visible flat name of a relationship field to expand, or null or empty to get the fields
+     *                         on {@code realmClass} itself.
+     * @return List of visible flat field names.
+     */
+    public static ArrayList<String> visibleChildFields(String realmClass, String visibleLinkField) {
+        ClassData classData = getClassData();
+        if (classData.getFieldData(realmClass) == null)
+            throw ex("\"%s\" is not a valid realm object class name.", realmClass);
+        boolean isRoot = visibleLinkField == null || visibleLinkField.isEmpty();
+        HashSet<String> classPath = new HashSet<>();
+        classPath.add(realmClass);
+        String currClass = realmClass;
+        int depthLeft = classData.getMaxDepth(realmClass);
+
+        // Follow the relationship fields in visibleLinkField, making sure that we're allowed to at each step.
+        int start = 0;
+        while (!isRoot) {
+            int end = visibleLinkField.indexOf(VIS_FLAT_SEP, start);
+            String visiblePart = visibleLinkField.substring(start, end == -1 ? visibleLinkField.length() : end);
+            FieldData fieldData = classData.getFieldData(currClass);
+            String realFieldName = fieldData.realNameOf(visiblePart);
+            if (realFieldName == null || !isLinkField(fieldData, realFieldName))
+                throw ex("\"%s\" is not a valid visible relationship field name for the class \"%s\".",
+                        visibleLinkField, realmClass);
+            currClass = linkedClassName(fieldData, realFieldName);
+            if (depthLeft == 0 || !classPath.add(currClass))
+                throw ex("\"%s\" cannot be expanded for the class \"%s\"; it is too deep or leads to a cycle.",
+                        visibleLinkField, realmClass);
+            depthLeft--;
+            if (end == -1) break;
+            start = end + VIS_FLAT_SEP.length();
+        }
+
+        // Add the fields of the class we ended up at.
+        FieldData fieldData = classData.getFieldData(currClass);
+        ArrayList<String> vNames = new ArrayList<>();
+        if (fieldData == null) return vNames;
+        for (String name : fieldData.getFieldNames()) {
+            if (isLinkField(fieldData, name) &&
+                    (depthLeft == 0 || classPath.contains(linkedClassName(fieldData, name)))) continue;
+            vNames.add(isRoot ? fieldData.visibleNameOf(name)
+                    : visibleLinkField + VIS_FLAT_SEP + fieldData.visibleNameOf(name));
+        }
         return vNames;
     }
 
+    /**
+     * Check whether a visible flat field name refers to a relationship field (one whose type is a RealmModel subclass
+     * or RealmList), which can be expanded using {@link #visibleChildFields(String, String)}.
+     * @param realmClass   Name of the RealmModel subclass.
+     * @param visibleField Visible flat field name.
+     * @return True if {@code visibleField} is a relationship field, otherwise false.
+     */
+    public static boolean isVisibleLinkField(String realmClass, String visibleField) {
+        String field = fieldFromVisibleField(realmClass, visibleField);
+        ClassData classData = getClassData();
+        FieldData fieldData = classData.getFieldData(realmClass);
+        int start = 0, end;
+        while ((end = field.indexOf(FLAT_SEP, start)) != -1) {
+            fieldData = linkedFieldData(classData, fieldData, field.substring(start, end));
+            start = end + FLAT_SEP.length();
+        }
+        return isLinkField(fieldData, field.substring(start));
+    }
+
     /**
      * Takes a visible flat field name and converts it to a real flat field name.
+     * <p>
+     * Caches values (in both directions) for quicker future access.
      * @param realmClass       Name of the RealmModel subclass.
      * @param visibleFieldName Visible flat field name.
      * @return Real flat field name.
      */
     static String fieldFromVisibleField(String realmClass, String visibleFieldName) {
         ensureInit();
-        String key = realmClass + KEY_SEP + visibleFieldName;
-        // Try to get cached value first.
-        if (INSTANCE.flatVisFieldToFlatField.containsKey(key))
-            return stripKey(INSTANCE.flatVisFieldToFlatField.get(key));
+        // Check the precomputed flat fields first, if we have them.
+        FlatFields flatFields = getClassData().getFlatFields(realmClass);
+        int flatIdx = flatFields == null ? -1 : flatFields.indexOfVisible(visibleFieldName);
+        if (flatIdx != -1) return flatFields.pathAt(flatIdx);
+
+        // Then try to get cached value.
+        String field = cacheFor(INSTANCE.flatVisFieldToFlatField, realmClass).get(visibleFieldName);
+        if (field != null) return field;
 
         // If not cached, must go figure it out.
         ClassData classData = getClassData();
         FieldData fieldData = classData.getFieldData(realmClass);
-        String[] parts = VIS_SEP_PATTERN.split(visibleFieldName);
         StringBuilder builder = new StringBuilder();
-
-        for (int i = 0; i < parts.length; i++) {
-            // Use the field data to get the real name of the field.
-            String realFieldName = fieldData.getFieldNames().get(fieldData.getVisibleNames().indexOf(parts[i]));
-            // Append the real name.
+        int start = 0;
+        while (true) {
+            int end = visibleFieldName.indexOf(VIS_FLAT_SEP, start);
+            String visiblePart = visibleFieldName.substring(start, end == -1 ? visibleFieldName.length() : end);
+            // Use the field data to get the real name of the field, and append it.
+            String realFieldName = fieldData.realNameOf(visiblePart);
+            if (realFieldName == null) throw ex("\"%s\" is not a valid visible field name for the class \"%s\".",
+                    visibleFieldName, realmClass);
             builder.append(realFieldName);
-            if (i < parts.length - 1) {
-                // This is a RealmModel/RealmList-type field. Append a dot and switch the field data.
-                builder.append(FLAT_SEP);
-                if (fieldData.isRealmListType(realFieldName)) {
-                    fieldData = classData.getFieldData(fieldData.realmListType(realFieldName));
-                } else {
-                    //noinspection unchecked
-                    fieldData = classData.getFieldData(
-                            (Class<? extends RealmModel>) fieldData.fieldType(realFieldName));
-                }
-            }
+            if (end == -1) break;
+            // This is a RealmModel/RealmList-type field. Append a dot and switch the field data.
+            builder.append(FLAT_SEP);
+            fieldData = linkedFieldData(classData, fieldData, realFieldName);
+            start = end + VIS_FLAT_SEP.length();
         }
         // Cache this before returning it.
-        String value = builder.toString();
-        INSTANCE.flatVisFieldToFlatField.put(key, realmClass + KEY_SEP + value);
-        return value;
+        field = builder.toString();
+        cacheFieldNames(realmClass, field, visibleFieldName);
+        return field;
     }
 
     /**
      * Takes a real flat field name and converts it to a visible flat field name.
+     * <p>
+     * Caches values (in both directions) for quicker future access.
      * @param realmClass Name of the RealmModel subclass.
      * @param field      Real flat field name.
      * @return Visible flat field name.
      */
     static String visibleFieldFromField(String realmClass, String field) {
         ensureInit();
-        String value = realmClass + "$" + field;
-        // Try to get cached key first.
-        if (INSTANCE.flatVisFieldToFlatField.containsValue(value)) {
-            for (Map.Entry<String, String> entry : INSTANCE.flatVisFieldToFlatField.entrySet()) {
-                if (entry.getValue().equals(value)) return stripKey(entry.getKey());
-            }
-        }
+        // Check the precomputed flat fields first, if we have them.
+        FlatFields flatFields = getClassData().getFlatFields(realmClass);
+        int flatIdx = flatFields == null ? -1 : flatFields.indexOf(field);
+        if (flatIdx != -1) return flatFields.visiblePathAt(flatIdx);
+
+        // Then try to get cached value.
+        String visibleFieldName = cacheFor(INSTANCE.flatFieldToFlatVisField, realmClass).get(field);
+        if (visibleFieldName != null) return visibleFieldName;
 
         // If not cached, must go figure it out.
         ClassData classData = getClassData();
         FieldData fieldData = classData.getFieldData(realmClass);
         StringBuilder builder = new StringBuilder();
-        String[] parts = FLAT_SEP_PATTERN.split(field);
-
-        for (int i = 0; i < parts.length; i++) {
+        int start = 0;
+        while (true) {
+            int end = field.indexOf(FLAT_SEP, start);
+            String part = field.substring(start, end == -1 ? field.length() : end);
             // Use the field data to get and append the visible name of the field.
-            builder.append(fieldData.visibleNameOf(parts[i]));
-            if (i < parts.length - 1) {
-                // This is a RealmModel/RealmList-type field. Append a ">" and switch the field data.
-                builder.append(VIS_FLAT_SEP);
-                if (fieldData.isRealmListType(parts[i])) {
-                    fieldData = classData.getFieldData(fieldData.realmListType(parts[i]));
-                } else {
-                    //noinspection unchecked
-                    fieldData = classData.getFieldData((Class<? extends RealmModel>) fieldData.fieldType(parts[i]));
-                }
-            }
+            builder.append(fieldData.visibleNameOf(part));
+            if (end == -1) break;
+            // This is a RealmModel/RealmList-type field. Append a ">" and switch the field data.
+            builder.append(VIS_FLAT_SEP);
+            fieldData = linkedFieldData(classData, fieldData, part);
+            start = end + FLAT_SEP.length();
         }
         // Cache this before returning it.
-        String key = builder.toString();
-        INSTANCE.flatVisFieldToFlatField.put(realmClass + KEY_SEP + key, value);
-        return key;
+        visibleFieldName = builder.toString();
+        cacheFieldNames(realmClass, field, visibleFieldName);
+        return visibleFieldName;
+    }
+
+    /**
+     * Get the field data for the type of the RealmModel/RealmList-type field called {@code realFieldName}.
+     * @param classData     Class data.
+     * @param fieldData     Field data which contains {@code realFieldName}.
+     * @param realFieldName Real name of a RealmModel/RealmList-type field.
+     * @return Field data of the linked class.
+     */
+    private static FieldData linkedFieldData(ClassData classData, FieldData fieldData, String realFieldName) {
+        if (fieldData.isRealmListType(realFieldName))
+            return classData.getFieldData(fieldData.realmListType(realFieldName));
+        //noinspection unchecked
+        return classData.getFieldData((Class<? extends RealmModel>) fieldData.fieldType(realFieldName));
+    }
+
+    /**
+     * @return True if the field's type is a RealmModel subclass or RealmList, otherwise false.
+     */
+    private static boolean isLinkField(FieldData fieldData, String realFieldName) {
+        return fieldData.isRealmListType(realFieldName) || fieldData.isRealmModelType(realFieldName);
+    }
+
+    /**
+     * Get the real name of the class which a RealmModel or RealmList-type field links to.
+     * @param fieldData     Field data of the class which has the field.
+     * @param realFieldName Real name of the field.
+     * @return Real name of the linked class.
+     */
+    private static String linkedClassName(FieldData fieldData, String realFieldName) {
+        if (fieldData.isRealmListType(realFieldName)) return fieldData.realmListType(realFieldName).getSimpleName();
+        return fieldData.fieldType(realFieldName).getSimpleName();
+    }
+
+    /**
+     * Cache a real and visible flat field name pair for {@code realmClass} in both directions.
+     * @param realmClass       Name of the RealmModel subclass.
+     * @param field            Real flat field name.
+     * @param visibleFieldName Visible flat field name.
+     */
+    private static void cacheFieldNames(String realmClass, String field, String visibleFieldName) {
+        cacheFor(INSTANCE.flatVisFieldToFlatField, realmClass).put(visibleFieldName, field);
+        cacheFor(INSTANCE.flatFieldToFlatVisField, realmClass).put(field, visibleFieldName);
+    }
+
+    /**
+     * Get the cache for {@code realmClass} from {@code caches}, creating it if it doesn't exist yet. If multiple
+     * threads race to create it, they will all end up with the same one.
+     * @param caches     Map of real class names to caches.
+     * @param realmClass Name of the RealmModel subclass.
+     * @return Cache for {@code realmClass}.
+     */
+    private static <V> ConcurrentHashMap<String, V> cacheFor(
+            ConcurrentHashMap<String, ConcurrentHashMap<String, V>> caches, String realmClass) {
+        ConcurrentHashMap<String, V> cache = caches.get(realmClass);
+        if (cache == null) {
+            ConcurrentHashMap<String, V> newCache = new ConcurrentHashMap<>();
+            cache = caches.putIfAbsent(realmClass, newCache);
+            if (cache == null) cache = newCache;
+        }
+        return cache;
     }
 
     /**
@@ -436,10 +742,7 @@ public class Ruqus {
      * @return Real name of transformer.
      */
     static String transformerNameFromVisibleName(String visibleTransName, boolean isNoArgs) {
-        TransformerData transformerData = getTransformerData();
-        return isNoArgs
-                ? transformerData.getNoArgNames().get(transformerData.getVisibleNoArgNames().indexOf(visibleTransName))
-                : transformerData.getNames().get(transformerData.getVisibleNames().indexOf(visibleTransName));
+        return getTransformerData().realNameOf(visibleTransName, isNoArgs);
     }
 
     /**
@@ -457,7 +760,7 @@ public class Ruqus {
      * @param type            Type to check for.
      * @return True if the transformer with the given name accepts the given type, otherwise false.
      */
-    static boolean transformerAcceptsType(String transformerName, Class type) {
+    static boolean transformerAcceptsType(String transformerName, FieldType type) {
         return getTransformerData().acceptsType(transformerName, type);
     }
 
@@ -471,18 +774,41 @@ public class Ruqus {
     }
 
     /**
-     * Strip the leading "[string]$" off of a string, if it contains a "$".
-     * @param keyedString String to strip.
-     * @return Stripped string.
+     * Convenience method for throwing an IllegalArgumentException with a formatted string.
      */
-    private static String stripKey(String keyedString) {
-        return keyedString.contains(KEY_SEP) ? KEY_SEP_PATTERN.split(keyedString)[1] : keyedString;
+    private static IllegalArgumentException ex(String format, Object... args) {
+        return new IllegalArgumentException(String.format(format, args));
     }
 
     /**
-     * Convenience method for throwing an IllegalArgumentException with a formatted string.
+     * Colors and strings which Ruqus's views use. This is a separate class so that they're only resolved the first time
+     * any of them are used (the JVM guarantees that this happens once, and is safely published to all threads).
+     * <p>
+     * If this class's initializer threw, the class could never be used again, so it doesn't check that Ruqus has been
+     * initialized; views must call {@link #ensureInit()} before using it instead.
      */
-    private static IllegalArgumentException ex(String format, Object... args) {
-        return new IllegalArgumentException(String.format(format, args));
+    static final class Res {
+        @ColorInt
+        static final int LIGHT_TEXT_COLOR, LIGHT_TEXT_COLOR_ALT, DARK_TEXT_COLOR, DARK_TEXT_COLOR_ALT,
+                LIGHT_CARD_COLOR, LIGHT_CARD_COLOR_ALT, DARK_CARD_COLOR, DARK_CARD_COLOR_ALT;
+        static final String CHOOSE_FIELD, CHOOSE_CONDITIONAL;
+
+        static {
+            Context context = INSTANCE.context;
+            LIGHT_TEXT_COLOR = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryLight);
+            LIGHT_TEXT_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryLightAlt);
+            DARK_TEXT_COLOR = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryDark);
+            DARK_TEXT_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_textColorPrimaryDarkAlt);
+            LIGHT_CARD_COLOR = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundLight);
+            LIGHT_CARD_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundLightAlt);
+            DARK_CARD_COLOR = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundDark);
+            DARK_CARD_COLOR_ALT = ContextCompat.getColor(context, R.color.ruqus_cardBackgroundDarkAlt);
+
+            CHOOSE_FIELD = context.getString(R.string.ruqus_choose_field);
+            CHOOSE_CONDITIONAL = context.getString(R.string.ruqus_choose_conditional);
+        }
+
+        private Res() {
+        }
     }
 }
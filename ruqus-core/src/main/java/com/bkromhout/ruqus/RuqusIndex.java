@@ -0,0 +1,22 @@
+package com.bkromhout.ruqus;
+
+/**
+ * Generated extended class references all of the generated {@link ClassData} and {@link TransformerData} classes
+ * directly, so that Ruqus can load them without using reflection.
+ * <p>
+ * Pass an instance of the generated {@code Ruqus$$RuqusIndex} class to {@link Ruqus#init(android.content.Context,
+ * RuqusIndex)}.
+ */
+public abstract class RuqusIndex {
+    /**
+     * Create an instance of the generated class data class.
+     * @return Generated class data.
+     */
+    abstract ClassData newClassData();
+
+    /**
+     * Create instances of all of the generated transformer data classes.
+     * @return Generated transformer data, one per generated class.
+     */
+    abstract TransformerData[] newTransformerData();
+}
@@ -59,6 +59,7 @@ public class SortFieldView extends LinearLayout {
      * @param context Context to use.
      */
     private void init(Context context, RuqusTheme theme, String currClassName) {
+        Ruqus.ensureInit();
         this.currClassName = currClassName;
         // Inflate and bind views.
         inflate(context, R.layout.sort_field_view, this);
@@ -138,7 +139,7 @@ public class SortFieldView extends LinearLayout {
             if (isTouching) {
                 // Make sure the user didn't select nothing.
                 String selStr = (String) parent.getItemAtPosition(position);
-                if (Ruqus.CHOOSE_FIELD.equals(selStr)) sortDirRg.setVisibility(GONE);
+                if (Ruqus.Res.CHOOSE_FIELD.equals(selStr)) sortDirRg.setVisibility(GONE);
                 else setSortDirOptions(selStr);
                 isTouching = false;
             }
@@ -175,12 +176,12 @@ public class SortFieldView extends LinearLayout {
     }
 
     /**
-     * Gets real name of selected field. If selected item is {@link Ruqus#CHOOSE_FIELD}, just returns that.
-     * @return Real name of selected field, or {@link Ruqus#CHOOSE_FIELD}.
+     * Gets real name of selected field. If selected item is {@link Ruqus.Res#CHOOSE_FIELD}, just returns that.
+     * @return Real name of selected field, or {@link Ruqus.Res#CHOOSE_FIELD}.
      */
     String getRealField() {
         String vis = getVisField();
-        return Ruqus.CHOOSE_FIELD.equals(vis) ? vis : Ruqus.fieldFromVisibleField(currClassName, getVisField());
+        return Ruqus.Res.CHOOSE_FIELD.equals(vis) ? vis : Ruqus.fieldFromVisibleField(currClassName, getVisField());
     }
 
     Sort getSortDir() {
@@ -204,7 +205,7 @@ public class SortFieldView extends LinearLayout {
         sortFieldChooser.setSelection(posToSelect);
         // Manually update radio buttons' text if need be.
         String selStr = (String) sortFieldChooser.getItemAtPosition(posToSelect);
-        if (Ruqus.CHOOSE_FIELD.equals(selStr)) sortDirRg.setVisibility(GONE);
+        if (Ruqus.Res.CHOOSE_FIELD.equals(selStr)) sortDirRg.setVisibility(GONE);
         else setSortDirOptions(selStr);
     }
 
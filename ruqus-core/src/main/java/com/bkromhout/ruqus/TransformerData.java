@@ -1,96 +1,229 @@
 package com.bkromhout.ruqus;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.*;
 
 /**
  * Generated extended class will contain data about all classes annotated with {@link Transformer}.
+ * <p>
+ * The generated subclasses fill in this class's collections when they are loaded; once {@link Ruqus} has loaded all of
+ * them, it calls {@link #freeze()}, after which the collections are unmodifiable and are safe to read from any thread.
  */
 abstract class TransformerData {
     /**
      * List of fully-qualified names for all transformers which aren't no-arg transformers.
      */
-    protected static HashSet<String> realNames = new HashSet<>();
+    protected static Set<String> realNames = new HashSet<>();
     /**
      * List of fully-qualified names for all no-arg transformers.
      */
-    protected static HashSet<String> realNoArgNames = new HashSet<>();
+    protected static Set<String> realNoArgNames = new HashSet<>();
     /**
      * Maps normal transformers' fully-qualified names to their visible names.
      */
-    protected static HashMap<String, String> visibleNames = new HashMap<>();
+    protected static Map<String, String> visibleNames = new HashMap<>();
     /**
      * Maps no-arg transformers' fully-qualified names to their visible names.
      */
-    protected static HashMap<String, String> visibleNoArgNames = new HashMap<>();
+    protected static Map<String, String> visibleNoArgNames = new HashMap<>();
     /**
      * Maps normal transformers' fully-qualified names to the number of arguments they need.
      */
-    protected static HashMap<String, Integer> numArgs = new HashMap<>();
+    protected static Map<String, Integer> numArgs = new HashMap<>();
     /**
      * Maps all transformer's fully-qualified names to an instance of them.
      */
-    protected static HashMap<String, RUQTransformer> instanceMap = new HashMap<>();
+    protected static Map<String, RUQTransformer> instanceMap = new HashMap<>();
     /**
-     * Maps types to the fully-qualified names of transformers which accept those types.
+     * Maps normal transformers' fully-qualified names to bitmasks of the field types which they accept. The bit for a
+     * {@link FieldType} is {@code 1 << fieldType.ordinal()}.
      */
-    protected static HashMap<Class, HashSet<String>> typesToNames = new HashMap<>();
+    protected static Map<String, Integer> typeMasks = new HashMap<>();
+
+    /**
+     * Maps field types to sorted, unmodifiable lists of the visible names of the normal transformers which accept them.
+     * Built by {@link #freeze()}.
+     */
+    private static EnumMap<FieldType, List<String>> visibleNamesByType;
     /**
-     * Maps types to the visible names of transformers which accept those types.
+     * Sorted, unmodifiable list of the visible names of all no-arg transformers. Built by {@link #freeze()}.
      */
-    protected static HashMap<Class, HashSet<String>> typesToVisibleNames = new HashMap<>();
+    private static List<String> sortedVisibleNoArgNames;
+    /**
+     * Maps normal transformers' visible names to their fully-qualified names. Built by {@link #freeze()}.
+     */
+    private static Map<String, String> namesByVisibleName;
+    /**
+     * Maps no-arg transformers' visible names to their fully-qualified names. Built by {@link #freeze()}.
+     */
+    private static Map<String, String> noArgNamesByVisibleName;
+
+    /*
+     * Transformer ids. Every transformer (normal and no-arg) is given an id, which is its index in the sorted array of
+     * all transformer names; the other arrays are indexed by id. Built by freeze().
+     */
+    private static String[] namesById;
+    private static String[] visibleNamesById;
+    private static boolean[] isNoArgsById;
+    private static int[] numArgsById;
+    private static int[] typeMasksById;
+    private static RUQTransformer[] instancesById;
 
     /**
-     * Get a list of all normal transformers' real names.
-     * @return List of normal transformer names.
+     * Make all of the collections which the generated subclasses filled in unmodifiable, and build the lookup tables
+     * which are derived from them. Must only be called once, after all of the generated subclasses have been loaded.
      */
-    ArrayList<String> getNames() {
-        return new ArrayList<>(realNames);
+    static void freeze() {
+        realNames = Collections.unmodifiableSet(realNames);
+        realNoArgNames = Collections.unmodifiableSet(realNoArgNames);
+        visibleNames = Collections.unmodifiableMap(visibleNames);
+        visibleNoArgNames = Collections.unmodifiableMap(visibleNoArgNames);
+        numArgs = Collections.unmodifiableMap(numArgs);
+        instanceMap = Collections.unmodifiableMap(instanceMap);
+        typeMasks = Collections.unmodifiableMap(typeMasks);
+
+        // Sort visible names once, here, so that nothing else ever has to. Sorting the names before they're grouped by
+        // type means that each type's list is sorted too.
+        ArrayList<String> sortedNames = new ArrayList<>(realNames);
+        Collections.sort(sortedNames, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return visibleNames.get(lhs).compareTo(visibleNames.get(rhs));
+            }
+        });
+        visibleNamesByType = new EnumMap<>(FieldType.class);
+        for (FieldType type : FieldType.values()) {
+            int bit = 1 << type.ordinal();
+            ArrayList<String> typeNames = new ArrayList<>();
+            for (String name : sortedNames) {
+                Integer typeMask = typeMasks.get(name);
+                if (typeMask != null && (typeMask & bit) != 0) typeNames.add(visibleNames.get(name));
+            }
+            visibleNamesByType.put(type, Collections.unmodifiableList(typeNames));
+        }
+        ArrayList<String> noArgNames = new ArrayList<>(visibleNoArgNames.values());
+        Collections.sort(noArgNames);
+        sortedVisibleNoArgNames = Collections.unmodifiableList(noArgNames);
+
+        namesByVisibleName = invert(visibleNames);
+        noArgNamesByVisibleName = invert(visibleNoArgNames);
+
+        // Assign ids.
+        String[] names = instanceMap.keySet().toArray(new String[instanceMap.size()]);
+        Arrays.sort(names);
+        visibleNamesById = new String[names.length];
+        isNoArgsById = new boolean[names.length];
+        numArgsById = new int[names.length];
+        typeMasksById = new int[names.length];
+        instancesById = new RUQTransformer[names.length];
+        for (int id = 0; id < names.length; id++) {
+            String name = names[id];
+            isNoArgsById[id] = realNoArgNames.contains(name);
+            visibleNamesById[id] = isNoArgsById[id] ? visibleNoArgNames.get(name) : visibleNames.get(name);
+            numArgsById[id] = isNoArgsById[id] || !numArgs.containsKey(name) ? 0 : numArgs.get(name);
+            typeMasksById[id] = typeMasks.containsKey(name) ? typeMasks.get(name) : 0;
+            instancesById[id] = instanceMap.get(name);
+        }
+        namesById = names;
+    }
+
+    private static Map<String, String> invert(Map<String, String> map) {
+        HashMap<String, String> inverted = new HashMap<>(map.size() * 2);
+        for (Map.Entry<String, String> entry : map.entrySet()) inverted.put(entry.getValue(), entry.getKey());
+        return Collections.unmodifiableMap(inverted);
     }
 
     /**
-     * Get a list of all normal transformers' real names which accept the given {@code type}.
-     * @param typeAccepted Type which transformers whose names are returned must accept.
-     * @return List of normal transformer names which accept {@code typeAccepted}. Might be empty.
+     * Get the visible names of all normal transformers which accept the given {@code type}.
+     * @param typeAccepted Type which transformers whose visible names are returned must accept.
+     * @return Sorted, unmodifiable list of normal transformer visible names which accept {@code typeAccepted}. Might be
+     * empty.
      */
-    ArrayList<String> getNames(Class typeAccepted) {
-        return typesToNames.containsKey(typeAccepted) ? new ArrayList<>(typesToNames.get(typeAccepted)) :
-                new ArrayList<String>();
+    List<String> getVisibleNames(FieldType typeAccepted) {
+        return visibleNamesByType.get(typeAccepted);
     }
 
     /**
-     * Get a list of all no arg transformers' real names.
-     * @return List of no arg transformer names.
+     * Get the visible names of all no arg transformers.
+     * @return Sorted, unmodifiable list of no arg transformer visible names.
      */
-    ArrayList<String> getNoArgNames() {
-        return new ArrayList<>(realNoArgNames);
+    List<String> getVisibleNoArgNames() {
+        return sortedVisibleNoArgNames;
     }
 
     /**
-     * Get a list of all normal transformers' visible names.
-     * @return List of normal transformer visible names.
+     * Get the real name of the transformer whose visible name is {@code visibleName}.
+     * @param visibleName Visible transformer name.
+     * @param isNoArgs    Whether the transformer is a no-args transformer or not.
+     * @return Real transformer name, or null if there isn't a transformer with the given visible name.
      */
-    ArrayList<String> getVisibleNames() {
-        return new ArrayList<>(visibleNames.values());
+    String realNameOf(String visibleName, boolean isNoArgs) {
+        return isNoArgs ? noArgNamesByVisibleName.get(visibleName) : namesByVisibleName.get(visibleName);
     }
 
     /**
-     * Get a list of all normal transformers' visible names which accept the given {@code type}.
-     * @param typeAccepted Type which transformers whose visible names are returned must accept.
-     * @return List of normal transformer visible names which accept {@code typeAccepted}. Might be empty.
+     * Get the id of the transformer called {@code transformerName}. Ids are only stable for a given build of an app, so
+     * they must not be persisted.
+     * @param transformerName Real transformer name.
+     * @return Transformer id, or -1 if we don't know of a transformer called {@code transformerName}.
+     * @see #nameOfId(int)
+     */
+    int idOf(String transformerName) {
+        if (transformerName == null) return -1;
+        int id = Arrays.binarySearch(namesById, transformerName);
+        return id < 0 ? -1 : id;
+    }
+
+    /**
+     * Get the real name of the transformer with the given id. The same String instance is returned every time, so
+     * holding on to it doesn't cost anything extra.
+     * @param id Transformer id.
+     * @return Real transformer name.
+     * @see #idOf(String)
+     */
+    String nameOfId(int id) {
+        return namesById[id];
+    }
+
+    /**
+     * @param id Transformer id.
+     * @return True if the transformer is a no arg transformer, otherwise false.
+     */
+    boolean isNoArgs(int id) {
+        return isNoArgsById[id];
+    }
+
+    /**
+     * @param id Transformer id.
+     * @return Visible name.
+     */
+    String visibleNameOf(int id) {
+        return visibleNamesById[id];
+    }
+
+    /**
+     * @param id Transformer id.
+     * @return Number of arguments. Might be {@link C#VAR_ARGS}, which equates to -1. Will return 0 if transformer is a
+     * no-args transformer.
+     */
+    int numArgsOf(int id) {
+        return numArgsById[id];
+    }
+
+    /**
+     * @param id Transformer id.
+     * @return Instance of transformer class.
      */
-    ArrayList<String> getVisibleNames(Class typeAccepted) {
-        return typesToVisibleNames.containsKey(typeAccepted) ? new ArrayList<>(typesToVisibleNames.get(typeAccepted)) :
-                new ArrayList<String>();
+    RUQTransformer getTransformer(int id) {
+        return instancesById[id];
     }
 
     /**
-     * Get a list of all no arg transformers' visible names.
-     * @return List of no arg transformer visible names.
+     * @param id   Transformer id.
+     * @param type Type to check for.
+     * @return True if the transformer accepts the given type, otherwise false.
      */
-    ArrayList<String> getVisibleNoArgNames() {
-        return new ArrayList<>(visibleNoArgNames.values());
+    boolean acceptsType(int id, FieldType type) {
+        return (typeMasksById[id] & (1 << type.ordinal())) != 0;
     }
 
     /**
@@ -154,7 +287,8 @@ abstract class TransformerData {
      * @param type            Type to check for.
      * @return True if the transformer with the given name accepts the given type, otherwise false.
      */
-    boolean acceptsType(String transformerName, Class type) {
-        return typesToNames.containsKey(type) && typesToNames.get(type).contains(transformerName);
+    boolean acceptsType(String transformerName, FieldType type) {
+        Integer typeMask = typeMasks.get(transformerName);
+        return typeMask != null && (typeMask & (1 << type.ordinal())) != 0;
     }
 }
@@ -0,0 +1,148 @@
+package com.bkromhout.ruqus;
+
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+
+/**
+ * A {@link RUQTransformer} for {@link Condition.Type#NORMAL NORMAL} conditions which has a separate method for each
+ * {@link FieldType} it supports, rather than a single {@link #transform(RealmQuery, Condition)} method which has to
+ * check the field type itself.
+ * <p>
+ * Extenders should override the {@code transformX()} methods for the types listed in their {@link
+ * Transformer#validArgTypes()}; the rest throw an {@link IllegalArgumentException} by default.
+ * <p>
+ * When a query is compiled, Ruqus picks the right method for each condition once, ahead of time, and calls it directly
+ * each time the query is executed; see {@link CompiledQuery}. Conditions are validated before they get that far, so
+ * the {@code transformX()} methods don't need to validate them again.
+ */
+public abstract class TypedRUQTransformer extends RUQTransformer {
+    // No-args constructor.
+    protected TypedRUQTransformer() {}
+
+    /**
+     * Checks that {@code condition} is valid and {@link Condition.Type#NORMAL NORMAL}, then calls the {@code
+     * transformX()} method for its field type.
+     */
+    @Override
+    public final <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
+        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
+        if (condition.getType() != Condition.Type.NORMAL)
+            throw new IllegalArgumentException("Condition type is not NORMAL.");
+        return transform(realmQuery, condition.getField(), condition.getFieldType(), condition.getTypedArgs());
+    }
+
+    /**
+     * Called once for each condition when a query is compiled, before the condition is bound to one of the {@code
+     * transformX()} methods; the args which this returns are the ones which will be passed to that method each time
+     * the query is executed. Transformers may override this to put args into a form which is cheaper to apply, as long
+     * as doing so doesn't change the query's results.
+     * @param args Args from the condition. Might be null if the transformer doesn't take any.
+     * @return Args to pass to the {@code transformX()} method. The default implementation returns {@code args}.
+     */
+    protected ConditionArgs normalizeArgs(ConditionArgs args) {
+        return args;
+    }
+
+    /**
+     * Calls the {@code transformX()} method for {@code fieldType}, without any checks.
+     */
+    final <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, String field, FieldType fieldType,
+                                                         ConditionArgs args) {
+        switch (fieldType) {
+            case BOOLEAN:
+                return transformBoolean(realmQuery, field, args);
+            case DATE:
+                return transformDate(realmQuery, field, args);
+            case DOUBLE:
+                return transformDouble(realmQuery, field, args);
+            case FLOAT:
+                return transformFloat(realmQuery, field, args);
+            case INTEGER:
+                return transformInteger(realmQuery, field, args);
+            case LONG:
+                return transformLong(realmQuery, field, args);
+            case SHORT:
+                return transformShort(realmQuery, field, args);
+            case STRING:
+                return transformString(realmQuery, field, args);
+            default:
+                throw unsupported(fieldType);
+        }
+    }
+
+    /**
+     * Called to transform a {@link RealmQuery} using a condition on a {@link FieldType#BOOLEAN BOOLEAN} field.
+     * @param realmQuery {@link RealmQuery} to transform.
+     * @param field      Real name of the field the condition applies to.
+     * @param args       The condition's args. Might be null if the transformer doesn't take any.
+     * @return Transformed {@link RealmQuery}.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformBoolean(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        throw unsupported(FieldType.BOOLEAN);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#DATE DATE} fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformDate(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        throw unsupported(FieldType.DATE);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#DOUBLE DOUBLE}
+     * fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        throw unsupported(FieldType.DOUBLE);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#FLOAT FLOAT} fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        throw unsupported(FieldType.FLOAT);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#INTEGER INTEGER}
+     * fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        throw unsupported(FieldType.INTEGER);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#LONG LONG} fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        throw unsupported(FieldType.LONG);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#SHORT SHORT} fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformShort(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        throw unsupported(FieldType.SHORT);
+    }
+
+    /**
+     * Like {@link #transformBoolean(RealmQuery, String, ConditionArgs)}, but for {@link FieldType#STRING STRING}
+     * fields.
+     */
+    protected <T extends RealmModel> RealmQuery<T> transformString(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        throw unsupported(FieldType.STRING);
+    }
+
+    private IllegalArgumentException unsupported(FieldType fieldType) {
+        return new IllegalArgumentException(String.format("%s doesn't support fields of type \"%s\".",
+                getClass().getSimpleName(), fieldType.getTypeName()));
+    }
+}
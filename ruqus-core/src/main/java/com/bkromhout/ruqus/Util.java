@@ -79,7 +79,7 @@ class Util {
      * @param theme       RuqusTheme.
      */
     static void tintImageButtonIcon(ImageButton imageButton, RuqusTheme theme) {
-        imageButton.getDrawable().setColorFilter(
-                theme == RuqusTheme.LIGHT ? Ruqus.DARK_TEXT_COLOR : Ruqus.LIGHT_TEXT_COLOR, PorterDuff.Mode.SRC_IN);
+        imageButton.getDrawable().setColorFilter(theme == RuqusTheme.LIGHT ? Ruqus.Res.DARK_TEXT_COLOR :
+                Ruqus.Res.LIGHT_TEXT_COLOR, PorterDuff.Mode.SRC_IN);
     }
 }
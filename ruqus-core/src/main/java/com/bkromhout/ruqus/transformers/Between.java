@@ -14,39 +14,42 @@ import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
  */
 @Transformer(name = Names.BETWEEN, numArgs = 2, validArgTypes = {Date.class, Double.class, Float.class, Integer.class,
                                                                  Long.class})
-public class Between extends RUQTransformer {
+public class Between extends TypedRUQTransformer {
     @Override
-    public <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
-        // Checks.
-        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
-        if (condition.getType() != Condition.Type.NORMAL)
-            throw new IllegalArgumentException("Condition type is not NORMAL.");
-
-        // Get data from Conditions.
-        String field = condition.getField();
-        FieldType fieldType = condition.getFieldType();
-        Object[] args = condition.getArgs();
-
-        // Use different methods based on field type.
-        if (FieldType.DATE == fieldType)
-            return realmQuery.between(field, (Date) args[0], (Date) args[1]);
-        else if (FieldType.DOUBLE == fieldType)
-            return realmQuery.between(field, (Double) args[0], (Double) args[1]);
-        else if (FieldType.FLOAT == fieldType)
-            return realmQuery.between(field, (Float) args[0], (Float) args[1]);
-        else if (FieldType.INTEGER == fieldType)
-            return realmQuery.between(field, (Integer) args[0], (Integer) args[1]);
-        else if (FieldType.LONG == fieldType)
-            return realmQuery.between(field, (Long) args[0], (Long) args[1]);
-        else
-            throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".", fieldType.getTypeName()));
+    protected <T extends RealmModel> RealmQuery<T> transformDate(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.between(field, args.getDate(0), args.getDate(1));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.between(field, args.getDouble(0), args.getDouble(1));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return realmQuery.between(field, args.getFloat(0), args.getFloat(1));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return realmQuery.between(field, args.getInt(0), args.getInt(1));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.between(field, args.getLong(0), args.getLong(1));
     }
 
     @Override
     public String makeReadableString(@NonNull Condition current, Condition previous, Condition next) {
         return String.format("%s %s %s and %s", ReadableStringUtils.visibleFieldNameFrom(current),
                 notNOT(previous) ? "is between" : "is not between",
-                ReadableStringUtils.argToString(current.getFieldType(), current.getArgs()[0]),
-                ReadableStringUtils.argToString(current.getFieldType(), current.getArgs()[1]));
+                ReadableStringUtils.argToString(current.getFieldType(), current.getTypedArgs().get(0)),
+                ReadableStringUtils.argToString(current.getFieldType(), current.getTypedArgs().get(1)));
     }
 }
\ No newline at end of file
@@ -11,27 +11,16 @@ import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
  * Transformer which wraps {@link RealmQuery#endsWith(String, String)}.
  */
 @Transformer(name = Names.ENDS_WITH, validArgTypes = {String.class})
-public class EndsWith extends RUQTransformer {
+public class EndsWith extends TypedRUQTransformer {
     @Override
-    public <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
-        // Checks.
-        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
-        if (condition.getType() != Condition.Type.NORMAL)
-            throw new IllegalArgumentException("Condition type is not NORMAL.");
-
-        // Get data from Conditions.
-        String field = condition.getField();
-        FieldType fieldType = condition.getFieldType();
-        Object[] args = condition.getArgs();
-
-        if (FieldType.STRING == fieldType) return realmQuery.endsWith(field, (String) args[0]);
-        else
-            throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".", fieldType.getTypeName()));
+    protected <T extends RealmModel> RealmQuery<T> transformString(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.endsWith(field, args.getString(0));
     }
 
     @Override
     public String makeReadableString(@NonNull Condition current, Condition previous, Condition next) {
         return String.format("%s %s “%s”", ReadableStringUtils.visibleFieldNameFrom(current),
-                notNOT(previous) ? "ends with" : "does not end with", current.getArgs()[0]);
+                notNOT(previous) ? "ends with" : "does not end with", current.getTypedArgs().get(0));
     }
 }
\ No newline at end of file
@@ -14,38 +14,41 @@ import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
  */
 @Transformer(name = Names.GREATER_THAN, validArgTypes = {Date.class, Double.class, Float.class, Integer.class,
                                                          Long.class})
-public class GreaterThan extends RUQTransformer {
+public class GreaterThan extends TypedRUQTransformer {
     @Override
-    public <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
-        // Checks.
-        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
-        if (condition.getType() != Condition.Type.NORMAL)
-            throw new IllegalArgumentException("Condition type is not NORMAL.");
-
-        // Get data from Conditions.
-        String field = condition.getField();
-        FieldType fieldType = condition.getFieldType();
-        Object[] args = condition.getArgs();
-
-        // Use different methods based on field type.
-        if (FieldType.DATE == fieldType)
-            return realmQuery.greaterThan(field, (Date) args[0]);
-        else if (FieldType.DOUBLE == fieldType)
-            return realmQuery.greaterThan(field, (Double) args[0]);
-        else if (FieldType.FLOAT == fieldType)
-            return realmQuery.greaterThan(field, (Float) args[0]);
-        else if (FieldType.INTEGER == fieldType)
-            return realmQuery.greaterThan(field, (Integer) args[0]);
-        else if (FieldType.LONG == fieldType)
-            return realmQuery.greaterThan(field, (Long) args[0]);
-        else
-            throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".", fieldType.getTypeName()));
+    protected <T extends RealmModel> RealmQuery<T> transformDate(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.greaterThan(field, args.getDate(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.greaterThan(field, args.getDouble(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return realmQuery.greaterThan(field, args.getFloat(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return realmQuery.greaterThan(field, args.getInt(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.greaterThan(field, args.getLong(0));
     }
 
     @Override
     public String makeReadableString(@NonNull Condition current, Condition previous, Condition next) {
         return String.format("%s %s %s", ReadableStringUtils.visibleFieldNameFrom(current),
                 notNOT(previous) ? "is greater than" : "is not greater than",
-                ReadableStringUtils.argToString(current.getFieldType(), current.getArgs()[0]));
+                ReadableStringUtils.argToString(current.getFieldType(), current.getTypedArgs().get(0)));
     }
 }
\ No newline at end of file
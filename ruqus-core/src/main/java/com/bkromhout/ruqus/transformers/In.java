@@ -0,0 +1,131 @@
+package com.bkromhout.ruqus.transformers;
+
+import android.support.annotation.NonNull;
+import com.bkromhout.ruqus.*;
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+
+import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
+
+/**
+ * Transformer which wraps the various {@link RealmQuery} {@code in()} methods, and matches objects whose field is equal
+ * to any of the condition's args.
+ * <p>
+ * Args are sorted, de-duplicated, and boxed when a query is compiled, and very long lists are split up into chunks of
+ * {@link #CHUNK_SIZE} values, each of which is passed to a separate {@code in()} call, and which are then OR-ed
+ * together in a group.
+ * <p>
+ * Ruqus also uses this transformer to replace chains of {@link EqualTo} conditions on the same field which are joined
+ * by {@link Or} when a query is executed.
+ */
+@Transformer(name = Names.IN, numArgs = Transformer.VAR_ARGS,
+             validArgTypes = {Double.class, Float.class, Integer.class, Long.class, Short.class, String.class})
+public class In extends TypedRUQTransformer {
+    /**
+     * Maximum number of values which will be passed to a single {@code in()} call.
+     */
+    public static final int CHUNK_SIZE = 256;
+    /**
+     * Maximum number of values which will be included in the human-readable string.
+     */
+    private static final int MAX_READABLE_VALUES = 10;
+
+    @Override
+    protected ConditionArgs normalizeArgs(ConditionArgs args) {
+        ConditionArgs normalized = args.sortedDistinct();
+        // Box the chunks now, so that executing the query just reuses them.
+        normalized.toBoxedChunks(CHUNK_SIZE);
+        return normalized;
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.DOUBLE);
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.FLOAT);
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.INTEGER);
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.LONG);
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformShort(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.SHORT);
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformString(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return in(realmQuery, field, args, FieldType.STRING);
+    }
+
+    /**
+     * Apply {@code args} to {@code realmQuery} using one {@code in()} call for every {@link #CHUNK_SIZE} values.
+     */
+    private static <T extends RealmModel> RealmQuery<T> in(RealmQuery<T> realmQuery, String field, ConditionArgs args,
+                                                           FieldType fieldType) {
+        Object[][] chunks = args.toBoxedChunks(CHUNK_SIZE);
+        boolean chunked = chunks.length > 1;
+        if (chunked) realmQuery.beginGroup();
+        for (int c = 0; c < chunks.length; c++) {
+            if (c > 0) realmQuery.or();
+            switch (fieldType) {
+                case DOUBLE:
+                    realmQuery.in(field, (Double[]) chunks[c]);
+                    break;
+                case FLOAT:
+                    realmQuery.in(field, (Float[]) chunks[c]);
+                    break;
+                case INTEGER:
+                    realmQuery.in(field, (Integer[]) chunks[c]);
+                    break;
+                case LONG:
+                    realmQuery.in(field, (Long[]) chunks[c]);
+                    break;
+                case SHORT:
+                    realmQuery.in(field, (Short[]) chunks[c]);
+                    break;
+                case STRING:
+                    realmQuery.in(field, (String[]) chunks[c]);
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".",
+                            fieldType.getTypeName()));
+            }
+        }
+        if (chunked) realmQuery.endGroup();
+        return realmQuery;
+    }
+
+    @Override
+    public String makeReadableString(@NonNull Condition current, Condition previous, Condition next) {
+        ConditionArgs args = current.getTypedArgs();
+        boolean isString = current.getFieldType() == FieldType.STRING;
+        StringBuilder builder = new StringBuilder();
+        builder.append(ReadableStringUtils.visibleFieldNameFrom(current))
+               .append(notNOT(previous) ? " is any of " : " is none of ");
+        int shown = Math.min(args.size(), MAX_READABLE_VALUES);
+        for (int i = 0; i < shown; i++) {
+            if (i > 0) builder.append(", ");
+            String value = ReadableStringUtils.argToString(current.getFieldType(), args.get(i));
+            builder.append(isString ? "“" + value + "”" : value);
+        }
+        if (args.size() > shown) builder.append(String.format(", and %d more", args.size() - shown));
+        return builder.toString();
+    }
+}
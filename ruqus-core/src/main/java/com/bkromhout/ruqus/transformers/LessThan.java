@@ -13,33 +13,41 @@ import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
  * Transformer which wraps the various {@link RealmQuery} {@code lessThan()} methods.
  */
 @Transformer(name = Names.LESS_THAN, validArgTypes = {Date.class, Double.class, Float.class, Integer.class, Long.class})
-public class LessThan extends RUQTransformer {
+public class LessThan extends TypedRUQTransformer {
     @Override
-    public <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
-        // Checks.
-        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
-        if (condition.getType() != Condition.Type.NORMAL)
-            throw new IllegalArgumentException("Condition type is not NORMAL.");
-
-        // Get data from Conditions.
-        String field = condition.getField();
-        FieldType fieldType = condition.getFieldType();
-        Object[] args = condition.getArgs();
-
-        // Use different methods based on field type.
-        if (FieldType.DATE == fieldType) return realmQuery.lessThan(field, (Date) args[0]);
-        else if (FieldType.DOUBLE == fieldType) return realmQuery.lessThan(field, (Double) args[0]);
-        else if (FieldType.FLOAT == fieldType) return realmQuery.lessThan(field, (Float) args[0]);
-        else if (FieldType.INTEGER == fieldType) return realmQuery.lessThan(field, (Integer) args[0]);
-        else if (FieldType.LONG == fieldType) return realmQuery.lessThan(field, (Long) args[0]);
-        else
-            throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".", fieldType.getTypeName()));
+    protected <T extends RealmModel> RealmQuery<T> transformDate(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.lessThan(field, args.getDate(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.lessThan(field, args.getDouble(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return realmQuery.lessThan(field, args.getFloat(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return realmQuery.lessThan(field, args.getInt(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.lessThan(field, args.getLong(0));
     }
 
     @Override
     public String makeReadableString(@NonNull Condition current, Condition previous, Condition next) {
         return String.format("%s %s %s", ReadableStringUtils.visibleFieldNameFrom(current),
                 notNOT(previous) ? "is less than" : "is not less than",
-                ReadableStringUtils.argToString(current.getFieldType(), current.getArgs()[0]));
+                ReadableStringUtils.argToString(current.getFieldType(), current.getTypedArgs().get(0)));
     }
 }
\ No newline at end of file
@@ -14,30 +14,53 @@ import static com.bkromhout.ruqus.ReadableStringUtils.notNOT;
  */
 @Transformer(name = Names.NOT_EQUAL_TO, validArgTypes = {Boolean.class, Date.class, Double.class, Float.class,
                                                          Integer.class, Long.class, Short.class, String.class})
-public class NotEqualTo extends RUQTransformer {
+public class NotEqualTo extends TypedRUQTransformer {
     @Override
-    public <T extends RealmModel> RealmQuery<T> transform(RealmQuery<T> realmQuery, Condition condition) {
-        // Checks.
-        if (!condition.isValid()) throw new IllegalArgumentException("Condition isn't valid.");
-        if (condition.getType() != Condition.Type.NORMAL)
-            throw new IllegalArgumentException("Condition type is not NORMAL.");
+    protected <T extends RealmModel> RealmQuery<T> transformBoolean(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getBoolean(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDate(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getDate(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformDouble(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getDouble(0));
+    }
 
-        // Get data from Conditions.
-        String field = condition.getField();
-        FieldType fieldType = condition.getFieldType();
-        Object[] args = condition.getArgs();
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformFloat(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getFloat(0));
+    }
 
-        // Use different methods based on field type.
-        if (FieldType.BOOLEAN == fieldType) return realmQuery.notEqualTo(field, (Boolean) args[0]);
-        else if (FieldType.DATE == fieldType) return realmQuery.notEqualTo(field, (Date) args[0]);
-        else if (FieldType.DOUBLE == fieldType) return realmQuery.notEqualTo(field, (Double) args[0]);
-        else if (FieldType.FLOAT == fieldType) return realmQuery.notEqualTo(field, (Float) args[0]);
-        else if (FieldType.INTEGER == fieldType) return realmQuery.notEqualTo(field, (Integer) args[0]);
-        else if (FieldType.LONG == fieldType) return realmQuery.notEqualTo(field, (Long) args[0]);
-        else if (FieldType.SHORT == fieldType) return realmQuery.notEqualTo(field, (Short) args[0]);
-        else if (FieldType.STRING == fieldType) return realmQuery.notEqualTo(field, (String) args[0]);
-        else
-            throw new IllegalArgumentException(String.format("Illegal argument type \"%s\".", fieldType.getTypeName()));
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformInteger(RealmQuery<T> realmQuery, String field,
+                                                                    ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getInt(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformLong(RealmQuery<T> realmQuery, String field,
+                                                                 ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getLong(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformShort(RealmQuery<T> realmQuery, String field,
+                                                                  ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getShort(0));
+    }
+
+    @Override
+    protected <T extends RealmModel> RealmQuery<T> transformString(RealmQuery<T> realmQuery, String field,
+                                                                   ConditionArgs args) {
+        return realmQuery.notEqualTo(field, args.getString(0));
     }
 
     @Override
@@ -45,6 +68,6 @@ public class NotEqualTo extends RUQTransformer {
         return String.format(current.getFieldType() == FieldType.STRING ? "%s %s “%s”" : "%s %s %s",
                 ReadableStringUtils.visibleFieldNameFrom(current),
                 notNOT(previous) ? "is unequal to" : "is not unequal to",
-                ReadableStringUtils.argToString(current.getFieldType(), current.getArgs()[0]));
+                ReadableStringUtils.argToString(current.getFieldType(), current.getTypedArgs().get(0)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.bkromhout.ruqus;
+
+import android.test.mock.MockContext;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that queries survive being turned into bytes by {@link RUQBinaryCodec} and back, using the same old query
+ * strings as {@link RUQStringCodecTest}.
+ */
+public class RUQBinaryCodecTest {
+    @BeforeClass
+    public static void initRuqus() {
+        Ruqus.init(new MockContext(), new Ruqus$$RuqusIndex());
+    }
+
+    @Test
+    public void oldStringsRoundTripThroughBytes() {
+        for (String ruqString : RuqFixtures.ALL) {
+            byte[] ruqBytes = new RealmUserQuery(ruqString).toRuqBytes();
+            RealmUserQuery ruq = RealmUserQuery.fromBytes(ruqBytes);
+            assertEquals(ruqString, ruq.toRuqString());
+            assertArrayEquals(ruqBytes, ruq.toRuqBytes());
+        }
+    }
+
+    @Test
+    public void readsFromByteBuffer() {
+        for (String ruqString : RuqFixtures.ALL) {
+            byte[] ruqBytes = new RealmUserQuery(ruqString).toRuqBytes();
+            assertEquals(ruqString, RealmUserQuery.fromBytes(ByteBuffer.wrap(ruqBytes)).toRuqString());
+        }
+    }
+}
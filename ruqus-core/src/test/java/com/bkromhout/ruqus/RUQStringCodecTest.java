@@ -0,0 +1,91 @@
+package com.bkromhout.ruqus;
+
+import android.test.mock.MockContext;
+import io.realm.Sort;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that query strings written by the old version of {@link RealmUserQuery#toRuqString()} are still read
+ * correctly by {@link RUQStringCodec}, and written back exactly as they were.
+ */
+public class RUQStringCodecTest {
+    @BeforeClass
+    public static void initRuqus() {
+        Ruqus.init(new MockContext(), new Ruqus$$RuqusIndex());
+    }
+
+    @Test
+    public void oldStringsRoundTrip() {
+        for (String ruqString : RuqFixtures.ALL) {
+            RealmUserQuery ruq = new RealmUserQuery(ruqString);
+            assertTrue(ruqString, ruq.isQueryValid());
+            assertEquals(ruqString, ruq.toRuqString());
+        }
+    }
+
+    @Test
+    public void readsEveryFieldType() {
+        RealmUserQuery ruq = new RealmUserQuery(RuqFixtures.ALL_TYPES);
+        assertEquals("AllTypes", ruq.getQueryClass().getSimpleName());
+        assertEquals(8, ruq.conditionCount());
+        assertCondition(ruq.getConditions().get(0), "flag", Boolean.TRUE);
+        assertCondition(ruq.getConditions().get(1), "date", new Date(1476748800000L));
+        assertCondition(ruq.getConditions().get(2), "dbl", -0.5, 1.0E10);
+        assertCondition(ruq.getConditions().get(3), "flt", 3.25f);
+        assertCondition(ruq.getConditions().get(4), "num", -42);
+        assertCondition(ruq.getConditions().get(5), "id", 1234567890123L);
+        assertCondition(ruq.getConditions().get(6), "small", (short) 7);
+        assertCondition(ruq.getConditions().get(7), "name", "Ru");
+        assertEquals(Arrays.asList("name", "num"), ruq.getSortFields());
+        assertEquals(Arrays.asList(Sort.ASCENDING, Sort.DESCENDING), ruq.getSortDirs());
+    }
+
+    @Test
+    public void readsOperators() {
+        RealmUserQuery ruq = new RealmUserQuery(RuqFixtures.OPERATORS);
+        assertEquals(6, ruq.conditionCount());
+        assertEquals(Condition.Type.NOT, ruq.getConditions().get(0).getType());
+        assertEquals(Condition.Type.BEGIN_GROUP, ruq.getConditions().get(1).getType());
+        assertCondition(ruq.getConditions().get(2), "tag.name", "x");
+        assertEquals(Condition.Type.OR, ruq.getConditions().get(3).getType());
+        assertCondition(ruq.getConditions().get(4), "dbl", 2.0);
+        assertEquals(Condition.Type.END_GROUP, ruq.getConditions().get(5).getType());
+        assertTrue(ruq.getSortFields().isEmpty());
+    }
+
+    @Test
+    public void readsSortsWithoutConditions() {
+        RealmUserQuery ruq = new RealmUserQuery(RuqFixtures.SORTS_ONLY);
+        assertEquals(0, ruq.conditionCount());
+        assertEquals(Arrays.asList("date", "id"), ruq.getSortFields());
+        assertEquals(Arrays.asList(Sort.DESCENDING, Sort.ASCENDING), ruq.getSortDirs());
+
+        ruq = new RealmUserQuery(RuqFixtures.CLASS_ONLY);
+        assertEquals("AllTypes", ruq.getQueryClass().getSimpleName());
+        assertEquals(0, ruq.conditionCount());
+        assertTrue(ruq.getSortFields().isEmpty());
+    }
+
+    @Test
+    public void readsStringsContainingSeparator() {
+        RealmUserQuery ruq = new RealmUserQuery(RuqFixtures.SEPARATOR_IN_STRING);
+        assertEquals(3, ruq.conditionCount());
+        assertCondition(ruq.getConditions().get(0), "name", "a::b");
+        assertCondition(ruq.getConditions().get(1), "name", "::");
+        assertCondition(ruq.getConditions().get(2), "name", "c::");
+    }
+
+    private static void assertCondition(Condition condition, String field, Object... args) {
+        assertEquals(Condition.Type.NORMAL, condition.getType());
+        assertEquals(field, condition.getField());
+        assertArrayEquals(args, condition.getArgs());
+    }
+}
@@ -0,0 +1,63 @@
+package com.bkromhout.ruqus;
+
+/**
+ * Query strings which were written by the old version of {@link RealmUserQuery#toRuqString()}, from before it was
+ * replaced by {@link RUQStringCodec}. They use the test models in {@code com.bkromhout.ruqus.models}.
+ */
+final class RuqFixtures {
+    /**
+     * One condition on a field of every type, and two sorts.
+     */
+    static final String ALL_TYPES = "AllTypes#$_Ruqus_RUQ_$#" +
+            "NORMAL|||AllTypes|||flag|||true::BOOLEAN|||com.bkromhout.ruqus.transformers.EqualTo#$_Condition_$#" +
+            "NORMAL|||AllTypes|||date|||1476748800000::DATE" +
+            "|||com.bkromhout.ruqus.transformers.GreaterThan#$_Condition_$#" +
+            "NORMAL|||AllTypes|||dbl|||-0.5::DOUBLE;,;1.0E10::DOUBLE" +
+            "|||com.bkromhout.ruqus.transformers.Between#$_Condition_$#" +
+            "NORMAL|||AllTypes|||flt|||3.25::FLOAT|||com.bkromhout.ruqus.transformers.LessThan#$_Condition_$#" +
+            "NORMAL|||AllTypes|||num|||-42::INTEGER|||com.bkromhout.ruqus.transformers.NotEqualTo#$_Condition_$#" +
+            "NORMAL|||AllTypes|||id|||1234567890123::LONG" +
+            "|||com.bkromhout.ruqus.transformers.GreaterThanOrEqualTo#$_Condition_$#" +
+            "NORMAL|||AllTypes|||small|||7::SHORT|||com.bkromhout.ruqus.transformers.LessThanOrEqualTo#$_Condition_$#" +
+            "NORMAL|||AllTypes|||name|||Ru::STRING|||com.bkromhout.ruqus.transformers.BeginsWith#$_Ruqus_RUQ_$#" +
+            "name<<>>ASC#$_Sort_$#" +
+            "num<<>>DESC";
+
+    /**
+     * Operator conditions and a linked field, but no sorts.
+     */
+    static final String OPERATORS = "AllTypes#$_Ruqus_RUQ_$#" +
+            "NOT|||AllTypes|||com.bkromhout.ruqus.transformers.Not#$_Condition_$#" +
+            "BEGIN_GROUP|||AllTypes|||com.bkromhout.ruqus.transformers.BeginGroup#$_Condition_$#" +
+            "NORMAL|||AllTypes|||tag.name|||x::STRING|||com.bkromhout.ruqus.transformers.EqualTo#$_Condition_$#" +
+            "OR|||AllTypes|||com.bkromhout.ruqus.transformers.Or#$_Condition_$#" +
+            "NORMAL|||AllTypes|||dbl|||2.0::DOUBLE|||com.bkromhout.ruqus.transformers.GreaterThan#$_Condition_$#" +
+            "END_GROUP|||AllTypes|||com.bkromhout.ruqus.transformers.EndGroup#$_Ruqus_RUQ_$#";
+
+    /**
+     * Sorts, but no conditions.
+     */
+    static final String SORTS_ONLY = "AllTypes#$_Ruqus_RUQ_$#" +
+            "#$_Ruqus_RUQ_$#" +
+            "date<<>>DESC#$_Sort_$#" +
+            "id<<>>ASC";
+
+    /**
+     * Neither conditions nor sorts.
+     */
+    static final String CLASS_ONLY = "AllTypes#$_Ruqus_RUQ_$#" +
+            "#$_Ruqus_RUQ_$#";
+
+    /**
+     * String args which contain {@code ::}, which old versions of Ruqus could write but not read back.
+     */
+    static final String SEPARATOR_IN_STRING = "AllTypes#$_Ruqus_RUQ_$#" +
+            "NORMAL|||AllTypes|||name|||a::b::STRING|||com.bkromhout.ruqus.transformers.EqualTo#$_Condition_$#" +
+            "NORMAL|||AllTypes|||name|||::::STRING|||com.bkromhout.ruqus.transformers.StringContains#$_Condition_$#" +
+            "NORMAL|||AllTypes|||name|||c::::STRING|||com.bkromhout.ruqus.transformers.EndsWith#$_Ruqus_RUQ_$#" +
+            "flt<<>>ASC";
+
+    static final String[] ALL = {ALL_TYPES, OPERATORS, SORTS_ONLY, CLASS_ONLY, SEPARATOR_IN_STRING};
+
+    private RuqFixtures() {}
+}
@@ -0,0 +1,24 @@
+package com.bkromhout.ruqus.models;
+
+import com.bkromhout.ruqus.Queryable;
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+import java.util.Date;
+
+/**
+ * Has a field of every {@link com.bkromhout.ruqus.FieldType}.
+ */
+@Queryable(name = "All Types")
+public class AllTypes extends RealmObject {
+    @PrimaryKey
+    public long id;
+    public boolean flag;
+    public Date date;
+    public double dbl;
+    public float flt;
+    public int num;
+    public short small;
+    public String name;
+    public Tag tag;
+}
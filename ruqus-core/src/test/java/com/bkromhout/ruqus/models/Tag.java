@@ -0,0 +1,7 @@
+package com.bkromhout.ruqus.models;
+
+import io.realm.RealmObject;
+
+public class Tag extends RealmObject {
+    public String name;
+}
@@ -14,7 +14,8 @@ import com.bkromhout.ruqus.sample.models.Cat;
 import com.bkromhout.ruqus.sample.models.Person;
 import io.realm.Realm;
 import io.realm.RealmModel;
-import io.realm.RealmResults;
+
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
     @Bind(R.id.query)
@@ -54,11 +55,11 @@ public class MainActivity extends AppCompatActivity {
         currQuery.setText(realmUserQuery == null ? "No query." : realmUserQuery.toString());
         if (realmUserQuery != null) {
             resultsView.removeAllViews();
-            displayResults(realmUserQuery.execute(realm), realmUserQuery.getQueryClass());
+            displayResults(realmUserQuery.executeToList(realm), realmUserQuery.getQueryClass());
         }
     }
 
-    private <E extends RealmModel> void displayResults(RealmResults<E> results, Class<? extends RealmModel> clazz) {
+    private <E extends RealmModel> void displayResults(List<E> results, Class<? extends RealmModel> clazz) {
         for (int i = results.size() - 1; i >= 0; i--) {
             String displayStr = "";
             if (Person.class.getCanonicalName().equals(clazz.getCanonicalName())) {
@@ -2,6 +2,7 @@ package com.bkromhout.ruqus.sample;
 
 import android.app.Application;
 import com.bkromhout.ruqus.Ruqus;
+import com.bkromhout.ruqus.Ruqus$$RuqusIndex;
 import com.bkromhout.ruqus.sample.models.Bone;
 import com.bkromhout.ruqus.sample.models.Cat;
 import com.bkromhout.ruqus.sample.models.Dog;
@@ -30,7 +31,7 @@ public class SampleApplication extends Application {
                     }
                 })
                 .build());
-        Ruqus.init(this);
+        Ruqus.init(this, new Ruqus$$RuqusIndex());
     }
 
     /**